@@ -17,23 +17,51 @@
  */
 package net.mjcarpenter.maledict.crypto.ldc;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
+
 public abstract class AbstractApproximation
 {
-	private final long plaintextMask;
-	private final long lastRoundMask;
+	private final Block plaintextMask;
+	private final Block lastRoundMask;
 	
 	public AbstractApproximation(long plaintextMask, long lastRoundMask)
 	{
+		this(Block.valueOf(plaintextMask, Long.SIZE), Block.valueOf(lastRoundMask, Long.SIZE));
+	}
+	
+	public AbstractApproximation(Block plaintextMask, Block lastRoundMask)
+	{
+		if(plaintextMask.numLanes() != lastRoundMask.numLanes())
+			throw new IllegalArgumentException("Plaintext and last round masks must be the same width!");
+		
 		this.plaintextMask = plaintextMask;
 		this.lastRoundMask = lastRoundMask;
 	}
 	
+	/**
+	 * @return The lowest 64 bits of the plaintext mask, which is the whole
+	 * mask for blocks of at most 64 bits.
+	 */
 	public long getPlaintextMask()
 	{
-		return plaintextMask;
+		return plaintextMask.longValue();
 	}
 	
+	/**
+	 * @return The lowest 64 bits of the last round mask, which is the whole
+	 * mask for blocks of at most 64 bits.
+	 */
 	public long getLastRoundMask()
+	{
+		return lastRoundMask.longValue();
+	}
+	
+	public Block getPlaintextMaskBlock()
+	{
+		return plaintextMask;
+	}
+	
+	public Block getLastRoundMaskBlock()
 	{
 		return lastRoundMask;
 	}
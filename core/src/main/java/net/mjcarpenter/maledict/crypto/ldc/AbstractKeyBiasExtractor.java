@@ -17,21 +17,36 @@
  */
 package net.mjcarpenter.maledict.crypto.ldc;
 
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-
-import org.apache.commons.lang3.ArrayUtils;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongToDoubleFunction;
 
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.Key;
+import net.mjcarpenter.maledict.crypto.spn.LongBlockCipher;
+import net.mjcarpenter.maledict.crypto.spn.PairPipeline;
+import net.mjcarpenter.maledict.crypto.spn.PairSource;
+import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
-import net.mjcarpenter.maledict.util.BitUtils;
+import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
 
 public abstract class AbstractKeyBiasExtractor<T extends AbstractApproximation>
 {
-	protected TreeMap<Key, Double> biasMap;
+	/**
+	 * The widest S-box for which the table kernel tabulates an inverse.
+	 */
+	public static final int MAX_TABLE_BOX_BITS = 16;
+	
+	// Roughly how many progress reports a candidate search makes.
+	private static final int PROGRESS_STEPS = 256;
+	
+	protected KeyBiasScores scores;
 	protected Key maxBiasKey;
 	protected Round relevantRound;
 	protected T appx;
@@ -39,15 +54,29 @@ public abstract class AbstractKeyBiasExtractor<T extends AbstractApproximation>
 	protected int boxesToCheck;
 	protected int boxLength;
 	
-	protected boolean cancellation;
+	// Undoes the relevant round short of its key, or null if blocks do not fit in a long.
+	protected LongBlockCipher partialDecryption;
+	
+	// Written by whichever thread cancels, read by every worker.
+	protected volatile boolean cancellation;
 	
 	private boolean[] boxIndexes;
 	
+	// Splits the candidates across a pool, or null to search them on the calling thread.
+	private BatchExecutor keyExecutor;
+	
+	// Per active S-box, lowest field first: the offset of its field, and the box's inverse as the
+	// partial decryption applies it. Null unless boxes tile bytes and the tables are small.
+	protected int[]   activeShifts;
+	protected int[][] inverseBoxes;
+	
+	private boolean boxTables;
+	
 	public AbstractKeyBiasExtractor(Round relevantRound, T appx)
 	{
 		this.relevantRound = relevantRound;
 		this.appx = appx;
-		biasMap = null;
+		scores = null;
 		maxBiasKey = null;
 		
 		int numBoxes  = relevantRound.getSBoxes().length;
@@ -58,7 +87,7 @@ public abstract class AbstractKeyBiasExtractor<T extends AbstractApproximation>
 		
 		for(int i=0; i<numBoxes; i++)
 		{
-			if(((appx.getLastRoundMask()>>>i*boxLength)&((1<<boxLength)-1)) != 0)
+			if(appx.getLastRoundMaskBlock().bits(i*boxLength, boxLength) != 0)
 			{
 				boxesToCheck++;
 				boxIndexes[boxIndexes.length-(i+1)] = true;
@@ -68,11 +97,402 @@ public abstract class AbstractKeyBiasExtractor<T extends AbstractApproximation>
 		this.cancellation = false;
 		
 		this.boxesToCheck = boxesToCheck;
+		
+		int bitLength = relevantRound.bitLength();
+		if(bitLength <= Long.SIZE && bitLength%Byte.SIZE == 0)
+		{
+			this.partialDecryption = new SPNetwork(bitLength, new Round[]{relevantRound})
+					.getRoundRange(0, 1, true);
+			
+			if((Byte.SIZE%boxLength == 0 || boxLength%Byte.SIZE == 0) && boxLength <= MAX_TABLE_BOX_BITS)
+				buildInverseBoxes();
+		}
+		
+		this.boxTables = true;
+	}
+	
+	/**
+	 * Tabulates the inverse of each active S-box by running a single box's
+	 * worth of bits through the partial decryption, so that the tables match
+	 * it exactly whatever the round's layout.
+	 */
+	private void buildInverseBoxes()
+	{
+		Permutation perm    = relevantRound.getPermutation();
+		long        boxMask = (1L<<boxLength)-1;
+		Block       lastRoundMask = appx.getLastRoundMaskBlock();
+		
+		activeShifts = new int[boxesToCheck];
+		inverseBoxes = new int[boxesToCheck][1<<boxLength];
+		
+		for(int i=0, j=0; i<relevantRound.getSBoxes().length; i++)
+		{
+			if(lastRoundMask.bits(i*boxLength, boxLength) == 0)
+				continue;
+			
+			int shift = i*boxLength;
+			activeShifts[j] = shift;
+			
+			// The box's input arrives through the permutation, so place it where the permutation will take it from.
+			for(int v=0; v<inverseBoxes[j].length; v++)
+				inverseBoxes[j][v] = (int)((partialDecryption.decrypt(perm.permuteFwd((long)v<<shift))>>>shift)&boxMask);
+			
+			j++;
+		}
+	}
+	
+	/**
+	 * Chooses whether columnar pairs are counted pair by pair against every
+	 * candidate using lookup tables, rather than candidate by candidate with
+	 * a full partial decryption of each pair.
+	 * <br /><br />
+	 * The table kernel undoes the last permutation once per pair, splits the
+	 * result into the inputs of the active S-boxes, and tests each candidate
+	 * with one lookup per active box into a table of that box's inverse, so
+	 * its inner loop touches only a few small arrays. It counts each range
+	 * of candidates into a dense {@code int[]} per chunk. The counts, and the
+	 * biases, are identical. On by default, and only available when S-boxes
+	 * tile bytes and are at most {@value #MAX_TABLE_BOX_BITS} bits wide.
+	 * 
+	 * @param boxTables Whether to count with the table kernel where possible.
+	 */
+	public void setBoxTables(boolean boxTables)
+	{
+		this.boxTables = boxTables;
+	}
+	
+	/**
+	 * Whether the next columnar or streamed extraction will count with the table kernel.
+	 */
+	public boolean usesBoxTables()
+	{
+		return boxTables && inverseBoxes != null;
+	}
+	
+	/**
+	 * The input each active S-box would see from the given key alone, once
+	 * the last permutation is undone, as {@code keys.length} rows of one
+	 * value per active box. The input under a key and ciphertext is the XOR
+	 * of their two values, as the permutation is linear.
+	 */
+	protected int[] keyBoxInputs(long[] keys)
+	{
+		Permutation perm    = relevantRound.getPermutation();
+		int         boxMask = (1<<boxLength)-1;
+		int[]       out     = new int[keys.length*activeShifts.length];
+		
+		for(int k=0; k<keys.length; k++)
+		{
+			long undone = perm.permuteRev(keys[k]);
+			
+			for(int j=0; j<activeShifts.length; j++)
+				out[k*activeShifts.length+j] = (int)(undone>>>activeShifts[j])&boxMask;
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Sets the executor across which key candidates are searched, or null to
+	 * search them one after another on the calling thread, as by default.
+	 * <br /><br />
+	 * Candidates are independent, so the index space is split into ranges
+	 * and each worker counts its own candidates into their own slots; the
+	 * results are identical either way. The executor's minimum chunk size is
+	 * taken as a number of candidates, so an executor made for key search
+	 * should have a small one.
+	 * 
+	 * @param keyExecutor The executor to use, or null.
+	 */
+	public void setKeyExecutor(BatchExecutor keyExecutor)
+	{
+		this.keyExecutor = keyExecutor;
+	}
+	
+	public BatchExecutor getKeyExecutor()
+	{
+		return keyExecutor;
+	}
+	
+	/**
+	 * Runs {@code task} over the candidate indices {@code [0, count)}, split
+	 * across the key executor if one is set. Each range must only write the
+	 * slots of its own candidates.
+	 */
+	protected void forEachCandidate(int count, BatchExecutor.RangeTask task)
+	{
+		if(keyExecutor == null)
+			task.run(0, count);
+		else
+			keyExecutor.run(count, task);
+	}
+	
+	/**
+	 * Runs {@code candidate} for each of {@code count} candidates, as with
+	 * {@link #forEachCandidate(int, BatchExecutor.RangeTask)}, reporting
+	 * progress as it goes and stopping early on cancellation.
+	 * <br /><br />
+	 * Each worker counts its own candidates and publishes them a few hundred
+	 * times over the whole search. Whichever worker
+	 * publishes reports the latest total, unless another is already reporting,
+	 * in which case it carries on searching rather than wait. Reports are so
+	 * made one at a time and never go backwards, and a slow callback holds up
+	 * at most the worker making it.
+	 * 
+	 * @param count The number of candidates.
+	 * @param subTotal The sub-progress to report with each candidate.
+	 * @param candidate Searches one candidate.
+	 * @param callback Receives progress through the candidates.
+	 * @return Whether every candidate was searched, or false if cancelled.
+	 */
+	protected boolean searchCandidates(int count, int subTotal, IntConsumer candidate, BiasExtractorProgressCallback callback)
+	{
+		int           interval  = Math.max(1, count/PROGRESS_STEPS);
+		AtomicInteger done      = new AtomicInteger();
+		AtomicBoolean reporting = new AtomicBoolean();
+		int[]         reported  = new int[1];
+		
+		forEachCandidate(count, (from, to) ->
+		{
+			int pending = 0;
+			
+			for(int i=from; i<to && !cancellation; i++)
+			{
+				candidate.accept(i);
+				
+				if(++pending == interval || i == to-1)
+				{
+					done.addAndGet(pending);
+					pending = 0;
+					
+					if(reporting.compareAndSet(false, true))
+					{
+						// Read the total while reporting, so no later report can carry a smaller one.
+						int now = done.get();
+						if(now > reported[0])
+						{
+							reported[0] = now;
+							callback.progress(now, count, subTotal, subTotal);
+						}
+						
+						reporting.set(false);
+					}
+				}
+			}
+		});
+		
+		// Check for cancellation
+		if(cancellation)
+		{
+			scores = null;
+			maxBiasKey = null;
+			return false;
+		}
+		
+		// Every worker has finished, so report any total skipped while another was reporting.
+		if(reported[0] < count)
+			callback.progress(count, count, subTotal, subTotal);
+		
+		return true;
+	}
+	
+	/**
+	 * Ensures pairs of the given block size can take the columnar path.
+	 */
+	protected void validateColumnar(int blockSize)
+	{
+		if(partialDecryption == null)
+			throw new IllegalArgumentException("Columnar pairs need a byte-aligned block size of at most "+Long.SIZE+" bits!");
+		
+		if(blockSize != relevantRound.bitLength())
+			throw new IllegalArgumentException("Pair block size must match the round's block size!");
+	}
+	
+	/**
+	 * Counts, for every key candidate, the pairs of {@code source} that match
+	 * the approximation, in a single pass over the source's chunks. Only one
+	 * chunk is held at a time. Cancellation is checked and progress reported
+	 * after each chunk.
+	 * 
+	 * @param source The pairs to count.
+	 * @param counter Adds one chunk's matches to the counts.
+	 * @param callback Receives progress through the pairs.
+	 * @return The match count of each candidate, or null if cancelled.
+	 */
+	protected <P> long[] countMatches(PairSource<P> source, ChunkCounter<P> counter, BiasExtractorProgressCallback callback)
+	{
+		return countMatches(source, 1<<(boxLength*boxesToCheck), counter, callback);
+	}
+	
+	/**
+	 * As {@link #countMatches(PairSource, ChunkCounter, BiasExtractorProgressCallback)},
+	 * but counting into {@code cells} counters rather than one per candidate,
+	 * for counters that tally something other than matches.
+	 */
+	protected <P> long[] countMatches(PairSource<P> source, int cells, ChunkCounter<P> counter, BiasExtractorProgressCallback callback)
+	{
+		int keysToCheck = 1<<(boxLength*boxesToCheck);
+		long[] keys   = keyValues();
+		long[] counts = new long[cells];
+		
+		// Progress is reported in pairs, or in chunks once the count no longer fits an int.
+		long   total = source.size();
+		int    scale = (total > Integer.MAX_VALUE) ? PairSource.CHUNK_SIZE : 1;
+		long[] done  = new long[1];
+		
+		Spliterator<P> chunks = source.spliterator();
+		boolean more = true;
+		
+		while(more)
+		{
+			// Check for cancellation
+			if(cancellation)
+			{
+				scores = null;
+				maxBiasKey = null;
+				return null;
+			}
+			
+			more = chunks.tryAdvance(chunk -> done[0] += counter.count(chunk, keys, counts));
+			callback.progress(keysToCheck, keysToCheck, (int)(done[0]/scale), (int)(total/scale));
+		}
+		
+		return counts;
+	}
+	
+	/**
+	 * As {@link #countMatches(PairSource, ChunkCounter, BiasExtractorProgressCallback)},
+	 * but with chunks produced and consumed concurrently by {@code pipeline}.
+	 * Each consumer counts into its own array and the arrays are summed at the
+	 * end, so the counts are the same as a single pass would give.
+	 * 
+	 * @param source The pairs to count.
+	 * @param pipeline The pipeline through which to run the source.
+	 * @param counter Adds one chunk's matches to the counts.
+	 * @param callback Receives progress through the pairs.
+	 * @return The match count of each candidate, or null if cancelled.
+	 */
+	protected <P> long[] countMatches(PairSource<P> source, PairPipeline<P> pipeline, ChunkCounter<P> counter,
+			BiasExtractorProgressCallback callback)
+	{
+		return countMatches(source, pipeline, 1<<(boxLength*boxesToCheck), counter, callback);
+	}
+	
+	/**
+	 * As {@link #countMatches(PairSource, PairPipeline, ChunkCounter, BiasExtractorProgressCallback)},
+	 * but counting into {@code cells} counters rather than one per candidate.
+	 */
+	protected <P> long[] countMatches(PairSource<P> source, PairPipeline<P> pipeline, int cells, ChunkCounter<P> counter,
+			BiasExtractorProgressCallback callback)
+	{
+		int keysToCheck = 1<<(boxLength*boxesToCheck);
+		long[] keys = keyValues();
+		
+		long       total = source.size();
+		int        scale = (total > Integer.MAX_VALUE) ? PairSource.CHUNK_SIZE : 1;
+		AtomicLong done  = new AtomicLong();
+		
+		List<long[]> parts;
+		try
+		{
+			parts = pipeline.run(source, () -> new long[cells], (counts, chunk) ->
+			{
+				if(cancellation)
+				{
+					pipeline.cancel();
+					return;
+				}
+				
+				long counted = counter.count(chunk, keys, counts);
+				
+				// Consumers add and report one at a time, so the callback never runs
+				// concurrently and never sees the total go backwards.
+				synchronized(done)
+				{
+					long now = done.addAndGet(counted);
+					callback.progress(keysToCheck, keysToCheck, (int)(now/scale), (int)(total/scale));
+				}
+			});
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			cancellation = true;
+			parts = null;
+		}
+		
+		if(cancellation || parts == null)
+		{
+			scores = null;
+			maxBiasKey = null;
+			return null;
+		}
+		
+		long[] counts = new long[cells];
+		for(long[] part: parts)
+		{
+			for(int c=0; c<cells; c++)
+				counts[c] += part[c];
+		}
+		
+		return counts;
+	}
+	
+	/**
+	 * The value of each key candidate, in candidate order.
+	 */
+	protected long[] keyValues()
+	{
+		long[] keys = new long[1<<(boxLength*boxesToCheck)];
+		
+		for(int i=0; i<keys.length; i++)
+		{
+			keys[i] = getKeyFor(i).longValue();
+		}
+		
+		return keys;
+	}
+	
+	/**
+	 * Whether this extractor accepts pair stores and {@link PairSource}s,
+	 * which need a byte-aligned block of at most 64 bits.
+	 */
+	public boolean supportsPairSources()
+	{
+		return partialDecryption != null;
+	}
+	
+	/**
+	 * Stores the scores from the match count of each candidate, and notes the
+	 * candidate with the greatest bias.
+	 */
+	protected void storeBiases(long[] counts, LongToDoubleFunction bias)
+	{
+		scores = new KeyBiasScores(counts, bias, this::getKeyFor);
+		
+		int best = scores.getBestCandidate();
+		maxBiasKey = (best < 0) ? null : getKeyFor(best);
+	}
+	
+	/**
+	 * Adds the matches in one chunk of pairs to the count of each candidate.
+	 */
+	@FunctionalInterface
+	protected interface ChunkCounter<P>
+	{
+		/**
+		 * @param chunk The pairs to test.
+		 * @param keys The value of each key candidate.
+		 * @param counts The running match count of each candidate, or
+		 *        whatever other counters the caller asked for.
+		 * @return The number of pairs in the chunk.
+		 */
+		int count(P chunk, long[] keys, long[] counts);
 	}
 	
 	protected Key getKeyFor(int in)
 	{
-		long val = 0;
+		Block val = Block.zero(relevantRound.bitLength());
 		int numUsed = 0;
 				
 		for(int i=0; i<relevantRound.getSBoxes().length && numUsed<boxesToCheck; i++)
@@ -81,15 +501,38 @@ public abstract class AbstractKeyBiasExtractor<T extends AbstractApproximation>
 			{
 				int mask = ((1<<(boxLength))-1)<<((boxesToCheck-numUsed-1)*boxLength);
 				int boxVal = (mask&in)>>>((boxesToCheck-numUsed-1)*boxLength);
-				val |= (boxVal<<(boxLength*(boxIndexes.length-i-1)));
+				val = val.withBits(boxLength*(boxIndexes.length-i-1), boxLength, boxVal);
 				
 				numUsed++;
 			}
 		}
 		
-		byte[] conversion = BitUtils.longToByte(val, relevantRound.bitLength()/Byte.SIZE);
-		ArrayUtils.reverse(conversion);
-		return new Key(conversion);
+		// The guessed bits sit at the same positions as the mask, so the key needs no reordering.
+		return new Key(val.toByteArray());
+	}
+	
+	/**
+	 * The candidate number of the given key, the inverse of
+	 * {@link #getKeyFor(int)}. Bits outside the active S-boxes are ignored.
+	 */
+	protected int getCandidateFor(Key key)
+	{
+		Block val = key.blockValue();
+		int out = 0;
+		int numUsed = 0;
+		
+		for(int i=0; i<relevantRound.getSBoxes().length && numUsed<boxesToCheck; i++)
+		{
+			if(boxIndexes[i])
+			{
+				int boxVal = (int)val.bits(boxLength*(boxIndexes.length-i-1), boxLength);
+				out |= boxVal<<((boxesToCheck-numUsed-1)*boxLength);
+				
+				numUsed++;
+			}
+		}
+		
+		return out;
 	}
 		
 	public void cancel()
@@ -102,9 +545,22 @@ public abstract class AbstractKeyBiasExtractor<T extends AbstractApproximation>
 		return this.cancellation;
 	}
 	
+	/**
+	 * The bias of every candidate, or null if no extraction has finished.
+	 */
+	public KeyBiasScores getScores()
+	{
+		return scores;
+	}
+	
+	/**
+	 * Every candidate's key and bias as a map, built on first request. For
+	 * large searches, {@link #getScores()} answers the same questions
+	 * without building a key per candidate.
+	 */
 	public Map<Key, Double> getBiasMap()
 	{
-		return this.biasMap;
+		return scores != null ? scores.toMap() : null;
 	}
 	
 	public Key getMaxBiasKey()
@@ -114,23 +570,16 @@ public abstract class AbstractKeyBiasExtractor<T extends AbstractApproximation>
 	
 	public double getMaxBiasValue()
 	{
-		return getBiasFor(maxBiasKey);
+		return scores != null && scores.getBestCandidate() >= 0 ? scores.getBias(scores.getBestCandidate()) : -1;
 	}
 	
 	public double getBiasFor(Key subkeyVal)
 	{
-		return biasMap != null && subkeyVal != null ? biasMap.get(subkeyVal) : -1;
+		return scores != null && subkeyVal != null ? scores.getBias(getCandidateFor(subkeyVal)) : -1;
 	}
 	
 	public List<Map.Entry<Key, Double>> getTopValues(int numVals)
 	{
-	    @SuppressWarnings("unchecked")
-		Map.Entry<Key, Double>[] topEntries = biasMap.entrySet()
-	              .stream()
-	              .sorted(Map.Entry.comparingByValue(Collections.reverseOrder()))
-	              .limit(numVals)
-	              .toArray(Map.Entry[]::new);
-	    
-	    return Arrays.asList(topEntries);
+		return scores.top(numVals);
 	}
 }
@@ -17,6 +17,8 @@
  */
 package net.mjcarpenter.maledict.crypto.ldc;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
+
 public final class DifferentialApproximation extends AbstractApproximation {
 
 	public DifferentialApproximation(long plaintextMask, long lastRoundMask)
@@ -24,6 +26,11 @@ public final class DifferentialApproximation extends AbstractApproximation {
 		super(plaintextMask, lastRoundMask);
 	}
 	
+	public DifferentialApproximation(Block plaintextMask, Block lastRoundMask)
+	{
+		super(plaintextMask, lastRoundMask);
+	}
+	
 	public boolean testAgainst(long plaintextA, long plaintextB, long lastRoundA, long lastRoundB)
 	{
 		long diffA = plaintextA^plaintextB;
@@ -36,4 +43,17 @@ public final class DifferentialApproximation extends AbstractApproximation {
 		
 		return getLastRoundMask() == diffB;
 	}
+	
+	public boolean testAgainst(Block plaintextA, Block plaintextB, Block lastRoundA, Block lastRoundB)
+	{
+		if(plaintextA.numLanes() == 1)
+			return testAgainst(plaintextA.longValue(), plaintextB.longValue(), lastRoundA.longValue(), lastRoundB.longValue());
+		
+		if(!plaintextA.xor(plaintextB).equals(getPlaintextMaskBlock()))
+		{
+			throw new IllegalArgumentException("Plaintexts do not fit the input mask for this approximation.");
+		}
+		
+		return getLastRoundMaskBlock().equals(lastRoundA.xor(lastRoundB));
+	}
 }
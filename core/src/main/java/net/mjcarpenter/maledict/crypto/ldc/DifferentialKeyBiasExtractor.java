@@ -18,28 +18,94 @@
 package net.mjcarpenter.maledict.crypto.ldc;
 
 import java.util.List;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.ChosenPair;
+import net.mjcarpenter.maledict.crypto.spn.ChosenPairBlock;
 import net.mjcarpenter.maledict.crypto.spn.Key;
+import net.mjcarpenter.maledict.crypto.spn.LongBlockCipher;
+import net.mjcarpenter.maledict.crypto.spn.PairPipeline;
+import net.mjcarpenter.maledict.crypto.spn.PairSource;
+import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
-import net.mjcarpenter.maledict.util.BitUtils;
 
 public final class DifferentialKeyBiasExtractor extends AbstractKeyBiasExtractor<DifferentialApproximation>
 {
+	// S-box outputs of the relevant round, as seen before its permutation, that no right pair changes.
+	private final Block inactiveBoxes;
+	private final long  inactiveMask;
+	
+	private final LongAdder pairsExamined  = new LongAdder();
+	private final LongAdder pairsSurviving = new LongAdder();
+	
 	public DifferentialKeyBiasExtractor(Round relevantRound, DifferentialApproximation appx)
 	{
 		super(relevantRound, appx);
+		
+		Block lastRoundMask = appx.getLastRoundMaskBlock();
+		Block inactive      = Block.zero(relevantRound.bitLength());
+		
+		// Boxes only line up with mask fields when they tile bytes; otherwise nothing is filtered.
+		if(Byte.SIZE%boxLength == 0 || boxLength%Byte.SIZE == 0)
+		{
+			long boxMask = (1L<<boxLength)-1;
+			
+			for(int i=0; i<relevantRound.getSBoxes().length; i++)
+			{
+				if(lastRoundMask.bits(i*boxLength, boxLength) == 0)
+					inactive = inactive.withBits(i*boxLength, boxLength, boxMask);
+			}
+		}
+		
+		this.inactiveBoxes = inactive;
+		this.inactiveMask  = (inactive.numLanes() == 1) ? inactive.longValue() : 0;
+	}
+	
+	/**
+	 * The number of pairs the last extraction examined.
+	 */
+	public long getPairsExamined()
+	{
+		return pairsExamined.sum();
+	}
+	
+	/**
+	 * The number of pairs of the last extraction that passed the ciphertext
+	 * filter and so were tested under every key candidate. The rest had a
+	 * ciphertext difference in some S-box the approximation leaves inactive,
+	 * which no key can undo, so they could never have been right pairs.
+	 */
+	public long getPairsSurviving()
+	{
+		return pairsSurviving.sum();
+	}
+	
+	/**
+	 * Whether a pair's ciphertexts could come from a right pair: the difference
+	 * is key-independent, and once the last permutation is undone it must be
+	 * zero at every inactive S-box, since a bijective S-box maps no input
+	 * difference to no output difference.
+	 */
+	private boolean survivesFilter(Permutation perm, long ciphertextA, long ciphertextB)
+	{
+		return (perm.permuteRev(ciphertextA^ciphertextB) & inactiveMask) == 0;
+	}
+	
+	private void validatePlaintexts(long plaintextA, long plaintextB)
+	{
+		if((plaintextA^plaintextB) != appx.getPlaintextMask())
+			throw new IllegalArgumentException("Plaintexts do not fit the input mask for this approximation.");
 	}
 
 	public void generateBiases(List<ChosenPair> pairs, BiasExtractorProgressCallback callback)
 	{
-		biasMap = new TreeMap<Key, Double>();
-				
-		Key k = null;
-		
-		double maxBias = Double.MIN_VALUE;
-		Key maxKey = null;
+		// Blocks that fit in a long take the columnar path.
+		if(partialDecryption != null)
+		{
+			generateBiases(ChosenPairBlock.of(pairs, relevantRound.bitLength()), callback);
+			return;
+		}
 		
 		// We need to replace the key with a no-op key because the round begins with a key,
 		// and we want to stop just short of that.
@@ -47,57 +113,246 @@ public final class DifferentialKeyBiasExtractor extends AbstractKeyBiasExtractor
 		
 		int keysToCheck = 1<<(boxLength*boxesToCheck);
 		
-		for(int i=0; i<keysToCheck; i++)
+		// Convert every pair once up front rather than once per key guess, keeping only those that pass the filter.
+		Block[] plaintextsA  = new Block[pairs.size()];
+		Block[] plaintextsB  = new Block[pairs.size()];
+		Block[] ciphertextsA = new Block[pairs.size()];
+		Block[] ciphertextsB = new Block[pairs.size()];
+		Permutation perm = relevantRound.getPermutation();
+		int survivors = 0;
+		
+		for(int p=0; p<pairs.size(); p++)
 		{
-			k = getKeyFor(i);
+			Block plainA  = Block.valueOf(pairs.get(p).getPairA().getPlaintext());
+			Block plainB  = Block.valueOf(pairs.get(p).getPairB().getPlaintext());
+			Block cipherA = Block.valueOf(pairs.get(p).getPairA().getCiphertext());
+			Block cipherB = Block.valueOf(pairs.get(p).getPairB().getCiphertext());
+			
+			if(!plainA.xor(plainB).equals(appx.getPlaintextMaskBlock()))
+				throw new IllegalArgumentException("Plaintexts do not fit the input mask for this approximation.");
 			
+			if(perm.permuteRev(cipherA.xor(cipherB)).and(inactiveBoxes).isZero())
+			{
+				plaintextsA[survivors]  = plainA;
+				plaintextsB[survivors]  = plainB;
+				ciphertextsA[survivors] = cipherA;
+				ciphertextsB[survivors] = cipherB;
+				survivors++;
+			}
+		}
+		
+		pairsExamined.reset();
+		pairsSurviving.reset();
+		pairsExamined.add(pairs.size());
+		pairsSurviving.add(survivors);
+		
+		long[] counts = new long[keysToCheck];
+		int    live   = survivors;
+		
+		boolean finished = searchCandidates(keysToCheck, live, i ->
+		{
+			Key k = getKeyFor(i);
 			int matches = 0;
-			int pairProg = 0;
 			
-			for(ChosenPair pair: pairs)
+			for(int p=0; p<live && !cancellation; p++)
 			{
-				byte[] partialDecryptionA = pair.getPairA().getCiphertext();
-				byte[] partialDecryptionB = pair.getPairB().getCiphertext();
-				
 				// This is the "last round" decryption. The last round consists of only a key.
-				partialDecryptionA = k.xor(partialDecryptionA);
-				partialDecryptionA = testRound.invert(partialDecryptionA);
-				partialDecryptionB = k.xor(partialDecryptionB);
-				partialDecryptionB = testRound.invert(partialDecryptionB);
+				Block partialDecryptionA = testRound.invert(k.xor(ciphertextsA[p]));
+				Block partialDecryptionB = testRound.invert(k.xor(ciphertextsB[p]));
 				
-				if(appx.testAgainst(
-						BitUtils.byteToLong(pair.getPairA().getPlaintext()),
-						BitUtils.byteToLong(pair.getPairB().getPlaintext()),
-						BitUtils.byteToLong(partialDecryptionA),
-						BitUtils.byteToLong(partialDecryptionB)))
+				if(appx.testAgainst(plaintextsA[p], plaintextsB[p], partialDecryptionA, partialDecryptionB))
 				{
 					matches++;
 				}
+			}
+			
+			counts[i] = matches;
+		}, callback);
+		
+		if(!finished)
+			return;
+		
+		double n = pairs.size();
+		storeBiases(counts, matches -> matches/n);
+	}
+	
+	/**
+	 * As {@link #generateBiases(List, BiasExtractorProgressCallback)}, reading
+	 * pairs straight from their columns.
+	 * 
+	 * @param pairs The chosen pairs, whose block size must match the round's.
+	 * @param callback Receives progress through the pairs.
+	 */
+	public void generateBiases(ChosenPairBlock pairs, BiasExtractorProgressCallback callback)
+	{
+		generateBiases(PairSource.of(pairs), callback);
+	}
+	
+	/**
+	 * Counts matches for every key candidate in a single streaming pass over
+	 * {@code source}, holding only one chunk of pairs at a time.
+	 * 
+	 * @param source The chosen pairs, whose block size must match the round's.
+	 * @param callback Receives progress through the pairs.
+	 */
+	public void generateBiases(PairSource<ChosenPairBlock> source, BiasExtractorProgressCallback callback)
+	{
+		validateColumnar(source.getBlockSize());
+		pairsExamined.reset();
+		pairsSurviving.reset();
+		
+		long[] counts = countMatches(source, this::countChunk, callback);
+		
+		if(counts == null)
+			return;
+		
+		double n = source.size();
+		storeBiases(counts, matches -> matches/n);
+	}
+	
+	/**
+	 * As {@link #generateBiases(PairSource, BiasExtractorProgressCallback)},
+	 * but with pairs produced and counted concurrently through {@code pipeline}.
+	 * 
+	 * @param source The chosen pairs, whose block size must match the round's.
+	 * @param pipeline The pipeline through which to run the source.
+	 * @param callback Receives progress through the pairs.
+	 */
+	public void generateBiases(PairSource<ChosenPairBlock> source, PairPipeline<ChosenPairBlock> pipeline, BiasExtractorProgressCallback callback)
+	{
+		validateColumnar(source.getBlockSize());
+		pairsExamined.reset();
+		pairsSurviving.reset();
+		
+		long[] counts = countMatches(source, pipeline, this::countChunk, callback);
+		
+		if(counts == null)
+			return;
+		
+		double n = source.size();
+		storeBiases(counts, matches -> matches/n);
+	}
+	
+	private int countChunk(ChosenPairBlock pairs, long[] keys, long[] matches)
+	{
+		LongBlockCipher partial = partialDecryption;
+		Permutation perm = relevantRound.getPermutation();
+		int numPairs = pairs.size();
+		
+		// Filter once per chunk, so that only surviving pairs meet the key loop.
+		int[] live = new int[numPairs];
+		int numLive = 0;
+		
+		for(int p=0; p<numPairs; p++)
+		{
+			validatePlaintexts(pairs.getPlaintextA(p), pairs.getPlaintextB(p));
+			
+			if(survivesFilter(perm, pairs.getCiphertextA(p), pairs.getCiphertextB(p)))
+				live[numLive++] = p;
+		}
+		
+		pairsExamined.add(numPairs);
+		pairsSurviving.add(numLive);
+		
+		if(usesBoxTables())
+			return countLiveByTables(pairs, live, numLive, keys, matches);
+		
+		int survivors = numLive;
+		
+		forEachCandidate(keys.length, (from, to) ->
+		{
+			for(int k=from; k<to; k++)
+			{
+				int chunkMatches = 0;
 				
-				// Check for cancellation
-				if(cancellation)
+				for(int l=0; l<survivors; l++)
 				{
-					biasMap = null;
-					maxBiasKey = null;
-					maxBias = -1;
-					return;
+					int p = live[l];
+					
+					// Undo the relevant round, short of its own key, under the guessed last-round key.
+					long partialA = partial.decrypt(keys[k]^pairs.getCiphertextA(p));
+					long partialB = partial.decrypt(keys[k]^pairs.getCiphertextB(p));
+					
+					if(appx.testAgainst(pairs.getPlaintextA(p), pairs.getPlaintextB(p), partialA, partialB))
+					{
+						chunkMatches++;
+					}
 				}
 				
-				// Notify caller of progress.
-				callback.progress(i+1, keysToCheck, ++pairProg, pairs.size());
+				matches[k] += chunkMatches;
 			}
+		});
+		
+		return numPairs;
+	}
+	
+	/**
+	 * Counts the matches among the surviving pairs of a chunk pair by pair.
+	 * Survivors already differ in no inactive S-box, whatever the key, so a
+	 * candidate matches exactly when every active box's output difference,
+	 * looked up in the box's inverse table, is the one the approximation
+	 * expects.
+	 */
+	private int countLiveByTables(ChosenPairBlock pairs, int[] live, int numLive, long[] keys, long[] matches)
+	{
+		Permutation perm     = relevantRound.getPermutation();
+		long        lastMask = appx.getLastRoundMask();
+		int         boxMask  = (1<<boxLength)-1;
+		int         numBoxes = activeShifts.length;
+		
+		int[] keyInputs = keyBoxInputs(keys);
+		int[] inputsA   = new int[numLive*numBoxes];
+		int[] inputsB   = new int[numLive*numBoxes];
+		int[] expected  = new int[numBoxes];
+		
+		for(int j=0; j<numBoxes; j++)
+			expected[j] = (int)(lastMask>>>activeShifts[j])&boxMask;
+		
+		for(int l=0; l<numLive; l++)
+		{
+			long undoneA = perm.permuteRev(pairs.getCiphertextA(live[l]));
+			long undoneB = perm.permuteRev(pairs.getCiphertextB(live[l]));
 			
-			
-			double bias = (double)matches/(double)pairs.size();
-			biasMap.put(k, bias);
-			
-			if(bias > maxBias)
+			for(int j=0; j<numBoxes; j++)
 			{
-				maxBias = bias;
-				maxKey = k;
+				inputsA[l*numBoxes+j] = (int)(undoneA>>>activeShifts[j])&boxMask;
+				inputsB[l*numBoxes+j] = (int)(undoneB>>>activeShifts[j])&boxMask;
 			}
 		}
 		
-		maxBiasKey = maxKey;
+		forEachCandidate(keys.length, (from, to) ->
+		{
+			int[] counts = new int[to-from];
+			
+			for(int l=0; l<numLive; l++)
+			{
+				int pairBase = l*numBoxes;
+				
+				for(int k=from; k<to; k++)
+				{
+					int keyBase = k*numBoxes;
+					int j = 0;
+					
+					while(j < numBoxes)
+					{
+						int[] inverse = inverseBoxes[j];
+						int   key     = keyInputs[keyBase+j];
+						
+						if((inverse[inputsA[pairBase+j]^key]^inverse[inputsB[pairBase+j]^key]) != expected[j])
+							break;
+						
+						j++;
+					}
+					
+					if(j == numBoxes)
+						counts[k-from]++;
+				}
+			}
+			
+			for(int k=from; k<to; k++)
+				matches[k] += counts[k-from];
+		});
+		
+		return pairs.size();
 	}
 }
@@ -0,0 +1,266 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.ldc;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.function.LongToDoubleFunction;
+
+import net.mjcarpenter.maledict.crypto.spn.Key;
+
+/**
+ * The bias of every key candidate of an extraction, indexed by candidate
+ * number as in {@link AbstractKeyBiasExtractor#getKeyFor(int)}.
+ * <br /><br />
+ * Each candidate costs four bytes, rather than the boxed value, key and
+ * key bytes of a map entry. Match counts are held as {@code int}s and turned
+ * into biases on demand, so biases are exactly those the extractor computed;
+ * only when some count exceeds an {@code int} are the biases held as
+ * {@code float}s instead. Keys are only built for the candidates asked for.
+ */
+public final class KeyBiasScores
+{
+	private final int[]                counts;
+	private final LongToDoubleFunction bias;
+	private final float[]              biases;
+	private final IntFunction<Key>     keys;
+	private final int                  best;
+	
+	private volatile Map<Key, Double> map;
+	
+	/**
+	 * @param counts The match count of each candidate.
+	 * @param bias Turns a match count into a bias.
+	 * @param keys Builds the key of a candidate.
+	 */
+	KeyBiasScores(long[] counts, LongToDoubleFunction bias, IntFunction<Key> keys)
+	{
+		long most = 0;
+		for(long count: counts)
+			most = Math.max(most, count);
+		
+		if(most <= Integer.MAX_VALUE)
+		{
+			this.counts = new int[counts.length];
+			this.biases = null;
+			
+			for(int i=0; i<counts.length; i++)
+				this.counts[i] = (int)counts[i];
+		}
+		else
+		{
+			this.counts = null;
+			this.biases = new float[counts.length];
+			
+			for(int i=0; i<counts.length; i++)
+				this.biases[i] = (float)bias.applyAsDouble(counts[i]);
+		}
+		
+		this.bias = bias;
+		this.keys = keys;
+		
+		// As the extractors always have, take the first of any ties, and no candidate if none is biased at all.
+		double maxBias = Double.MIN_VALUE;
+		int    maxCand = -1;
+		
+		for(int i=0; i<counts.length; i++)
+		{
+			double b = getBias(i);
+			if(b > maxBias)
+			{
+				maxBias = b;
+				maxCand = i;
+			}
+		}
+		
+		this.best = maxCand;
+	}
+	
+	public int size()
+	{
+		return (counts != null) ? counts.length : biases.length;
+	}
+	
+	public double getBias(int candidate)
+	{
+		return (counts != null) ? bias.applyAsDouble(counts[candidate]) : biases[candidate];
+	}
+	
+	public Key getKey(int candidate)
+	{
+		return keys.apply(candidate);
+	}
+	
+	/**
+	 * The candidate with the greatest bias, the lowest-numbered of any ties,
+	 * or -1 if no candidate has a positive bias.
+	 */
+	public int getBestCandidate()
+	{
+		return best;
+	}
+	
+	/**
+	 * The {@code n} candidates with the greatest biases, greatest first, ties
+	 * going to the lower-numbered candidate. A bounded heap keeps the work to
+	 * one pass over the candidates and the memory to {@code n} entries.
+	 * 
+	 * @param n The number of candidates to return.
+	 * @return Up to {@code n} candidate numbers.
+	 */
+	public int[] topCandidates(int n)
+	{
+		if(n < 0)
+			throw new IllegalArgumentException("Cannot take a negative number of candidates!");
+		
+		// A min-heap on rank, so the weakest of the best so far sits at the root.
+		int[] heap = new int[Math.min(n, size())];
+		int   used = 0;
+		
+		for(int i=0; i<size(); i++)
+		{
+			if(used < heap.length)
+			{
+				heap[used] = i;
+				siftUp(heap, used++);
+			}
+			else if(used > 0 && ranksAbove(i, heap[0]))
+			{
+				heap[0] = i;
+				siftDown(heap, 0, used);
+			}
+		}
+		
+		// Pop the weakest first, filling from the back.
+		int[] out = new int[used];
+		for(int end=used-1; end>=0; end--)
+		{
+			out[end] = heap[0];
+			heap[0]  = heap[end];
+			siftDown(heap, 0, end);
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * As {@link #topCandidates(int)}, with each candidate's key and bias.
+	 */
+	public List<Map.Entry<Key, Double>> top(int n)
+	{
+		int[] top = topCandidates(n);
+		List<Map.Entry<Key, Double>> out = new ArrayList<Map.Entry<Key, Double>>(top.length);
+		
+		for(int candidate: top)
+			out.add(new AbstractMap.SimpleImmutableEntry<Key, Double>(getKey(candidate), getBias(candidate)));
+		
+		return out;
+	}
+	
+	/**
+	 * Passes every candidate and its bias to {@code action}, in candidate
+	 * order, without building any keys.
+	 */
+	public void forEach(ScoreConsumer action)
+	{
+		for(int i=0; i<size(); i++)
+			action.accept(i, getBias(i));
+	}
+	
+	/**
+	 * Every candidate's key and bias as a map, built on first request. This
+	 * builds a key and an entry per candidate, which for large searches costs
+	 * far more than the scores themselves.
+	 */
+	public Map<Key, Double> toMap()
+	{
+		Map<Key, Double> out = map;
+		
+		if(out == null)
+		{
+			TreeMap<Key, Double> built = new TreeMap<Key, Double>();
+			forEach((candidate, b) -> built.put(getKey(candidate), b));
+			
+			map = out = built;
+		}
+		
+		return out;
+	}
+	
+	private boolean ranksAbove(int a, int b)
+	{
+		double biasA = getBias(a);
+		double biasB = getBias(b);
+		
+		return biasA > biasB || (biasA == biasB && a < b);
+	}
+	
+	private void siftUp(int[] heap, int at)
+	{
+		while(at > 0)
+		{
+			int parent = (at-1)/2;
+			if(!ranksAbove(heap[parent], heap[at]))
+				break;
+			
+			swap(heap, parent, at);
+			at = parent;
+		}
+	}
+	
+	private void siftDown(int[] heap, int at, int used)
+	{
+		while(true)
+		{
+			int weakest = at;
+			int left    = 2*at+1;
+			int right   = left+1;
+			
+			if(left < used && ranksAbove(heap[weakest], heap[left]))
+				weakest = left;
+			if(right < used && ranksAbove(heap[weakest], heap[right]))
+				weakest = right;
+			
+			if(weakest == at)
+				return;
+			
+			swap(heap, at, weakest);
+			at = weakest;
+		}
+	}
+	
+	private static void swap(int[] heap, int a, int b)
+	{
+		int t   = heap[a];
+		heap[a] = heap[b];
+		heap[b] = t;
+	}
+	
+	/**
+	 * Receives one candidate's score during {@link KeyBiasScores#forEach(ScoreConsumer)}.
+	 */
+	@FunctionalInterface
+	public interface ScoreConsumer
+	{
+		void accept(int candidate, double bias);
+	}
+}
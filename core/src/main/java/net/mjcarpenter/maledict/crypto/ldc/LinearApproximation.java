@@ -17,12 +17,19 @@
  */
 package net.mjcarpenter.maledict.crypto.ldc;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
+
 public final class LinearApproximation extends AbstractApproximation
 {
 	public LinearApproximation(long plaintextMask, long lastRoundMask)
 	{
 		super(plaintextMask, lastRoundMask);
 	}
+	
+	public LinearApproximation(Block plaintextMask, Block lastRoundMask)
+	{
+		super(plaintextMask, lastRoundMask);
+	}
 
 	public boolean testAgainst(long plaintext, long partialDecryption)
 	{
@@ -32,4 +39,12 @@ public final class LinearApproximation extends AbstractApproximation
 		// Equivalent to comparing inner-xors 
 		return Long.bitCount(plainMasked^decryptMasked) % 2 == 0;
 	}
+	
+	public boolean testAgainst(Block plaintext, Block partialDecryption)
+	{
+		if(plaintext.numLanes() == 1)
+			return testAgainst(plaintext.longValue(), partialDecryption.longValue());
+		
+		return plaintext.maskedParity(getPlaintextMaskBlock()) == partialDecryption.maskedParity(getLastRoundMaskBlock());
+	}
 }
@@ -18,28 +18,177 @@
 package net.mjcarpenter.maledict.crypto.ldc;
 
 import java.util.List;
-import java.util.TreeMap;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.crypto.spn.KnownPair;
+import net.mjcarpenter.maledict.crypto.spn.KnownPairBlock;
+import net.mjcarpenter.maledict.crypto.spn.LongBlockCipher;
+import net.mjcarpenter.maledict.crypto.spn.PairPipeline;
+import net.mjcarpenter.maledict.crypto.spn.PairSource;
+import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
 import net.mjcarpenter.maledict.util.BitUtils;
 
 public final class LinearKeyBiasExtractor extends AbstractKeyBiasExtractor<LinearApproximation>
 {
+	/**
+	 * The most active ciphertext bits for which a distillation table is built.
+	 */
+	public static final int MAX_DISTILLATION_BITS = 20;
+	
+	// Ciphertext bits that reach the active S-boxes once the last permutation is undone.
+	private final long activeCipherBits;
+	
+	// Per ciphertext byte that holds active bits, the table index those bits make up.
+	private final int[][] gatherTables;
+	private final int[]   gatherShifts;
+	
+	// Per active S-box, the masked parity of each output of its inverse.
+	private final int[][] parityBoxes;
+	
+	private boolean distillation;
+	private boolean walshRanking;
+	
 	public LinearKeyBiasExtractor(Round relevantRound, LinearApproximation appx)
 	{
 		super(relevantRound, appx);
+		
+		long active = 0;
+		
+		// As with the differential filter, boxes only line up with mask fields when they tile bytes.
+		if(partialDecryption != null && (Byte.SIZE%boxLength == 0 || boxLength%Byte.SIZE == 0))
+		{
+			Block lastRoundMask = appx.getLastRoundMaskBlock();
+			Block activeBoxes   = Block.zero(relevantRound.bitLength());
+			long  boxMask       = (1L<<boxLength)-1;
+			
+			for(int i=0; i<relevantRound.getSBoxes().length; i++)
+			{
+				if(lastRoundMask.bits(i*boxLength, boxLength) != 0)
+					activeBoxes = activeBoxes.withBits(i*boxLength, boxLength, boxMask);
+			}
+			
+			active = relevantRound.getPermutation().permuteFwd(activeBoxes.longValue());
+		}
+		
+		int numTables = 0;
+		for(int b=0; b<Long.SIZE; b+=Byte.SIZE)
+		{
+			if(((active>>>b)&0xFF) != 0)
+				numTables++;
+		}
+		
+		this.activeCipherBits = active;
+		this.gatherTables     = new int[numTables][];
+		this.gatherShifts     = new int[numTables];
+		
+		for(int b=0, t=0; b<Long.SIZE; b+=Byte.SIZE)
+		{
+			if(((active>>>b)&0xFF) == 0)
+				continue;
+			
+			gatherShifts[t] = b;
+			gatherTables[t] = new int[1<<Byte.SIZE];
+			
+			for(int v=0; v<gatherTables[t].length; v++)
+				gatherTables[t][v] = (int)BitUtils.extractBits((long)v<<b, active);
+			
+			t++;
+		}
+		
+		if(inverseBoxes != null)
+		{
+			long lastMask = appx.getLastRoundMask();
+			int  boxMask  = (1<<boxLength)-1;
+			
+			parityBoxes = new int[inverseBoxes.length][];
+			for(int j=0; j<inverseBoxes.length; j++)
+			{
+				int outMask = (int)(lastMask>>>activeShifts[j])&boxMask;
+				
+				parityBoxes[j] = new int[inverseBoxes[j].length];
+				for(int v=0; v<parityBoxes[j].length; v++)
+					parityBoxes[j][v] = Integer.bitCount(inverseBoxes[j][v]&outMask)&1;
+			}
+		}
+		else
+		{
+			parityBoxes = null;
+		}
+		
+		this.distillation = true;
+		this.walshRanking = true;
+	}
+	
+	/**
+	 * Chooses whether streamed and columnar pairs are counted by distillation.
+	 * <br /><br />
+	 * Whether a pair matches under a candidate depends only on the parity of
+	 * its plaintext under the mask and on the ciphertext bits that reach the
+	 * active S-boxes. Distillation makes one pass over the pairs, counting
+	 * them into a table indexed by those {@code m} bits and that parity, and
+	 * then tests each candidate against the {@code 2^m} cells of the table
+	 * rather than against every pair. The work falls from {@code K*N} partial
+	 * decryptions to {@code N} table updates plus {@code K*2^m} decryptions.
+	 * The biases found are identical.
+	 * <br /><br />
+	 * Distillation is on by default. It is skipped, whatever this setting,
+	 * when S-boxes do not tile bytes or more than
+	 * {@value #MAX_DISTILLATION_BITS} ciphertext bits are active.
+	 * 
+	 * @param distillation Whether to count by distillation where possible.
+	 */
+	public void setDistillation(boolean distillation)
+	{
+		this.distillation = distillation;
+	}
+	
+	/**
+	 * Chooses whether a distillation table is turned into match counts with
+	 * the fast Walsh-Hadamard transform, after Collard, Standaert and
+	 * Quisquater.
+	 * <br /><br />
+	 * The correlation of every candidate is the XOR-convolution of the
+	 * table's signed counts with the sign of the partial decryption's masked
+	 * parity, so three transforms of {@code 2^m} entries rank every candidate
+	 * in {@code O(m*2^m)} rather than {@code K*2^m} decryptions. The
+	 * transforms run over {@code long}s, so the counts, and the biases, are
+	 * identical to the other methods. On by default, and only used when
+	 * distilling.
+	 * 
+	 * @param walshRanking Whether to rank candidates with the transform.
+	 */
+	public void setWalshRanking(boolean walshRanking)
+	{
+		this.walshRanking = walshRanking;
+	}
+	
+	/**
+	 * Whether the next columnar or streamed extraction will rank candidates
+	 * with the Walsh-Hadamard transform.
+	 */
+	public boolean usesWalshRanking()
+	{
+		return walshRanking && usesDistillation();
+	}
+	
+	/**
+	 * Whether the next columnar or streamed extraction will count by distillation.
+	 */
+	public boolean usesDistillation()
+	{
+		return distillation && activeCipherBits != 0 && Long.bitCount(activeCipherBits) <= MAX_DISTILLATION_BITS;
 	}
 	
 	public void generateBiases(List<KnownPair> pairs, BiasExtractorProgressCallback callback)
 	{
-		biasMap = new TreeMap<Key, Double>();
-				
-		Key k = null;
-		
-		double maxBias = Double.MIN_VALUE;
-		Key maxKey = null;
+		// Blocks that fit in a long take the columnar path.
+		if(partialDecryption != null)
+		{
+			generateBiases(KnownPairBlock.of(pairs, relevantRound.bitLength()), callback);
+			return;
+		}
 		
 		// We need to replace the key with a no-op key because the round begins with a key,
 		// and we want to stop just short of that.
@@ -47,52 +196,343 @@ public final class LinearKeyBiasExtractor extends AbstractKeyBiasExtractor<Linea
 		
 		int keysToCheck = 1<<(boxLength*boxesToCheck);
 		
-		for(int i=0; i<keysToCheck; i++)
+		// Convert every pair once up front rather than once per key guess.
+		Block[] plaintexts  = new Block[pairs.size()];
+		Block[] ciphertexts = new Block[pairs.size()];
+		for(int p=0; p<plaintexts.length; p++)
 		{
-			k = getKeyFor(i);
-			
+			plaintexts[p]  = Block.valueOf(pairs.get(p).getPlaintext());
+			ciphertexts[p] = Block.valueOf(pairs.get(p).getCiphertext());
+		}
+		
+		long[] counts = new long[keysToCheck];
+		
+		boolean finished = searchCandidates(keysToCheck, plaintexts.length, i ->
+		{
+			Key k = getKeyFor(i);
 			int matches = 0;
-			int pairProg = 0;
 			
-			for(KnownPair pair: pairs)
+			for(int p=0; p<plaintexts.length && !cancellation; p++)
 			{
-				byte[] partialDecryption = pair.getCiphertext();
-				
 				// This is the "last round" decryption. The last round consists of only a key.
-				partialDecryption = k.xor(partialDecryption);
+				Block partialDecryption = k.xor(ciphertexts[p]);
 				partialDecryption = testRound.invert(partialDecryption);
 				
-				if(appx.testAgainst(
-						BitUtils.byteToLong(pair.getPlaintext()),
-						BitUtils.byteToLong(partialDecryption)))
+				if(appx.testAgainst(plaintexts[p], partialDecryption))
 				{
 					matches++;
 				}
+			}
+			
+			counts[i] = matches;
+		}, callback);
+		
+		if(!finished)
+			return;
+		
+		double n = pairs.size();
+		storeBiases(counts, matches -> Math.abs(matches-(n/2.0))/n);
+	}
+	
+	/**
+	 * As {@link #generateBiases(List, BiasExtractorProgressCallback)}, reading
+	 * pairs straight from their columns.
+	 * 
+	 * @param pairs The known pairs, whose block size must match the round's.
+	 * @param callback Receives progress through the pairs.
+	 */
+	public void generateBiases(KnownPairBlock pairs, BiasExtractorProgressCallback callback)
+	{
+		generateBiases(PairSource.of(pairs), callback);
+	}
+	
+	/**
+	 * Counts matches for every key candidate in a single streaming pass over
+	 * {@code source}, holding only one chunk of pairs at a time.
+	 * 
+	 * @param source The known pairs, whose block size must match the round's.
+	 * @param callback Receives progress through the pairs.
+	 */
+	public void generateBiases(PairSource<KnownPairBlock> source, BiasExtractorProgressCallback callback)
+	{
+		validateColumnar(source.getBlockSize());
+		
+		long[] counts;
+		if(usesDistillation())
+			counts = countFromTable(countMatches(source, 2<<Long.bitCount(activeCipherBits), this::distillChunk, callback), callback);
+		else
+			counts = countMatches(source, this::countChunk, callback);
+		
+		if(counts == null)
+			return;
+		
+		double n = source.size();
+		storeBiases(counts, matches -> Math.abs(matches-(n/2.0))/n);
+	}
+	
+	/**
+	 * As {@link #generateBiases(PairSource, BiasExtractorProgressCallback)},
+	 * but with pairs produced and counted concurrently through {@code pipeline}.
+	 * 
+	 * @param source The known pairs, whose block size must match the round's.
+	 * @param pipeline The pipeline through which to run the source.
+	 * @param callback Receives progress through the pairs.
+	 */
+	public void generateBiases(PairSource<KnownPairBlock> source, PairPipeline<KnownPairBlock> pipeline, BiasExtractorProgressCallback callback)
+	{
+		validateColumnar(source.getBlockSize());
+		
+		long[] counts;
+		if(usesDistillation())
+			counts = countFromTable(countMatches(source, pipeline, 2<<Long.bitCount(activeCipherBits), this::distillChunk, callback), callback);
+		else
+			counts = countMatches(source, pipeline, this::countChunk, callback);
+		
+		if(counts == null)
+			return;
+		
+		double n = source.size();
+		storeBiases(counts, matches -> Math.abs(matches-(n/2.0))/n);
+	}
+	
+	private int countChunk(KnownPairBlock pairs, long[] keys, long[] matches)
+	{
+		if(usesBoxTables())
+			return countChunkByTables(pairs, keys, matches);
+		
+		LongBlockCipher partial = partialDecryption;
+		int numPairs = pairs.size();
+		
+		forEachCandidate(keys.length, (from, to) ->
+		{
+			for(int k=from; k<to; k++)
+			{
+				int chunkMatches = 0;
 				
-				// Check for cancellation
-				if(cancellation)
+				for(int p=0; p<numPairs; p++)
 				{
-					biasMap = null;
-					maxBiasKey = null;
-					maxBias = -1;
-					return;
+					// Undo the relevant round, short of its own key, under the guessed last-round key.
+					if(appx.testAgainst(pairs.getPlaintext(p), partial.decrypt(keys[k]^pairs.getCiphertext(p))))
+					{
+						chunkMatches++;
+					}
 				}
 				
-				// Notify caller of progress
-				callback.progress(i+1, keysToCheck, ++pairProg, pairs.size());
+				matches[k] += chunkMatches;
 			}
+		});
+		
+		return numPairs;
+	}
+	
+	/**
+	 * As {@link #countChunk(KnownPairBlock, long[], long[])}, but pair by
+	 * pair. Each pair's active S-box inputs and plaintext parity are found
+	 * once, and each candidate then costs one parity lookup per active box.
+	 */
+	private int countChunkByTables(KnownPairBlock pairs, long[] keys, long[] matches)
+	{
+		Permutation perm      = relevantRound.getPermutation();
+		long        plainMask = appx.getPlaintextMask();
+		int         boxMask   = (1<<boxLength)-1;
+		int         numBoxes  = activeShifts.length;
+		int         numPairs  = pairs.size();
+		
+		int[] keyInputs  = keyBoxInputs(keys);
+		int[] pairInputs = new int[numPairs*numBoxes];
+		int[] parities   = new int[numPairs];
+		
+		for(int p=0; p<numPairs; p++)
+		{
+			long undone = perm.permuteRev(pairs.getCiphertext(p));
 			
+			for(int j=0; j<numBoxes; j++)
+				pairInputs[p*numBoxes+j] = (int)(undone>>>activeShifts[j])&boxMask;
 			
-			double bias = Math.abs(matches-(pairs.size()/2.0))/pairs.size();
-			biasMap.put(k, bias);
+			parities[p] = Long.bitCount(pairs.getPlaintext(p)&plainMask)&1;
+		}
+		
+		forEachCandidate(keys.length, (from, to) ->
+		{
+			int[] counts = new int[to-from];
 			
-			if(bias > maxBias)
+			for(int p=0; p<numPairs; p++)
 			{
-				maxBias = bias;
-				maxKey = k;
+				int pairBase = p*numBoxes;
+				
+				for(int k=from; k<to; k++)
+				{
+					int keyBase = k*numBoxes;
+					int parity  = parities[p];
+					
+					for(int j=0; j<numBoxes; j++)
+						parity ^= parityBoxes[j][pairInputs[pairBase+j]^keyInputs[keyBase+j]];
+					
+					// The approximation holds where the two parities agree.
+					counts[k-from] += parity^1;
+				}
 			}
+			
+			for(int k=from; k<to; k++)
+				matches[k] += counts[k-from];
+		});
+		
+		return numPairs;
+	}
+	
+	/**
+	 * Counts one chunk of pairs into the distillation table, at the cell
+	 * given by the pair's active ciphertext bits and its plaintext parity.
+	 */
+	private int distillChunk(KnownPairBlock pairs, long[] keys, long[] table)
+	{
+		long plainMask = appx.getPlaintextMask();
+		int  numPairs  = pairs.size();
+		
+		for(int p=0; p<numPairs; p++)
+		{
+			int cell = cellOf(pairs.getCiphertext(p));
+			table[(cell<<1)|(Long.bitCount(pairs.getPlaintext(p)&plainMask)&1)]++;
 		}
 		
-		maxBiasKey = maxKey;
+		return numPairs;
+	}
+	
+	/**
+	 * The active bits of {@code block}, packed into a table index.
+	 */
+	private int cellOf(long block)
+	{
+		int cell = 0;
+		
+		for(int t=0; t<gatherTables.length; t++)
+			cell |= gatherTables[t][(int)(block>>>gatherShifts[t])&0xFF];
+		
+		return cell;
+	}
+	
+	/**
+	 * Turns a distillation table into the match count of each candidate.
+	 * Each cell stands for every ciphertext with its active bits, since the
+	 * other bits cannot reach the masked S-box outputs, so a candidate
+	 * matches the pairs of a cell whose plaintext parity equals that of the
+	 * cell's partial decryption.
+	 * 
+	 * @return The match count of each candidate, or null if cancelled.
+	 */
+	private long[] countFromTable(long[] table, BiasExtractorProgressCallback callback)
+	{
+		if(table == null)
+			return null;
+		
+		if(usesWalshRanking())
+			return countByTransform(table, callback);
+		
+		LongBlockCipher partial  = partialDecryption;
+		long            lastMask = appx.getLastRoundMask();
+		long[]          keys     = keyValues();
+		long[]          counts   = new long[keys.length];
+		
+		int    cells     = 1<<Long.bitCount(activeCipherBits);
+		long[] cellBlock = new long[cells];
+		for(int c=0; c<cells; c++)
+			cellBlock[c] = BitUtils.depositBits(c, activeCipherBits);
+		
+		boolean finished = searchCandidates(keys.length, cells, k ->
+		{
+			long matches = 0;
+			for(int c=0; c<cells; c++)
+			{
+				int parity = Long.bitCount(partial.decrypt(keys[k]^cellBlock[c])&lastMask)&1;
+				matches += table[(c<<1)|parity];
+			}
+			
+			counts[k] = matches;
+		}, callback);
+		
+		return finished ? counts : null;
+	}
+	
+	/**
+	 * Turns a distillation table into the match count of each candidate by
+	 * XOR-convolution. With {@code d[c]} the even-parity count less the
+	 * odd-parity count of cell {@code c}, and {@code s[x]} the sign of the
+	 * masked parity of the partial decryption of {@code x}, a candidate whose
+	 * active bits are {@code u} matches {@code (N+sum_c d[c]*s[u^c])/2} pairs.
+	 * The sum is taken for every {@code u} at once by transforming {@code d}
+	 * and {@code s}, multiplying, and transforming back.
+	 * 
+	 * @return The match count of each candidate, or null if cancelled.
+	 */
+	private long[] countByTransform(long[] table, BiasExtractorProgressCallback callback)
+	{
+		// Check for cancellation
+		if(cancellation)
+		{
+			scores = null;
+			maxBiasKey = null;
+			return null;
+		}
+		
+		LongBlockCipher partial  = partialDecryption;
+		long            lastMask = appx.getLastRoundMask();
+		int             bits     = Long.bitCount(activeCipherBits);
+		int             cells    = 1<<bits;
+		
+		long[] signs = new long[cells];
+		long[] diffs = new long[cells];
+		long   total = 0;
+		
+		for(int c=0; c<cells; c++)
+		{
+			int parity = Long.bitCount(partial.decrypt(BitUtils.depositBits(c, activeCipherBits))&lastMask)&1;
+			
+			signs[c] = (parity == 0) ? 1 : -1;
+			diffs[c] = table[c<<1]-table[(c<<1)|1];
+			total   += table[c<<1]+table[(c<<1)|1];
+		}
+		
+		// Intermediate sums may wrap, but the results fit a long, so wrapping arithmetic gives them exactly.
+		walshHadamard(signs);
+		walshHadamard(diffs);
+		
+		for(int w=0; w<cells; w++)
+			diffs[w] *= signs[w];
+		
+		walshHadamard(diffs);
+		
+		long[] keys   = keyValues();
+		long[] counts = new long[keys.length];
+		
+		for(int k=0; k<keys.length; k++)
+		{
+			// Transforming twice scales by the table size.
+			long correlation = diffs[cellOf(keys[k])]>>bits;
+			counts[k] = (total+correlation)/2;
+		}
+		
+		callback.progress(keys.length, keys.length, cells, cells);
+		return counts;
+	}
+	
+	/**
+	 * Applies the unnormalised Walsh-Hadamard transform in place. The length
+	 * of {@code values} must be a power of two.
+	 */
+	private static void walshHadamard(long[] values)
+	{
+		for(int half=1; half<values.length; half<<=1)
+		{
+			for(int i=0; i<values.length; i+=half<<1)
+			{
+				for(int j=i; j<i+half; j++)
+				{
+					long a = values[j];
+					long b = values[j+half];
+					values[j]      = a+b;
+					values[j+half] = a-b;
+				}
+			}
+		}
 	}
 }
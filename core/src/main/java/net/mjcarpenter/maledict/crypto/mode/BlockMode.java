@@ -0,0 +1,44 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.mode;
+
+/**
+ * The block cipher modes of operation supported by {@link FileCipher}.
+ */
+public enum BlockMode
+{
+	/**
+	 * Electronic codebook: each block encrypted independently, with the
+	 * final block padded as in PKCS #7.
+	 */
+	ECB,
+	
+	/**
+	 * Counter mode: the cipher encrypts successive counter values to give a
+	 * keystream, so no padding is needed and every block is independent.
+	 */
+	CTR,
+	
+	/**
+	 * Cipher block chaining: each plaintext block is combined with the
+	 * previous ciphertext block before encryption, with PKCS #7 padding.
+	 * Encryption is sequential, but decryption of each block depends only on
+	 * the ciphertext and so runs in parallel.
+	 */
+	CBC;
+}
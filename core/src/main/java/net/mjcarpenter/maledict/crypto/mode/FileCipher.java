@@ -0,0 +1,375 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.mode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.LongBlockCipher;
+import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
+
+/**
+ * Encrypts and decrypts whole files through an {@link SPNetwork} in one of
+ * the {@link BlockMode}s.
+ * <br /><br />
+ * Files are processed in windows that are memory-mapped on both sides. The
+ * blocks of each window are split across a {@link BatchExecutor}, and each
+ * worker reads its blocks straight from the input mapping, runs them through
+ * {@link SPNetwork#encryptAll(long[], long[], BatchExecutor)} in small
+ * batches, and writes the results straight into the output mapping. ECB, CTR
+ * and CBC decryption are parallel; CBC encryption is inherently sequential.
+ * <br /><br />
+ * Only networks whose block size is a whole number of bytes, at most 64 bits,
+ * are supported. IVs and counters are given as longs in the same big-endian
+ * form as {@link net.mjcarpenter.maledict.util.BitUtils#byteToLong(byte[])}.
+ */
+public final class FileCipher
+{
+	// Bytes mapped at a time on each side.
+	private static final int WINDOW_BYTES = 1<<26;
+	
+	// Blocks handed to the network at a time by each worker.
+	private static final int BATCH_BLOCKS = 4096;
+	
+	// Runs each batch on the worker that read it, since the windows are already split.
+	private static final BatchExecutor INLINE = new BatchExecutor(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+	
+	private final SPNetwork     spn;
+	private final BlockMode     mode;
+	private final BatchExecutor executor;
+	private final int           numBytes;
+	private final long          blockMask;
+	private final int           windowBlocks;
+	
+	public FileCipher(final SPNetwork spn, final BlockMode mode)
+	{
+		this(spn, mode, BatchExecutor.getDefault());
+	}
+	
+	public FileCipher(final SPNetwork spn, final BlockMode mode, final BatchExecutor executor)
+	{
+		this(spn, mode, executor, WINDOW_BYTES/(spn.getBlockSize()/Byte.SIZE));
+	}
+	
+	FileCipher(final SPNetwork spn, final BlockMode mode, final BatchExecutor executor, final int windowBlocks)
+	{
+		if(spn.getBlockSize() > Long.SIZE || spn.getBlockSize()%Byte.SIZE != 0)
+			throw new IllegalArgumentException("File modes support byte-aligned block sizes of at most "+Long.SIZE+" bits!");
+		
+		this.spn          = spn;
+		this.mode         = mode;
+		this.executor     = executor;
+		this.numBytes     = spn.getBlockSize()/Byte.SIZE;
+		this.blockMask    = (spn.getBlockSize() == Long.SIZE) ? -1L : (1L<<spn.getBlockSize())-1;
+		this.windowBlocks = windowBlocks;
+	}
+	
+	/**
+	 * Encrypts {@code in} into {@code out}, replacing anything already there.
+	 * 
+	 * @param in The plaintext file.
+	 * @param out The file to receive the ciphertext.
+	 * @param iv The CBC initialisation vector or the first CTR counter; ignored in ECB.
+	 * @return The amount of input processed and the time taken.
+	 * @throws IOException If either file cannot be read or written.
+	 */
+	public Throughput encrypt(final Path in, final Path out, final long iv)
+	throws IOException
+	{
+		long start = System.nanoTime();
+		
+		try(FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+			FileChannel dst = openOutput(out))
+		{
+			long length = src.size();
+			long blocks = length/numBytes;
+			int  tail   = (int)(length%numBytes);
+			
+			// The last ciphertext block written, which the padded block chains from in CBC.
+			long chain = 0;
+			if(mode == BlockMode.CBC)
+				chain = encryptChained(src, dst, blocks, iv);
+			else
+				processWindows(src, dst, blocks, true, iv);
+			
+			byte[] last = new byte[tail];
+			readFully(src, ByteBuffer.wrap(last), blocks*numBytes);
+			
+			if(mode == BlockMode.CTR)
+			{
+				writeFully(dst, ByteBuffer.wrap(xorKeystream(last, spn.encrypt((iv+blocks)&blockMask))), blocks*numBytes);
+			}
+			else
+			{
+				// Pad the final block with as many bytes of that count, a whole block if none are needed.
+				long padded = 0;
+				for(int i=0; i<numBytes; i++)
+					padded = (padded<<Byte.SIZE)|((i < tail) ? (last[i]&0xFF) : (numBytes-tail));
+				
+				long cipher = spn.encrypt(padded^chain);
+				writeFully(dst, ByteBuffer.wrap(toBytes(cipher)), blocks*numBytes);
+			}
+			
+			return new Throughput(length, System.nanoTime()-start);
+		}
+	}
+	
+	/**
+	 * Decrypts {@code in} into {@code out}, replacing anything already there.
+	 * 
+	 * @param in The ciphertext file.
+	 * @param out The file to receive the plaintext.
+	 * @param iv The CBC initialisation vector or the first CTR counter; ignored in ECB.
+	 * @return The amount of input processed and the time taken.
+	 * @throws IOException If either file cannot be read or written.
+	 * @throws IllegalArgumentException If the ciphertext is not validly padded.
+	 */
+	public Throughput decrypt(final Path in, final Path out, final long iv)
+	throws IOException
+	{
+		if(mode == BlockMode.CTR)
+			return encrypt(in, out, iv);
+		
+		long start = System.nanoTime();
+		
+		try(FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+			FileChannel dst = openOutput(out))
+		{
+			long length = src.size();
+			if(length == 0 || length%numBytes != 0)
+				throw new IllegalArgumentException("Ciphertext length must be a positive multiple of the block size!");
+			
+			long blocks = length/numBytes - 1;
+			
+			// Strip the padding from the final block first, which fixes the output length.
+			byte[] last = new byte[numBytes];
+			readFully(src, ByteBuffer.wrap(last), blocks*numBytes);
+			
+			long chain = 0;
+			if(mode == BlockMode.CBC)
+			{
+				chain = iv;
+				if(blocks > 0)
+				{
+					byte[] prev = new byte[numBytes];
+					readFully(src, ByteBuffer.wrap(prev), (blocks-1)*numBytes);
+					chain = fromBytes(prev);
+				}
+			}
+			
+			byte[] plain = toBytes(spn.decrypt(fromBytes(last))^chain);
+			int    pad   = plain[numBytes-1]&0xFF;
+			
+			if(pad < 1 || pad > numBytes)
+				throw new IllegalArgumentException("Ciphertext is not validly padded!");
+			
+			for(int i=numBytes-pad; i<numBytes; i++)
+			{
+				if((plain[i]&0xFF) != pad)
+					throw new IllegalArgumentException("Ciphertext is not validly padded!");
+			}
+			
+			processWindows(src, dst, blocks, false, iv);
+			writeFully(dst, ByteBuffer.wrap(plain, 0, numBytes-pad), blocks*numBytes);
+			
+			return new Throughput(length, System.nanoTime()-start);
+		}
+	}
+	
+	private static FileChannel openOutput(final Path out)
+	throws IOException
+	{
+		return FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+	
+	/**
+	 * Runs the first {@code blocks} whole blocks through the network one
+	 * window at a time, each window in parallel. Used for every mode except
+	 * CBC encryption.
+	 */
+	private void processWindows(final FileChannel src, final FileChannel dst, final long blocks, final boolean encrypt, final long iv)
+	throws IOException
+	{
+		// The ciphertext block before the current window, for CBC decryption.
+		long carry = iv;
+		
+		for(long first=0; first<blocks; first+=windowBlocks)
+		{
+			int  count  = (int)Math.min(windowBlocks, blocks-first);
+			long offset = first*numBytes;
+			
+			MappedByteBuffer inBuf  = src.map(FileChannel.MapMode.READ_ONLY, offset, (long)count*numBytes);
+			MappedByteBuffer outBuf = dst.map(FileChannel.MapMode.READ_WRITE, offset, (long)count*numBytes);
+			long windowCarry = carry;
+			long windowFirst = first;
+			
+			executor.run(count, (from, to) ->
+			{
+				long[] batch = new long[Math.min(BATCH_BLOCKS, to-from)];
+				
+				for(int b=from; b<to; b+=batch.length)
+				{
+					long[] work = (to-b >= batch.length) ? batch : new long[to-b];
+					processBatch(inBuf, outBuf, b, work, encrypt, windowFirst, windowCarry, iv);
+				}
+			});
+			
+			carry = readBlock(inBuf, (count-1)*numBytes);
+		}
+	}
+	
+	private void processBatch(final ByteBuffer inBuf, final ByteBuffer outBuf, final int first, final long[] work,
+			final boolean encrypt, final long windowFirst, final long carry, final long iv)
+	{
+		if(mode == BlockMode.CTR)
+		{
+			for(int i=0; i<work.length; i++)
+				work[i] = (iv+windowFirst+first+i)&blockMask;
+			
+			spn.encryptAll(work, work, INLINE);
+			
+			for(int i=0; i<work.length; i++)
+			{
+				int offset = (first+i)*numBytes;
+				writeBlock(outBuf, offset, readBlock(inBuf, offset)^work[i]);
+			}
+			
+			return;
+		}
+		
+		for(int i=0; i<work.length; i++)
+			work[i] = readBlock(inBuf, (first+i)*numBytes);
+		
+		if(encrypt)
+			spn.encryptAll(work, work, INLINE);
+		else
+			spn.decryptAll(work, work, INLINE);
+		
+		for(int i=0; i<work.length; i++)
+		{
+			int  block = first+i;
+			long chain = 0;
+			
+			if(mode == BlockMode.CBC)
+				chain = (block == 0) ? carry : readBlock(inBuf, (block-1)*numBytes);
+			
+			writeBlock(outBuf, block*numBytes, work[i]^chain);
+		}
+	}
+	
+	/**
+	 * CBC encryption of the first {@code blocks} whole blocks, which must run
+	 * in order because each block depends on the ciphertext before it.
+	 * 
+	 * @return The last ciphertext block, or the IV if there were no blocks.
+	 */
+	private long encryptChained(final FileChannel src, final FileChannel dst, final long blocks, final long iv)
+	throws IOException
+	{
+		LongBlockCipher engine = spn.isCodebookEnabled() ? spn : spn.getRoundRange(0, spn.getRounds().length, false);
+		long chain = iv;
+		
+		for(long first=0; first<blocks; first+=windowBlocks)
+		{
+			int  count  = (int)Math.min(windowBlocks, blocks-first);
+			long offset = first*numBytes;
+			
+			MappedByteBuffer inBuf  = src.map(FileChannel.MapMode.READ_ONLY, offset, (long)count*numBytes);
+			MappedByteBuffer outBuf = dst.map(FileChannel.MapMode.READ_WRITE, offset, (long)count*numBytes);
+			
+			for(int i=0; i<count; i++)
+			{
+				chain = engine.encrypt(readBlock(inBuf, i*numBytes)^chain);
+				writeBlock(outBuf, i*numBytes, chain);
+			}
+		}
+		
+		return chain;
+	}
+	
+	private byte[] xorKeystream(final byte[] in, final long keystream)
+	{
+		byte[] stream = toBytes(keystream);
+		byte[] out    = new byte[in.length];
+		
+		for(int i=0; i<in.length; i++)
+			out[i] = (byte)(in[i]^stream[i]);
+		
+		return out;
+	}
+	
+	private long readBlock(final ByteBuffer buf, final int offset)
+	{
+		long value = 0;
+		for(int i=0; i<numBytes; i++)
+			value = (value<<Byte.SIZE)|(buf.get(offset+i)&0xFF);
+		
+		return value;
+	}
+	
+	private void writeBlock(final ByteBuffer buf, final int offset, final long value)
+	{
+		long rest = value;
+		for(int i=numBytes-1; i>=0; i--)
+		{
+			buf.put(offset+i, (byte)rest);
+			rest >>>= Byte.SIZE;
+		}
+	}
+	
+	private byte[] toBytes(final long value)
+	{
+		byte[] out = new byte[numBytes];
+		writeBlock(ByteBuffer.wrap(out), 0, value);
+		return out;
+	}
+	
+	private long fromBytes(final byte[] in)
+	{
+		return readBlock(ByteBuffer.wrap(in), 0);
+	}
+	
+	private static void readFully(final FileChannel ch, final ByteBuffer buf, final long position)
+	throws IOException
+	{
+		long pos = position;
+		while(buf.hasRemaining())
+		{
+			int read = ch.read(buf, pos);
+			if(read < 0)
+				throw new IOException("Unexpected end of file!");
+			
+			pos += read;
+		}
+	}
+	
+	private static void writeFully(final FileChannel ch, final ByteBuffer buf, final long position)
+	throws IOException
+	{
+		long pos = position;
+		while(buf.hasRemaining())
+			pos += ch.write(buf, pos);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.mode;
+
+/**
+ * The amount of data a {@link FileCipher} operation processed and how long it took.
+ */
+public final class Throughput
+{
+	private static final double BYTES_PER_MB     = 1_000_000.0;
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+	
+	private final long bytes;
+	private final long elapsedNanos;
+	
+	public Throughput(final long bytes, final long elapsedNanos)
+	{
+		this.bytes        = bytes;
+		this.elapsedNanos = elapsedNanos;
+	}
+	
+	/**
+	 * @return The number of input bytes processed.
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+	
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+	
+	/**
+	 * @return The rate at which input was processed, in megabytes of 10<sup>6</sup> bytes per second.
+	 */
+	public double getMegabytesPerSecond()
+	{
+		return (elapsedNanos == 0) ? 0 : (bytes/BYTES_PER_MB)/(elapsedNanos/NANOS_PER_SECOND);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format("%d bytes in %.3f s (%.1f MB/s)", bytes, elapsedNanos/NANOS_PER_SECOND, getMegabytesPerSecond());
+	}
+}
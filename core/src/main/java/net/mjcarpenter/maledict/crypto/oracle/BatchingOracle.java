@@ -0,0 +1,83 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.oracle;
+
+import java.nio.LongBuffer;
+
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.EncryptionOracle;
+
+/**
+ * Splits large query batches into batches of at most a fixed size before
+ * passing them on, as an oracle with a per-request limit would demand. The
+ * batches are sent one after another, each split across the executor.
+ * Single queries pass straight through.
+ */
+public final class BatchingOracle implements EncryptionOracle
+{
+	private final EncryptionOracle delegate;
+	private final int              maxBatch;
+	
+	public BatchingOracle(final EncryptionOracle delegate, final int maxBatch)
+	{
+		if(maxBatch < 1)
+			throw new IllegalArgumentException("Batch size must be positive!");
+		
+		this.delegate = delegate;
+		this.maxBatch = maxBatch;
+	}
+	
+	@Override
+	public long encrypt(final long plaintext)
+	{
+		return delegate.encrypt(plaintext);
+	}
+	
+	@Override
+	public void encryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+	{
+		if(out.remaining() < in.remaining())
+			throw new IllegalArgumentException("Output must have room for at least as many blocks as input!");
+		
+		while(in.hasRemaining())
+		{
+			int size = Math.min(maxBatch, in.remaining());
+			
+			LongBuffer batchIn  = in.duplicate();
+			LongBuffer batchOut = out.duplicate();
+			batchIn.limit(batchIn.position()+size);
+			batchOut.limit(batchOut.position()+size);
+			
+			delegate.encryptAll(batchIn, batchOut, executor);
+			
+			in.position(in.position()+size);
+			out.position(out.position()+size);
+		}
+	}
+	
+	@Override
+	public int getBlockSize()
+	{
+		return delegate.getBlockSize();
+	}
+	
+	public int getMaxBatch()
+	{
+		return maxBatch;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.oracle;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.EncryptionOracle;
+
+/**
+ * Limits the total number of blocks an oracle will encrypt, to model an
+ * attacker with a fixed chosen-plaintext budget.
+ * <br /><br />
+ * A batch is charged in full before any of it is encrypted, so a batch that
+ * would overrun the budget fails without spending any of it.
+ */
+public final class BudgetedOracle implements EncryptionOracle
+{
+	private final EncryptionOracle delegate;
+	private final long             budget;
+	private final AtomicLong       used = new AtomicLong();
+	
+	public BudgetedOracle(final EncryptionOracle delegate, final long budget)
+	{
+		if(budget < 0)
+			throw new IllegalArgumentException("Query budget must not be negative!");
+		
+		this.delegate = delegate;
+		this.budget   = budget;
+	}
+	
+	@Override
+	public long encrypt(final long plaintext)
+	{
+		charge(1);
+		return delegate.encrypt(plaintext);
+	}
+	
+	@Override
+	public void encryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+	{
+		charge(in.remaining());
+		delegate.encryptAll(in, out, executor);
+	}
+	
+	private void charge(final long queries)
+	{
+		long current;
+		
+		do
+		{
+			current = used.get();
+			if(queries > budget-current)
+				throw new QueryBudgetExceededException(budget, current, queries);
+		}
+		while(!used.compareAndSet(current, current+queries));
+	}
+	
+	@Override
+	public int getBlockSize()
+	{
+		return delegate.getBlockSize();
+	}
+	
+	public long getBudget()
+	{
+		return budget;
+	}
+	
+	public long getUsed()
+	{
+		return used.get();
+	}
+	
+	public long getRemaining()
+	{
+		return budget-used.get();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.oracle;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.EncryptionOracle;
+
+/**
+ * Counts the blocks and calls that pass through to an oracle, and the time
+ * spent waiting on it.
+ * <br /><br />
+ * A single {@link #encrypt(long)} is one call of one block; a batch is one
+ * call of however many blocks it holds. Counters may be read at any time and
+ * are safe to update from several threads.
+ */
+public final class CountingOracle implements EncryptionOracle
+{
+	private final EncryptionOracle delegate;
+	
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder calls   = new LongAdder();
+	private final LongAdder nanos   = new LongAdder();
+	
+	public CountingOracle(final EncryptionOracle delegate)
+	{
+		this.delegate = delegate;
+	}
+	
+	@Override
+	public long encrypt(final long plaintext)
+	{
+		long start = System.nanoTime();
+		long out   = delegate.encrypt(plaintext);
+		
+		nanos.add(System.nanoTime()-start);
+		queries.increment();
+		calls.increment();
+		return out;
+	}
+	
+	@Override
+	public void encryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+	{
+		int  count = in.remaining();
+		long start = System.nanoTime();
+		
+		delegate.encryptAll(in, out, executor);
+		
+		nanos.add(System.nanoTime()-start);
+		queries.add(count);
+		calls.increment();
+	}
+	
+	@Override
+	public int getBlockSize()
+	{
+		return delegate.getBlockSize();
+	}
+	
+	/**
+	 * The number of blocks encrypted.
+	 */
+	public long getQueries()
+	{
+		return queries.sum();
+	}
+	
+	/**
+	 * The number of single and batch calls made.
+	 */
+	public long getCalls()
+	{
+		return calls.sum();
+	}
+	
+	/**
+	 * The total time spent inside the wrapped oracle.
+	 */
+	public long getElapsedNanos()
+	{
+		return nanos.sum();
+	}
+	
+	/**
+	 * The mean time spent per call, or zero before the first call.
+	 */
+	public double getMeanCallNanos()
+	{
+		long n = calls.sum();
+		return (n == 0) ? 0 : (double)nanos.sum()/n;
+	}
+	
+	/**
+	 * The mean time spent per block, or zero before the first block.
+	 */
+	public double getMeanQueryNanos()
+	{
+		long n = queries.sum();
+		return (n == 0) ? 0 : (double)nanos.sum()/n;
+	}
+	
+	public void reset()
+	{
+		queries.reset();
+		calls.reset();
+		nanos.reset();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format("%d queries in %d calls, %.1f ns/query, %.1f ns/call",
+				getQueries(), getCalls(), getMeanQueryNanos(), getMeanCallNanos());
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.oracle;
+
+import java.nio.LongBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.EncryptionOracle;
+
+/**
+ * Remembers the ciphertexts of recently queried plaintexts, so that a repeated
+ * plaintext is answered without asking the wrapped oracle again. Placed in
+ * front of a {@link BudgetedOracle}, repeats cost nothing from the budget.
+ * <br /><br />
+ * The cache holds at most {@code capacity} plaintexts and evicts the least
+ * recently used first. Within a batch, each distinct plaintext that misses
+ * is sent on once, as part of a single smaller batch.
+ */
+public final class MemoizingOracle implements EncryptionOracle
+{
+	private final EncryptionOracle delegate;
+	private final Map<Long, Long>  cache;
+	
+	private final LongAdder hits   = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	@SuppressWarnings("serial")
+	public MemoizingOracle(final EncryptionOracle delegate, final int capacity)
+	{
+		if(capacity < 1)
+			throw new IllegalArgumentException("Cache capacity must be positive!");
+		
+		this.delegate = delegate;
+		this.cache    = new LinkedHashMap<Long, Long>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, Long> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+	}
+	
+	@Override
+	public long encrypt(final long plaintext)
+	{
+		synchronized(cache)
+		{
+			Long cached = cache.get(plaintext);
+			if(cached != null)
+			{
+				hits.increment();
+				return cached;
+			}
+		}
+		
+		long out = delegate.encrypt(plaintext);
+		misses.increment();
+		
+		synchronized(cache)
+		{
+			cache.put(plaintext, out);
+		}
+		
+		return out;
+	}
+	
+	@Override
+	public void encryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+	{
+		int count = in.remaining();
+		if(out.remaining() < count)
+			throw new IllegalArgumentException("Output must have room for at least as many blocks as input!");
+		
+		int inBase  = in.position();
+		int outBase = out.position();
+		
+		// Slot in the miss batch of each distinct plaintext not in the cache.
+		Map<Long, Integer> pending = new HashMap<Long, Integer>();
+		int[]              slots   = new int[count];
+		
+		synchronized(cache)
+		{
+			for(int i=0; i<count; i++)
+			{
+				long  plain  = in.get(inBase+i);
+				Long  cached = cache.get(plain);
+				
+				if(cached != null)
+				{
+					out.put(outBase+i, cached);
+					slots[i] = -1;
+					continue;
+				}
+				
+				Integer slot = pending.get(plain);
+				if(slot == null)
+				{
+					slot = pending.size();
+					pending.put(plain, slot);
+				}
+				
+				slots[i] = slot;
+			}
+		}
+		
+		long[] missed = new long[pending.size()];
+		for(Map.Entry<Long, Integer> e: pending.entrySet())
+			missed[e.getValue()] = e.getKey();
+		
+		long[] answers = new long[missed.length];
+		if(missed.length > 0)
+			delegate.encryptAll(LongBuffer.wrap(missed), LongBuffer.wrap(answers), executor);
+		
+		hits.add(count-missed.length);
+		misses.add(missed.length);
+		
+		for(int i=0; i<count; i++)
+		{
+			if(slots[i] >= 0)
+				out.put(outBase+i, answers[slots[i]]);
+		}
+		
+		synchronized(cache)
+		{
+			for(int s=0; s<missed.length; s++)
+				cache.put(missed[s], answers[s]);
+		}
+		
+		in.position(inBase+count);
+		out.position(outBase+count);
+	}
+	
+	@Override
+	public int getBlockSize()
+	{
+		return delegate.getBlockSize();
+	}
+	
+	/**
+	 * The number of blocks answered from the cache, including repeats within a batch.
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+	
+	/**
+	 * The number of blocks sent on to the wrapped oracle.
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+	
+	public int size()
+	{
+		synchronized(cache)
+		{
+			return cache.size();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.oracle;
+
+/**
+ * Thrown when a query would take a {@link BudgetedOracle} past its budget.
+ */
+public class QueryBudgetExceededException extends IllegalStateException
+{
+	private static final long serialVersionUID = 1L;
+	
+	private final long budget;
+	private final long requested;
+	
+	public QueryBudgetExceededException(final long budget, final long used, final long requested)
+	{
+		super(String.format("Query budget of %d exhausted: %d used, %d more requested!", budget, used, requested));
+		
+		this.budget    = budget;
+		this.requested = requested;
+	}
+	
+	public long getBudget()
+	{
+		return budget;
+	}
+	
+	public long getRequested()
+	{
+		return requested;
+	}
+}
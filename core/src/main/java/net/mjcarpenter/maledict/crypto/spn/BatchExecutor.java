@@ -0,0 +1,146 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits bulk block operations across a {@link ForkJoinPool}.
+ * <br /><br />
+ * A batch is halved recursively until each piece is no larger than the
+ * minimum chunk size, or than an even share of the batch per worker if that
+ * is larger, and the pieces are then run in parallel. Batches no larger than
+ * the minimum chunk size run on the calling thread without touching the pool.
+ */
+public final class BatchExecutor
+{
+	public static final int DEFAULT_MIN_CHUNK = 4096;
+	
+	// Pieces per worker, so that uneven progress between workers evens out.
+	private static final int SPLITS_PER_THREAD = 4;
+	
+	private static volatile BatchExecutor defaultExecutor =
+			new BatchExecutor(ForkJoinPool.commonPool(), DEFAULT_MIN_CHUNK);
+	
+	private final ForkJoinPool pool;
+	private final int          minChunk;
+	
+	/**
+	 * Creates an executor backed by a new pool of its own.
+	 * 
+	 * @param threads The number of worker threads.
+	 * @param minChunk The smallest number of blocks worth handing to a worker.
+	 */
+	public BatchExecutor(final int threads, final int minChunk)
+	{
+		this(new ForkJoinPool(validateThreads(threads)), minChunk);
+	}
+	
+	public BatchExecutor(final ForkJoinPool pool, final int minChunk)
+	{
+		if(minChunk < 1)
+			throw new IllegalArgumentException("Minimum chunk size must be positive!");
+		
+		this.pool     = pool;
+		this.minChunk = minChunk;
+	}
+	
+	private static int validateThreads(final int threads)
+	{
+		if(threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive!");
+		
+		return threads;
+	}
+	
+	public static BatchExecutor getDefault()
+	{
+		return defaultExecutor;
+	}
+	
+	public static void setDefault(final BatchExecutor executor)
+	{
+		defaultExecutor = executor;
+	}
+	
+	public int getParallelism()
+	{
+		return pool.getParallelism();
+	}
+	
+	public int getMinimumChunkSize()
+	{
+		return minChunk;
+	}
+	
+	/**
+	 * Runs {@code task} over {@code [0, count)}, in parallel if the batch is large enough.
+	 * 
+	 * @param count The number of blocks in the batch.
+	 * @param task The work to do on each sub-range.
+	 */
+	public void run(final int count, final RangeTask task)
+	{
+		if(count <= minChunk)
+		{
+			task.run(0, count);
+			return;
+		}
+		
+		int share = (count+pool.getParallelism()*SPLITS_PER_THREAD-1)/(pool.getParallelism()*SPLITS_PER_THREAD);
+		pool.invoke(new Split(task, 0, count, Math.max(minChunk, share)));
+	}
+	
+	/**
+	 * Processes the half-open range {@code [from, to)} of a batch.
+	 */
+	@FunctionalInterface
+	public interface RangeTask
+	{
+		void run(int from, int to);
+	}
+	
+	@SuppressWarnings("serial")
+	private static final class Split extends RecursiveAction
+	{
+		private final RangeTask task;
+		private final int       from, to, chunk;
+		
+		private Split(final RangeTask task, final int from, final int to, final int chunk)
+		{
+			this.task  = task;
+			this.from  = from;
+			this.to    = to;
+			this.chunk = chunk;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(to-from <= chunk)
+			{
+				task.run(from, to);
+				return;
+			}
+			
+			int mid = (from+to)>>>1;
+			invokeAll(new Split(task, from, mid, chunk), new Split(task, mid, to, chunk));
+		}
+	}
+}
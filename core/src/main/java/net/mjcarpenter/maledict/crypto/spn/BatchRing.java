@@ -0,0 +1,142 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer ring of batches, after
+ * Vyukov's bounded queue.
+ * <br /><br />
+ * Each slot carries a sequence number that says whether it is ready to be
+ * written or read on the current lap, so producers and consumers only contend
+ * on their own end's position. Neither {@link #offer(Object)} nor
+ * {@link #poll()} ever blocks; waiting is left to the caller.
+ */
+final class BatchRing<T>
+{
+	private final int                     mask;
+	private final AtomicReferenceArray<T> items;
+	private final AtomicLongArray         sequences;
+	private final AtomicLong              head = new AtomicLong();
+	private final AtomicLong              tail = new AtomicLong();
+	
+	BatchRing(final int capacity)
+	{
+		if(capacity < 1 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Ring capacity must be a positive power of two!");
+		
+		this.mask      = capacity-1;
+		this.items     = new AtomicReferenceArray<T>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		
+		for(int i=0; i<capacity; i++)
+			sequences.set(i, i);
+	}
+	
+	/**
+	 * Adds a batch if there is room.
+	 * 
+	 * @param item The batch to add.
+	 * @return Whether it was added; false if the ring is full.
+	 */
+	boolean offer(final T item)
+	{
+		long pos = tail.get();
+		
+		while(true)
+		{
+			int  idx  = (int)(pos&mask);
+			long diff = sequences.get(idx) - pos;
+			
+			if(diff == 0)
+			{
+				if(tail.compareAndSet(pos, pos+1))
+				{
+					items.set(idx, item);
+					sequences.set(idx, pos+1);
+					return true;
+				}
+				
+				pos = tail.get();
+			}
+			else if(diff < 0)
+			{
+				// The slot still holds last lap's batch.
+				return false;
+			}
+			else
+			{
+				pos = tail.get();
+			}
+		}
+	}
+	
+	/**
+	 * Removes the oldest batch, if any.
+	 * 
+	 * @return The batch, or null if the ring is empty.
+	 */
+	T poll()
+	{
+		long pos = head.get();
+		
+		while(true)
+		{
+			int  idx  = (int)(pos&mask);
+			long diff = sequences.get(idx) - (pos+1);
+			
+			if(diff == 0)
+			{
+				if(head.compareAndSet(pos, pos+1))
+				{
+					T item = items.get(idx);
+					items.set(idx, null);
+					sequences.set(idx, pos+mask+1);
+					return item;
+				}
+				
+				pos = head.get();
+			}
+			else if(diff < 0)
+			{
+				// The slot has not been written on this lap.
+				return null;
+			}
+			else
+			{
+				pos = head.get();
+			}
+		}
+	}
+	
+	/**
+	 * The number of batches waiting, which may be stale by the time it is read.
+	 */
+	int size()
+	{
+		return (int)Math.max(0, tail.get()-head.get());
+	}
+	
+	int capacity()
+	{
+		return mask+1;
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.Arrays;
+
+/**
+ * An immutable fixed-width block or mask of any number of bits.
+ * <br /><br />
+ * The value is held in 64-bit lanes, with lane {@code 0} holding the least
+ * significant bits. Bit {@code i} of a block is therefore bit {@code i} of the
+ * big-endian value produced by {@link net.mjcarpenter.maledict.util.BitUtils#byteToLong(byte[])},
+ * and a block of at most 64 bits is exactly that value in its single lane.
+ * Bits above the block width are always zero.
+ */
+public final class Block implements Comparable<Block>
+{
+	private final int    bitSize;
+	private final long[] lanes;
+	
+	private Block(final int bitSize, final long[] lanes)
+	{
+		this.bitSize = bitSize;
+		this.lanes   = lanes;
+		
+		// Keep unused high bits clear so equality and parity never see them.
+		int spare = lanes.length*Long.SIZE - bitSize;
+		if(spare > 0)
+			lanes[lanes.length-1] &= (-1L>>>spare);
+	}
+	
+	public static Block zero(final int bitSize)
+	{
+		return new Block(bitSize, new long[lanesFor(bitSize)]);
+	}
+	
+	public static Block valueOf(final long value, final int bitSize)
+	{
+		long[] lanes = new long[lanesFor(bitSize)];
+		lanes[0] = value;
+		return new Block(bitSize, lanes);
+	}
+	
+	/**
+	 * Builds a block from its lanes, least significant first. Missing lanes are
+	 * treated as zero; lanes beyond the block width must not be given.
+	 * 
+	 * @param bitSize The width of the block in bits.
+	 * @param lanes The lanes of the block, least significant first.
+	 * @return A block holding the given lanes.
+	 */
+	public static Block ofLanes(final int bitSize, final long... lanes)
+	{
+		if(lanes.length > lanesFor(bitSize))
+			throw new IllegalArgumentException("Too many lanes for a "+bitSize+"-bit block!");
+		
+		return new Block(bitSize, Arrays.copyOf(lanes, lanesFor(bitSize)));
+	}
+	
+	/**
+	 * Builds a block from a big-endian byte array, as used by {@link SPNetwork#encrypt(byte[])}.
+	 * 
+	 * @param bytes The bytes of the block, most significant first.
+	 * @return A block of {@code 8*bytes.length} bits.
+	 */
+	public static Block valueOf(final byte[] bytes)
+	{
+		int    bitSize = bytes.length*Byte.SIZE;
+		long[] lanes   = new long[lanesFor(bitSize)];
+		
+		for(int k=0; k<bytes.length; k++)
+		{
+			lanes[k>>>3] |= (bytes[bytes.length-1-k]&0xFFL)<<((k&0x7)*Byte.SIZE);
+		}
+		
+		return new Block(bitSize, lanes);
+	}
+	
+	static Block wrap(final int bitSize, final long[] lanes)
+	{
+		return new Block(bitSize, lanes);
+	}
+	
+	static int lanesFor(final int bitSize)
+	{
+		if(bitSize <= 0)
+			throw new IllegalArgumentException("Block size must be positive!");
+		
+		return (bitSize+Long.SIZE-1)/Long.SIZE;
+	}
+	
+	public int bitSize()
+	{
+		return bitSize;
+	}
+	
+	public int numLanes()
+	{
+		return lanes.length;
+	}
+	
+	public long lane(final int idx)
+	{
+		return lanes[idx];
+	}
+	
+	/**
+	 * The lowest 64 bits of the block. For blocks of at most 64 bits this is
+	 * the whole value.
+	 * 
+	 * @return Lane {@code 0} of the block.
+	 */
+	public long longValue()
+	{
+		return lanes[0];
+	}
+	
+	long[] lanes()
+	{
+		return Arrays.copyOf(lanes, lanes.length);
+	}
+	
+	public byte[] toByteArray()
+	{
+		byte[] out = new byte[(bitSize+Byte.SIZE-1)/Byte.SIZE];
+		
+		for(int k=0; k<out.length; k++)
+		{
+			out[out.length-1-k] = (byte)(lanes[k>>>3]>>>((k&0x7)*Byte.SIZE));
+		}
+		
+		return out;
+	}
+	
+	public boolean getBit(final int idx)
+	{
+		return ((lanes[idx>>>6]>>>(idx&0x3F))&0x1L) != 0;
+	}
+	
+	/**
+	 * Reads up to 64 contiguous bits, which may straddle two lanes.
+	 * 
+	 * @param offset The index of the lowest bit to read.
+	 * @param width The number of bits to read, from 1 to 64.
+	 * @return The bits, shifted down to bit {@code 0}.
+	 */
+	public long bits(final int offset, final int width)
+	{
+		return extract(lanes, offset, width);
+	}
+	
+	/**
+	 * Returns a copy of this block with up to 64 contiguous bits replaced.
+	 * 
+	 * @param offset The index of the lowest bit to replace.
+	 * @param width The number of bits to replace, from 1 to 64.
+	 * @param value The new bits; anything above {@code width} is ignored.
+	 * @return A new block with the given bits replaced.
+	 */
+	public Block withBits(final int offset, final int width, final long value)
+	{
+		long[] out = Arrays.copyOf(lanes, lanes.length);
+		
+		deposit(out, offset, width, extract(lanes, offset, width)^value);
+		return new Block(bitSize, out);
+	}
+	
+	public Block xor(final Block that)
+	{
+		validateWidth(that);
+		
+		long[] out = new long[lanes.length];
+		for(int i=0; i<out.length; i++)
+			out[i] = lanes[i]^that.lanes[i];
+		
+		return new Block(bitSize, out);
+	}
+	
+	public Block and(final Block that)
+	{
+		validateWidth(that);
+		
+		long[] out = new long[lanes.length];
+		for(int i=0; i<out.length; i++)
+			out[i] = lanes[i]&that.lanes[i];
+		
+		return new Block(bitSize, out);
+	}
+	
+	public Block andNot(final Block that)
+	{
+		validateWidth(that);
+		
+		long[] out = new long[lanes.length];
+		for(int i=0; i<out.length; i++)
+			out[i] = lanes[i]&~that.lanes[i];
+		
+		return new Block(bitSize, out);
+	}
+	
+	public boolean isZero()
+	{
+		long acc = 0;
+		for(long each: lanes)
+			acc |= each;
+		
+		return acc == 0;
+	}
+	
+	public int bitCount()
+	{
+		int count = 0;
+		for(long each: lanes)
+			count += Long.bitCount(each);
+		
+		return count;
+	}
+	
+	/**
+	 * Whether the {@code XOR} of all bits of {@code this&mask} is one, as used to
+	 * evaluate one side of a linear approximation.
+	 * 
+	 * @param mask The bits over which to take the parity.
+	 * @return {@code true} if an odd number of masked bits are set.
+	 */
+	public boolean maskedParity(final Block mask)
+	{
+		validateWidth(mask);
+		
+		long acc = 0;
+		for(int i=0; i<lanes.length; i++)
+			acc ^= lanes[i]&mask.lanes[i];
+		
+		return (Long.bitCount(acc)&0x1) != 0;
+	}
+	
+	private void validateWidth(final Block that)
+	{
+		if(that.lanes.length != lanes.length)
+			throw new IllegalArgumentException("Blocks must have the same number of lanes! Found "+that.bitSize+" bits but expected "+bitSize+"!");
+	}
+	
+	static long extract(final long[] lanes, final int offset, final int width)
+	{
+		int  lane  = offset>>>6;
+		int  shift = offset&0x3F;
+		long mask  = (width == Long.SIZE) ? -1L : (1L<<width)-1;
+		long value = lanes[lane]>>>shift;
+		
+		if(shift+width > Long.SIZE)
+			value |= lanes[lane+1]<<(Long.SIZE-shift);
+		
+		return value&mask;
+	}
+	
+	static void deposit(final long[] lanes, final int offset, final int width, final long value)
+	{
+		// XORs the value in; callers depositing into cleared bits get a plain write.
+		int  lane  = offset>>>6;
+		int  shift = offset&0x3F;
+		long mask  = (width == Long.SIZE) ? -1L : (1L<<width)-1;
+		
+		lanes[lane] ^= (value&mask)<<shift;
+		
+		if(shift+width > Long.SIZE)
+			lanes[lane+1] ^= (value&mask)>>>(Long.SIZE-shift);
+	}
+	
+	@Override
+	public boolean equals(final Object o)
+	{
+		if(!(o instanceof Block))
+			return false;
+		
+		Block that = (Block)o;
+		return this.bitSize == that.bitSize && Arrays.equals(this.lanes, that.lanes);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return 31*bitSize + Arrays.hashCode(lanes);
+	}
+	
+	@Override
+	public int compareTo(final Block that)
+	{
+		// Unsigned comparison from the most significant lane down.
+		for(int i=Math.max(lanes.length, that.lanes.length)-1; i>=0; i--)
+		{
+			long a = (i < this.lanes.length) ? this.lanes[i] : 0;
+			long b = (i < that.lanes.length) ? that.lanes[i] : 0;
+			
+			if(a != b)
+				return Long.compareUnsigned(a, b);
+		}
+		
+		return Integer.compare(this.bitSize, that.bitSize);
+	}
+	
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for(byte each: toByteArray())
+			sb.append(String.format("%02x", each));
+		
+		return sb.toString();
+	}
+}
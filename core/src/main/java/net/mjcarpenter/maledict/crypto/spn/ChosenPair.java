@@ -17,12 +17,7 @@
  */
 package net.mjcarpenter.maledict.crypto.spn;
 
-import java.security.SecureRandom;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
-
-import net.mjcarpenter.maledict.util.BitUtils;
 
 public class ChosenPair
 {
@@ -46,30 +41,29 @@ public class ChosenPair
 	
 	public static List<ChosenPair> generatePairs(final int number, final long diffMask, final SPNetwork cipher)
 	{
-		List<ChosenPair> pairList = new ArrayList<ChosenPair>();
-		
-		Random r = new SecureRandom();
-		
-		int byteGenSize = cipher.getBlockSize()/Byte.SIZE + ((cipher.getBlockSize()%Byte.SIZE == 0) ? 0 : 1);
-		
-		for(int i=0; i<number; i++)
-		{
-			byte[] plainA = new byte[byteGenSize];
-			r.nextBytes(plainA);
-			
-			byte[] plainB = BitUtils.longToByte(diffMask^BitUtils.byteToLong(plainA), plainA.length);
-			
-			
-			byte[] cipherA = cipher.encrypt(plainA);
-			byte[] cipherB = cipher.encrypt(plainB);
-			
-			ChosenPair pair = new ChosenPair(
-					new KnownPair(plainA, cipherA),
-					new KnownPair(plainB, cipherB));
-			
-			pairList.add(pair);
-		}
-		
-		return pairList;
+		return generatePairs(number, Block.valueOf(diffMask, cipher.getBlockSize()), cipher);
+	}
+	
+	public static List<ChosenPair> generatePairs(final int number, final Block diffMask, final SPNetwork cipher)
+	{
+		return PairGenerator.unseeded().generateChosenPairs(number, diffMask, cipher);
+	}
+	
+	/**
+	 * Generates pairs from plaintext structures, for several pairs per
+	 * encryption. See {@link PairGenerator#generateStructured(int, long[], SPNetwork)}.
+	 */
+	public static List<ChosenPair> generateStructuredPairs(final int number, final Block diffMask, final SPNetwork cipher)
+	{
+		return PairGenerator.unseeded().generateStructuredPairs(number, diffMask, cipher);
+	}
+	
+	/**
+	 * As {@link #generatePairs(int, Block, SPNetwork)}, but reproducible: the
+	 * same seed always gives the same pairs.
+	 */
+	public static List<ChosenPair> generatePairs(final int number, final Block diffMask, final SPNetwork cipher, final long seed)
+	{
+		return new PairGenerator(seed).generateChosenPairs(number, diffMask, cipher);
 	}
 }
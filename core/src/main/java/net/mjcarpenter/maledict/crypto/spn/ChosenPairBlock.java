@@ -0,0 +1,222 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.mjcarpenter.maledict.util.BitUtils;
+
+/**
+ * A store of chosen plaintext pairs held as four primitive columns, the
+ * counterpart of {@link KnownPairBlock} for lists of {@link ChosenPair}s.
+ * Each pair is two known pairs, {@code A} and {@code B}, whose plaintexts
+ * usually differ by a fixed mask.
+ */
+public final class ChosenPairBlock
+{
+	private final int        blockSize;
+	private final LongBuffer plaintextsA;
+	private final LongBuffer plaintextsB;
+	private final LongBuffer ciphertextsA;
+	private final LongBuffer ciphertextsB;
+	
+	private ChosenPairBlock(final int blockSize, final LongBuffer plaintextsA, final LongBuffer plaintextsB,
+			final LongBuffer ciphertextsA, final LongBuffer ciphertextsB)
+	{
+		if(blockSize > Long.SIZE)
+			throw new IllegalArgumentException("Pair stores support block sizes of at most "+Long.SIZE+" bits!");
+		
+		int count = plaintextsA.capacity();
+		if(plaintextsB.capacity() != count || ciphertextsA.capacity() != count || ciphertextsB.capacity() != count)
+			throw new IllegalArgumentException("All columns must be the same length!");
+		
+		this.blockSize    = blockSize;
+		this.plaintextsA  = plaintextsA;
+		this.plaintextsB  = plaintextsB;
+		this.ciphertextsA = ciphertextsA;
+		this.ciphertextsB = ciphertextsB;
+	}
+	
+	public static ChosenPairBlock allocate(final int count, final int blockSize)
+	{
+		return new ChosenPairBlock(blockSize, LongBuffer.allocate(count), LongBuffer.allocate(count),
+				LongBuffer.allocate(count), LongBuffer.allocate(count));
+	}
+	
+	public static ChosenPairBlock allocateDirect(final int count, final int blockSize)
+	{
+		return new ChosenPairBlock(blockSize, KnownPairBlock.directColumn(count), KnownPairBlock.directColumn(count),
+				KnownPairBlock.directColumn(count), KnownPairBlock.directColumn(count));
+	}
+	
+	public static ChosenPairBlock wrap(final int blockSize, final long[] plaintextsA, final long[] plaintextsB,
+			final long[] ciphertextsA, final long[] ciphertextsB)
+	{
+		return new ChosenPairBlock(blockSize, LongBuffer.wrap(plaintextsA), LongBuffer.wrap(plaintextsB),
+				LongBuffer.wrap(ciphertextsA), LongBuffer.wrap(ciphertextsB));
+	}
+	
+	/**
+	 * As {@link KnownPairBlock#wrap(int, LongBuffer, LongBuffer)}, for four columns.
+	 */
+	public static ChosenPairBlock wrap(final int blockSize, final LongBuffer plaintextsA, final LongBuffer plaintextsB,
+			final LongBuffer ciphertextsA, final LongBuffer ciphertextsB)
+	{
+		return new ChosenPairBlock(blockSize, plaintextsA.slice(), plaintextsB.slice(),
+				ciphertextsA.slice(), ciphertextsB.slice());
+	}
+	
+	public static ChosenPairBlock of(final List<ChosenPair> pairs, final int blockSize)
+	{
+		ChosenPairBlock out = allocate(pairs.size(), blockSize);
+		
+		for(int i=0; i<pairs.size(); i++)
+		{
+			KnownPair a = pairs.get(i).getPairA();
+			KnownPair b = pairs.get(i).getPairB();
+			
+			out.set(i, BitUtils.byteToLong(a.getPlaintext()), BitUtils.byteToLong(b.getPlaintext()),
+					BitUtils.byteToLong(a.getCiphertext()), BitUtils.byteToLong(b.getCiphertext()));
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Generates random chosen pairs whose plaintexts differ by {@code diffMask}
+	 * into a heap-backed store, encrypting them as parallel batches. The
+	 * plaintexts are drawn from {@link PairGenerator#unseeded()}.
+	 * 
+	 * @param count The number of pairs to generate.
+	 * @param diffMask The difference between the plaintexts of each pair.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @return A store of {@code count} pairs.
+	 */
+	public static ChosenPairBlock generate(final int count, final long diffMask, final SPNetwork cipher)
+	{
+		return PairGenerator.unseeded().generateChosen(count, diffMask, cipher);
+	}
+	
+	/**
+	 * Generates pairs from plaintext structures, for several pairs per
+	 * encryption. See {@link PairGenerator#generateStructured(int, long[], SPNetwork)}.
+	 * 
+	 * @param count The number of pairs to generate.
+	 * @param diffs The allowed differences between the plaintexts of a pair.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @return A store of {@code count} pairs.
+	 */
+	public static ChosenPairBlock generateStructured(final int count, final long[] diffs, final SPNetwork cipher)
+	{
+		return PairGenerator.unseeded().generateStructured(count, diffs, cipher);
+	}
+	
+	public static ChosenPairBlock generateDirect(final int count, final long diffMask, final SPNetwork cipher)
+	{
+		return PairGenerator.unseeded().generateChosenDirect(count, diffMask, cipher);
+	}
+	
+	public int size()
+	{
+		return plaintextsA.capacity();
+	}
+	
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	public long getPlaintextA(final int idx)
+	{
+		return plaintextsA.get(idx);
+	}
+	
+	public long getPlaintextB(final int idx)
+	{
+		return plaintextsB.get(idx);
+	}
+	
+	public long getCiphertextA(final int idx)
+	{
+		return ciphertextsA.get(idx);
+	}
+	
+	public long getCiphertextB(final int idx)
+	{
+		return ciphertextsB.get(idx);
+	}
+	
+	public void set(final int idx, final long plaintextA, final long plaintextB, final long ciphertextA, final long ciphertextB)
+	{
+		plaintextsA.put(idx, plaintextA);
+		plaintextsB.put(idx, plaintextB);
+		ciphertextsA.put(idx, ciphertextA);
+		ciphertextsB.put(idx, ciphertextB);
+	}
+	
+	/**
+	 * A view of pairs {@code [from, to)} of this store, sharing its columns.
+	 * 
+	 * @param from The first pair of the view.
+	 * @param to The pair after the last pair of the view.
+	 * @return A store of {@code to-from} pairs.
+	 */
+	public ChosenPairBlock slice(final int from, final int to)
+	{
+		return new ChosenPairBlock(blockSize,
+				KnownPairBlock.sliceColumn(plaintextsA, from, to), KnownPairBlock.sliceColumn(plaintextsB, from, to),
+				KnownPairBlock.sliceColumn(ciphertextsA, from, to), KnownPairBlock.sliceColumn(ciphertextsB, from, to));
+	}
+	
+	LongBuffer plaintextColumnA()
+	{
+		return plaintextsA;
+	}
+	
+	LongBuffer plaintextColumnB()
+	{
+		return plaintextsB;
+	}
+	
+	LongBuffer ciphertextColumnA()
+	{
+		return ciphertextsA;
+	}
+	
+	LongBuffer ciphertextColumnB()
+	{
+		return ciphertextsB;
+	}
+	
+	public List<ChosenPair> toList()
+	{
+		int numBytes = (blockSize+Byte.SIZE-1)/Byte.SIZE;
+		List<ChosenPair> out = new ArrayList<ChosenPair>(size());
+		
+		for(int i=0; i<size(); i++)
+		{
+			out.add(new ChosenPair(
+					new KnownPair(BitUtils.longToByte(getPlaintextA(i), numBytes), BitUtils.longToByte(getCiphertextA(i), numBytes)),
+					new KnownPair(BitUtils.longToByte(getPlaintextB(i), numBytes), BitUtils.longToByte(getCiphertextB(i), numBytes))));
+		}
+		
+		return out;
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * A {@link PairSource} that produces each chunk on demand from its index range.
+ */
+final class ChunkedPairSource<T> implements PairSource<T>
+{
+	// Chunks are produced on the consuming thread; parallelism comes from splitting.
+	static final BatchExecutor INLINE = new BatchExecutor(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+	
+	private final int             blockSize;
+	private final long            size;
+	private final ChunkFactory<T> factory;
+	
+	ChunkedPairSource(final int blockSize, final long size, final ChunkFactory<T> factory)
+	{
+		if(size < 0)
+			throw new IllegalArgumentException("Pair count must not be negative!");
+		
+		this.blockSize = blockSize;
+		this.size      = size;
+		this.factory   = factory;
+	}
+	
+	@Override
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	@Override
+	public long size()
+	{
+		return size;
+	}
+	
+	@Override
+	public Spliterator<T> spliterator()
+	{
+		return new Chunks(0, size);
+	}
+	
+	/**
+	 * Produces the chunk holding pairs {@code [from, to)}.
+	 */
+	@FunctionalInterface
+	interface ChunkFactory<T>
+	{
+		T chunk(long from, long to);
+	}
+	
+	private final class Chunks implements Spliterator<T>
+	{
+		private long from;
+		private final long to;
+		
+		private Chunks(final long from, final long to)
+		{
+			this.from = from;
+			this.to   = to;
+		}
+		
+		@Override
+		public boolean tryAdvance(final Consumer<? super T> action)
+		{
+			if(from >= to)
+				return false;
+			
+			long end = Math.min(to, from+CHUNK_SIZE);
+			action.accept(factory.chunk(from, end));
+			from = end;
+			return true;
+		}
+		
+		@Override
+		public Spliterator<T> trySplit()
+		{
+			long chunks = estimateSize();
+			if(chunks < 2)
+				return null;
+			
+			// Split on a chunk boundary, so chunks line up the same however the source is divided.
+			long mid = from + (chunks/2)*CHUNK_SIZE;
+			Chunks prefix = new Chunks(from, mid);
+			from = mid;
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize()
+		{
+			return (to-from+CHUNK_SIZE-1)/CHUNK_SIZE;
+		}
+		
+		@Override
+		public int characteristics()
+		{
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
+}
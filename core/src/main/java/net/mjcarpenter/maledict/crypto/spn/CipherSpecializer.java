@@ -0,0 +1,635 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.mjcarpenter.maledict.util.BitUtils;
+
+/**
+ * Generates a dedicated class for one {@link SPNetwork}, defined at runtime
+ * through a private class loader.
+ * <br /><br />
+ * The generated class implements {@link LongBlockCipher} with every round
+ * unrolled into straight-line bytecode: round keys are folded in as constants,
+ * each round's S-boxes are looked up in a {@code static final int[]}, and each
+ * permutation is emitted as the shift and mask steps of its delta-swap
+ * network. Like {@link CompiledSPNetwork}, the state is kept in the
+ * little-endian bit numbering that {@link Round} uses to address its S-boxes.
+ * <br /><br />
+ * Generated ciphers are cached by {@link SPNetwork#contentDigest()}, so networks
+ * with the same content share one class. Networks that cannot be specialised,
+ * such as those wider than 64 bits or too large for one method, are returned
+ * as they are and run through the interpreted engine.
+ */
+public final class CipherSpecializer
+{
+	private static final int CACHE_SIZE = 64;
+	
+	// The JVM rejects methods with more bytecode than this.
+	private static final int MAX_CODE_LENGTH = 65535;
+	
+	private static final String GENERATED_PACKAGE = "net/mjcarpenter/maledict/crypto/spn/generated/";
+	private static final String TABLES_DESC       = "(Ljava/lang/String;)[[I";
+	
+	private static final Map<String, LongBlockCipher> cache = Collections.synchronizedMap(
+			new LinkedHashMap<String, LongBlockCipher>(16, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, LongBlockCipher> eldest)
+				{
+					return size() > CACHE_SIZE;
+				}
+			});
+	
+	// Tables handed to a generated class's static initializer, keyed by class name.
+	private static final Map<String, int[][]> pendingTables = new ConcurrentHashMap<String, int[][]>();
+	
+	// Numbers each generated class, so concurrent attempts at one network never share a name.
+	private static final AtomicLong generatedCount = new AtomicLong();
+	
+	private CipherSpecializer()
+	{
+	}
+	
+	/**
+	 * Returns a generated cipher for the given network, or the network itself
+	 * if it cannot be specialised.
+	 * 
+	 * @param spn The network to specialise.
+	 * @return A cipher whose results are identical to {@code spn}'s.
+	 */
+	public static LongBlockCipher specialize(final SPNetwork spn)
+	{
+		if(spn.getBlockSize() > Long.SIZE || spn.getBlockSize()%Byte.SIZE != 0)
+			return spn;
+		
+		String digest = spn.contentDigest();
+		LongBlockCipher cached = cache.get(digest);
+		
+		if(cached != null)
+			return cached;
+		
+		LongBlockCipher generated;
+		try
+		{
+			generated = generate(spn, GENERATED_PACKAGE+"SPN_"+digest.substring(0, 16)+"_"+generatedCount.incrementAndGet());
+		}
+		catch(IllegalStateException | ClassFormatError | VerifyError e)
+		{
+			// The class could never be built for this content, so remember to use the network as it is.
+			generated = spn;
+		}
+		catch(LinkageError | ReflectiveOperationException | SecurityException e)
+		{
+			// May not recur, so run interpreted this once and try again next time.
+			return spn;
+		}
+		
+		// Should another thread have finished first, share its cipher rather than replace it.
+		cached = cache.putIfAbsent(digest, generated);
+		return (cached != null) ? cached : generated;
+	}
+	
+	/**
+	 * Hands a generated class its S-box tables. Called once from the static
+	 * initializer of each generated class, which cannot see package-private members.
+	 * 
+	 * @param className The internal name of the calling class.
+	 * @return The tables to assign to the class's static fields, in field order.
+	 */
+	public static int[][] takeTables(final String className)
+	{
+		return pendingTables.remove(className);
+	}
+	
+	private static LongBlockCipher generate(final SPNetwork spn, final String className)
+	throws ReflectiveOperationException
+	{
+		Round[] rounds   = spn.getRounds();
+		int     numBytes = spn.getBlockSize()/Byte.SIZE;
+		
+		// Tables in field order: forward S-boxes for each round, then inverses.
+		int[][] tables = new int[2*rounds.length][];
+		long[]  keys   = new long[rounds.length];
+		Permutation[] perms = new Permutation[rounds.length];
+		
+		for(int r=0; r<rounds.length; r++)
+		{
+			SBox[] boxes = rounds[r].getSBoxes();
+			int    bits  = boxes[0].bitSize();
+			
+			tables[r]               = new int[boxes.length<<bits];
+			tables[rounds.length+r] = new int[boxes.length<<bits];
+			
+			for(int i=0; i<boxes.length; i++)
+			{
+				for(int x=0; x<(1<<bits); x++)
+				{
+					tables[r][(i<<bits)|x]               = boxes[i].sub(x);
+					tables[rounds.length+r][(i<<bits)|x] = boxes[i].subInverse(x);
+				}
+			}
+			
+			keys[r]  = BitUtils.reverseBytes(rounds[r].getSubKey().longValue(), numBytes);
+			perms[r] = littleEndianPermutation(rounds[r].getPermutation(), numBytes);
+		}
+		
+		ClassBuilder cb = new ClassBuilder(className);
+		String[] fields = new String[tables.length];
+		for(int t=0; t<tables.length; t++)
+		{
+			fields[t] = (t < rounds.length) ? "S"+t : "I"+(t-rounds.length);
+			cb.field(fields[t]);
+		}
+		
+		cb.method(0x0001, "<init>", "()V", 1, 1, constructorCode(cb));
+		cb.method(0x0008, "<clinit>", "()V", 3, 1, initializerCode(cb, className, fields));
+		cb.method(0x0001, "getBlockSize", "()I", 1, 1, blockSizeCode(cb, spn.getBlockSize()));
+		cb.method(0x0001, "encrypt", "(J)J", 8, 5, encryptCode(cb, rounds, fields, keys, perms, numBytes));
+		cb.method(0x0001, "decrypt", "(J)J", 8, 5, decryptCode(cb, rounds, fields, keys, perms, numBytes));
+		
+		byte[] classFile = cb.toByteArray();
+		String binaryName = className.replace('/', '.');
+		
+		pendingTables.put(className, tables);
+		try
+		{
+			Class<?> generated = new GeneratedClassLoader(LongBlockCipher.class.getClassLoader())
+					.define(binaryName, classFile);
+			return (LongBlockCipher)generated.getConstructor().newInstance();
+		}
+		finally
+		{
+			pendingTables.remove(className);
+		}
+	}
+	
+	/**
+	 * Re-expresses a permutation in the little-endian bit numbering. Bit {@code l}
+	 * of that numbering is bit {@code 8*(n-1-l/8)+l%8} of the big-endian value,
+	 * and that mapping is its own inverse.
+	 */
+	private static Permutation littleEndianPermutation(final Permutation perm, final int numBytes)
+	{
+		int[] mapping = new int[perm.length()];
+		for(int l=0; l<mapping.length; l++)
+		{
+			mapping[l] = swapEndian(perm.outPosition(swapEndian(l, numBytes)), numBytes);
+		}
+		
+		return new Permutation(mapping);
+	}
+	
+	private static int swapEndian(final int bit, final int numBytes)
+	{
+		return Byte.SIZE*(numBytes-1-bit/Byte.SIZE) + bit%Byte.SIZE;
+	}
+	
+	private static byte[] constructorCode(final ClassBuilder cb)
+	{
+		Code c = new Code();
+		c.op(0x2A);                                                    // aload_0
+		c.op(0xB7).u2(cb.methodRef("java/lang/Object", "<init>", "()V")); // invokespecial
+		c.op(0xB1);                                                    // return
+		return c.bytes();
+	}
+	
+	private static byte[] initializerCode(final ClassBuilder cb, final String className, final String[] fields)
+	{
+		Code c = new Code();
+		c.ldc(cb.string(className));
+		c.op(0xB8).u2(cb.methodRef(CipherSpecializer.class.getName().replace('.', '/'), "takeTables", TABLES_DESC));
+		c.op(0x4B);                           // astore_0
+		
+		for(int t=0; t<fields.length; t++)
+		{
+			c.op(0x2A);                       // aload_0
+			c.intConst(cb, t);
+			c.op(0x32);                       // aaload
+			c.op(0xB3).u2(cb.fieldRef(fields[t]));  // putstatic
+		}
+		
+		c.op(0xB1);                           // return
+		return c.bytes();
+	}
+	
+	private static byte[] blockSizeCode(final ClassBuilder cb, final int blockSize)
+	{
+		Code c = new Code();
+		c.intConst(cb, blockSize);
+		c.op(0xAC);                           // ireturn
+		return c.bytes();
+	}
+	
+	private static byte[] encryptCode(final ClassBuilder cb, final Round[] rounds, final String[] fields,
+			final long[] keys, final Permutation[] perms, final int numBytes)
+	{
+		Code c = new Code();
+		c.reverseBytes(cb, numBytes);
+		
+		for(int r=0; r<rounds.length; r++)
+		{
+			c.xorConst(cb, keys[r]);
+			c.substitute(cb, fields[r], rounds[r].getSBoxes().length, rounds[r].getSBoxes()[0].bitSize());
+			c.permute(cb, perms[r].stageMasks(), perms[r].stageShifts(), true);
+		}
+		
+		c.op(0x1F);                           // lload_1
+		c.reverseBytesOnStack(cb, numBytes);
+		c.op(0xAD);                           // lreturn
+		return c.checked();
+	}
+	
+	private static byte[] decryptCode(final ClassBuilder cb, final Round[] rounds, final String[] fields,
+			final long[] keys, final Permutation[] perms, final int numBytes)
+	{
+		Code c = new Code();
+		c.reverseBytes(cb, numBytes);
+		
+		for(int r=rounds.length-1; r>=0; r--)
+		{
+			c.permute(cb, perms[r].stageMasks(), perms[r].stageShifts(), false);
+			c.substitute(cb, fields[rounds.length+r], rounds[r].getSBoxes().length, rounds[r].getSBoxes()[0].bitSize());
+			c.xorConst(cb, keys[r]);
+		}
+		
+		c.op(0x1F);                           // lload_1
+		c.reverseBytesOnStack(cb, numBytes);
+		c.op(0xAD);                           // lreturn
+		return c.checked();
+	}
+	
+	/**
+	 * Emits the bytecode of one method. The block state lives in local
+	 * slots 1-2 and a delta-swap temporary in slots 3-4.
+	 */
+	private static final class Code
+	{
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		private Code op(final int opcode)
+		{
+			out.write(opcode);
+			return this;
+		}
+		
+		private Code u2(final int value)
+		{
+			out.write(value>>>8);
+			out.write(value);
+			return this;
+		}
+		
+		private void ldc(final int index)
+		{
+			if(index < 0x100)
+				op(0x12).out.write(index);    // ldc
+			else
+				op(0x13).u2(index);           // ldc_w
+		}
+		
+		private void intConst(final ClassBuilder cb, final int value)
+		{
+			if(value >= -1 && value <= 5)
+				op(0x03+value);               // iconst_<n>
+			else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+				op(0x10).out.write(value);    // bipush
+			else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+				op(0x11).u2(value);           // sipush
+			else
+				ldc(cb.integer(value));
+		}
+		
+		private void longConst(final ClassBuilder cb, final long value)
+		{
+			if(value == 0 || value == 1)
+				op(0x09+(int)value);          // lconst_<n>
+			else
+				op(0x14).u2(cb.longConst(value)); // ldc2_w
+		}
+		
+		private void reverseBytes(final ClassBuilder cb, final int numBytes)
+		{
+			op(0x1F);                         // lload_1
+			reverseBytesOnStack(cb, numBytes);
+			op(0x40);                         // lstore_1
+		}
+		
+		private void reverseBytesOnStack(final ClassBuilder cb, final int numBytes)
+		{
+			op(0xB8).u2(cb.methodRef("java/lang/Long", "reverseBytes", "(J)J")); // invokestatic
+			if(numBytes < Long.BYTES)
+			{
+				intConst(cb, Long.SIZE-numBytes*Byte.SIZE);
+				op(0x7D);                     // lushr
+			}
+		}
+		
+		private void xorConst(final ClassBuilder cb, final long key)
+		{
+			if(key == 0)
+				return;
+			
+			op(0x1F);                         // lload_1
+			longConst(cb, key);
+			op(0x83);                         // lxor
+			op(0x40);                         // lstore_1
+		}
+		
+		private void substitute(final ClassBuilder cb, final String field, final int boxes, final int bits)
+		{
+			for(int i=0; i<boxes; i++)
+			{
+				// (long)TABLE[((int)(state>>>i*bits) & mask) | (i<<bits)] << i*bits
+				op(0xB2).u2(cb.fieldRef(field));  // getstatic
+				op(0x1F);                     // lload_1
+				if(i > 0)
+				{
+					intConst(cb, i*bits);
+					op(0x7D);                 // lushr
+				}
+				op(0x88);                     // l2i
+				intConst(cb, (1<<bits)-1);
+				op(0x7E);                     // iand
+				if(i > 0)
+				{
+					intConst(cb, i<<bits);
+					op(0x80);                 // ior
+				}
+				op(0x2E);                     // iaload
+				op(0x85);                     // i2l
+				if(i > 0)
+				{
+					intConst(cb, i*bits);
+					op(0x79);                 // lshl
+					op(0x81);                 // lor
+				}
+			}
+			
+			op(0x40);                         // lstore_1
+		}
+		
+		private void permute(final ClassBuilder cb, final long[] masks, final int[] shifts, final boolean forward)
+		{
+			for(int k=0; k<masks.length; k++)
+			{
+				int s = forward ? k : masks.length-1-k;
+				
+				// t = ((state>>>shift)^state)&mask; state = state^t^(t<<shift)
+				op(0x1F);                     // lload_1
+				intConst(cb, shifts[s]);
+				op(0x7D);                     // lushr
+				op(0x1F);                     // lload_1
+				op(0x83);                     // lxor
+				longConst(cb, masks[s]);
+				op(0x7F);                     // land
+				op(0x42);                     // lstore_3
+				op(0x1F);                     // lload_1
+				op(0x21);                     // lload_3
+				op(0x83);                     // lxor
+				op(0x21);                     // lload_3
+				intConst(cb, shifts[s]);
+				op(0x79);                     // lshl
+				op(0x83);                     // lxor
+				op(0x40);                     // lstore_1
+			}
+		}
+		
+		private byte[] bytes()
+		{
+			return out.toByteArray();
+		}
+		
+		private byte[] checked()
+		{
+			if(out.size() > MAX_CODE_LENGTH)
+				throw new IllegalStateException("Generated method exceeds the JVM code size limit!");
+			
+			return bytes();
+		}
+	}
+	
+	/**
+	 * Assembles a minimal class file: a public final class extending
+	 * {@code Object} and implementing {@link LongBlockCipher}, with private
+	 * static final {@code int[]} fields and branch-free methods, which need
+	 * no stack map frames.
+	 */
+	private static final class ClassBuilder
+	{
+		private final ByteArrayOutputStream pool    = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream fields  = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+		private final Map<String, Integer>  entries = new HashMap<String, Integer>();
+		
+		private final int thisClass;
+		private int poolCount   = 1;
+		private int fieldCount  = 0;
+		private int methodCount = 0;
+		
+		private ClassBuilder(final String className)
+		{
+			this.thisClass = classRef(className);
+		}
+		
+		private int entry(final String key, final int slots, final byte[] data)
+		{
+			Integer existing = entries.get(key);
+			if(existing != null)
+				return existing;
+			
+			int index = poolCount;
+			pool.write(data, 0, data.length);
+			poolCount += slots;
+			entries.put(key, index);
+			return index;
+		}
+		
+		private int utf8(final String value)
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			try
+			{
+				data.writeByte(1);
+				data.writeUTF(value);
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			
+			return entry("U"+value, 1, bytes.toByteArray());
+		}
+		
+		private int classRef(final String internalName)
+		{
+			int name = utf8(internalName);
+			return entry("C"+internalName, 1, new byte[]{7, (byte)(name>>>8), (byte)name});
+		}
+		
+		private int string(final String value)
+		{
+			int utf = utf8(value);
+			return entry("S"+value, 1, new byte[]{8, (byte)(utf>>>8), (byte)utf});
+		}
+		
+		private int integer(final int value)
+		{
+			return entry("I"+value, 1, new byte[]{3,
+					(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value});
+		}
+		
+		private int longConst(final long value)
+		{
+			byte[] data = new byte[9];
+			data[0] = 5;
+			for(int k=0; k<Long.BYTES; k++)
+				data[1+k] = (byte)(value>>>(Long.SIZE-Byte.SIZE*(k+1)));
+			
+			// Long constants take two pool slots.
+			return entry("J"+value, 2, data);
+		}
+		
+		private int nameAndType(final String name, final String desc)
+		{
+			int n = utf8(name);
+			int d = utf8(desc);
+			return entry("N"+name+":"+desc, 1, new byte[]{12, (byte)(n>>>8), (byte)n, (byte)(d>>>8), (byte)d});
+		}
+		
+		private int methodRef(final String owner, final String name, final String desc)
+		{
+			int c = classRef(owner);
+			int nt = nameAndType(name, desc);
+			return entry("M"+owner+"."+name+desc, 1, new byte[]{10, (byte)(c>>>8), (byte)c, (byte)(nt>>>8), (byte)nt});
+		}
+		
+		private int fieldRef(final String name)
+		{
+			int nt = nameAndType(name, "[I");
+			return entry("F"+name, 1, new byte[]{9, (byte)(thisClass>>>8), (byte)thisClass, (byte)(nt>>>8), (byte)nt});
+		}
+		
+		private void field(final String name)
+		{
+			DataOutputStream data = new DataOutputStream(fields);
+			try
+			{
+				data.writeShort(0x001A);      // private static final
+				data.writeShort(utf8(name));
+				data.writeShort(utf8("[I"));
+				data.writeShort(0);
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			
+			fieldCount++;
+		}
+		
+		private void method(final int access, final String name, final String desc,
+				final int maxStack, final int maxLocals, final byte[] code)
+		{
+			DataOutputStream data = new DataOutputStream(methods);
+			try
+			{
+				data.writeShort(access);
+				data.writeShort(utf8(name));
+				data.writeShort(utf8(desc));
+				data.writeShort(1);
+				data.writeShort(utf8("Code"));
+				data.writeInt(12+code.length);
+				data.writeShort(maxStack);
+				data.writeShort(maxLocals);
+				data.writeInt(code.length);
+				data.write(code);
+				data.writeShort(0);           // exception table
+				data.writeShort(0);           // attributes
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			
+			methodCount++;
+		}
+		
+		private byte[] toByteArray()
+		{
+			int superClass = classRef("java/lang/Object");
+			int iface      = classRef(LongBlockCipher.class.getName().replace('.', '/'));
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			try
+			{
+				data.writeInt(0xCAFEBABE);
+				data.writeShort(0);
+				data.writeShort(52);          // Java 8
+				data.writeShort(poolCount);
+				pool.writeTo(data);
+				data.writeShort(0x0031);      // public final super
+				data.writeShort(thisClass);
+				data.writeShort(superClass);
+				data.writeShort(1);
+				data.writeShort(iface);
+				data.writeShort(fieldCount);
+				fields.writeTo(data);
+				data.writeShort(methodCount);
+				methods.writeTo(data);
+				data.writeShort(0);
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			
+			return bytes.toByteArray();
+		}
+	}
+	
+	/**
+	 * Defines a single generated class. Each class gets its own loader so
+	 * that it can be unloaded once evicted from the cache.
+	 */
+	private static final class GeneratedClassLoader extends ClassLoader
+	{
+		private GeneratedClassLoader(final ClassLoader parent)
+		{
+			super(parent);
+		}
+		
+		private Class<?> define(final String name, final byte[] classFile)
+		{
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+}
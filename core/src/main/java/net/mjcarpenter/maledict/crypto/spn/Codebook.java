@@ -0,0 +1,234 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The complete encryption and decryption tables of a small network, so that
+ * each block costs a single table load.
+ * <br /><br />
+ * Tables are built in parallel from the network's compiled engine and may be
+ * persisted to a file, which is later memory-mapped rather than read back in.
+ * A file begins with a header holding {@link SPNetwork#contentDigest()}, so a
+ * file written for one network is never mistaken for another's.
+ */
+public final class Codebook implements LongBlockCipher
+{
+	/**
+	 * The widest block for which a codebook may be built. Each table then
+	 * holds 16M entries, or 64MB.
+	 */
+	public static final int MAX_BLOCK_SIZE = 24;
+	
+	private static final int MAGIC       = 0x4D43_4231; // "MCB1"
+	private static final int DIGEST_SIZE = 64;
+	private static final int HEADER_SIZE = 2*Integer.BYTES + DIGEST_SIZE;
+	
+	private final int       blockSize;
+	private final int       mask;
+	private final String    digest;
+	private final IntBuffer encTable;
+	private final IntBuffer decTable;
+	
+	private Codebook(final int blockSize, final String digest, final IntBuffer encTable, final IntBuffer decTable)
+	{
+		this.blockSize = blockSize;
+		this.mask      = (1<<blockSize)-1;
+		this.digest    = digest;
+		this.encTable  = encTable;
+		this.decTable  = decTable;
+	}
+	
+	/**
+	 * Tabulates every block of the given network.
+	 * 
+	 * @param spn The network to tabulate.
+	 * @param executor The executor across which to split the work.
+	 * @return The network's codebook.
+	 */
+	public static Codebook build(final SPNetwork spn, final BatchExecutor executor)
+	{
+		validateBlockSize(spn.getBlockSize());
+		
+		CompiledSPNetwork engine = spn.compiled();
+		int   size = 1<<spn.getBlockSize();
+		int[] enc  = new int[size];
+		int[] dec  = new int[size];
+		
+		executor.run(size, (from, to) ->
+		{
+			for(int x=from; x<to; x++)
+				enc[x] = (int)engine.encrypt(x);
+		});
+		
+		// The encryption table is a permutation, so each index of the inverse is written exactly once.
+		executor.run(size, (from, to) ->
+		{
+			for(int x=from; x<to; x++)
+				dec[enc[x]] = x;
+		});
+		
+		return new Codebook(spn.getBlockSize(), spn.contentDigest(), IntBuffer.wrap(enc), IntBuffer.wrap(dec));
+	}
+	
+	/**
+	 * Memory-maps the codebook for the given network from {@code file}, first
+	 * building and writing it if the file is missing or belongs to another network.
+	 * 
+	 * @param spn The network to tabulate.
+	 * @param file The file in which the codebook is kept.
+	 * @param executor The executor across which to split the work if it must be built.
+	 * @return The network's codebook, backed by the mapped file.
+	 * @throws IOException If the file cannot be read or written.
+	 */
+	public static Codebook open(final SPNetwork spn, final Path file, final BatchExecutor executor)
+	throws IOException
+	{
+		validateBlockSize(spn.getBlockSize());
+		
+		Codebook mapped = map(file, spn.getBlockSize(), spn.contentDigest());
+		if(mapped != null)
+			return mapped;
+		
+		build(spn, executor).save(file);
+		return map(file, spn.getBlockSize(), spn.contentDigest());
+	}
+	
+	/**
+	 * Writes this codebook to {@code file}. The file is written alongside and
+	 * then moved into place, so a reader never maps a partial file.
+	 * 
+	 * @param file The file to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void save(final Path file)
+	throws IOException
+	{
+		int  size   = 1<<blockSize;
+		Path parent = file.toAbsolutePath().getParent();
+		Path temp   = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		
+		try
+		{
+			try(FileChannel ch = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2L*size*Integer.BYTES);
+				
+				buf.putInt(MAGIC);
+				buf.putInt(blockSize);
+				buf.put(digest.getBytes(StandardCharsets.US_ASCII));
+				
+				IntBuffer ints = buf.asIntBuffer();
+				for(int x=0; x<size; x++)
+					ints.put(encTable.get(x));
+				for(int x=0; x<size; x++)
+					ints.put(decTable.get(x));
+				
+				buf.force();
+			}
+			
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	private static Codebook map(final Path file, final int blockSize, final String digest)
+	throws IOException
+	{
+		if(!Files.isRegularFile(file))
+			return null;
+		
+		int size = 1<<blockSize;
+		
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(ch.size() != HEADER_SIZE + 2L*size*Integer.BYTES)
+				return null;
+			
+			// The mapping stays valid after the channel is closed.
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			
+			byte[] stored = new byte[DIGEST_SIZE];
+			if(buf.getInt() != MAGIC || buf.getInt() != blockSize)
+				return null;
+			
+			buf.get(stored);
+			if(!digest.equals(new String(stored, StandardCharsets.US_ASCII)))
+				return null;
+			
+			IntBuffer ints = buf.asIntBuffer();
+			
+			ints.limit(size);
+			IntBuffer enc = ints.slice();
+			ints.limit(2*size).position(size);
+			IntBuffer dec = ints.slice();
+			
+			return new Codebook(blockSize, digest, enc, dec);
+		}
+	}
+	
+	static void validateBlockSize(final int blockSize)
+	{
+		if(blockSize > MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException("Codebooks support block sizes of at most "+MAX_BLOCK_SIZE+" bits!");
+		
+		if(blockSize%Byte.SIZE != 0)
+			throw new IllegalArgumentException("Codebooks require a block size that is a multiple of "+Byte.SIZE+" bits!");
+	}
+	
+	/**
+	 * The {@link SPNetwork#contentDigest()} of the network this codebook tabulates.
+	 * 
+	 * @return The digest as a lowercase hex string.
+	 */
+	public String getDigest()
+	{
+		return digest;
+	}
+	
+	// As in the other engines, bits above the block size are ignored.
+	@Override
+	public long encrypt(final long in)
+	{
+		return encTable.get((int)in&mask);
+	}
+	
+	@Override
+	public long decrypt(final long in)
+	{
+		return decTable.get((int)in&mask);
+	}
+	
+	@Override
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+}
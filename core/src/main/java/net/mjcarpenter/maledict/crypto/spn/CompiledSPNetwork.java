@@ -0,0 +1,189 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import net.mjcarpenter.maledict.util.BitUtils;
+
+/**
+ * A table-driven form of an {@link SPNetwork} operating on primitive longs.
+ * <br /><br />
+ * Each round's S-box layer and permutation are folded into one lookup table
+ * per S-box position, so a round costs one key {@code XOR} plus one table
+ * lookup per S-box and nothing is allocated during encryption or decryption.
+ * Results are bit-identical to {@link SPNetwork#encrypt(long)} and
+ * {@link SPNetwork#decrypt(long)}.
+ * <br /><br />
+ * Internally the state is kept in the little-endian bit numbering that
+ * {@link Round} uses to address its S-boxes, so the byte order is only
+ * reversed once on the way in and once on the way out.
+ */
+public final class CompiledSPNetwork implements LongBlockCipher
+{
+	private final int blockSize;
+	private final int numBytes;
+	
+	private final int[]    boxBits;
+	private final int[]    numBoxes;
+	
+	private final long[]   encKeys;
+	private final long[][] encTables;
+	
+	private final long[]   decKeys;
+	private final long[][] decTables;
+	private final long[]   decInitialPerm;
+	
+	public CompiledSPNetwork(final SPNetwork spn)
+	{
+		this(spn.getBlockSize(), spn.getRounds(), false);
+	}
+	
+	/**
+	 * Compiles a run of rounds on their own, as used by
+	 * {@link SPNetwork#getRoundRange(int, int, boolean)}.
+	 * 
+	 * @param blockSize The block size of the rounds.
+	 * @param rounds The rounds to compile, in encryption order.
+	 * @param skipFirstKey Whether to leave out the first round's key, which is
+	 *        the first step of encryption and the last step of decryption.
+	 */
+	CompiledSPNetwork(final int blockSize, final Round[] rounds, final boolean skipFirstKey)
+	{
+		if(blockSize > Long.SIZE)
+			throw new IllegalArgumentException("Compiled networks support block sizes of at most "+Long.SIZE+" bits!");
+		
+		this.blockSize = blockSize;
+		this.numBytes  = blockSize/Byte.SIZE;
+		
+		this.boxBits   = new int[rounds.length];
+		this.numBoxes  = new int[rounds.length];
+		this.encKeys   = new long[rounds.length];
+		this.encTables = new long[rounds.length][];
+		this.decKeys   = new long[rounds.length];
+		this.decTables = new long[rounds.length][];
+		
+		for(int r=0; r<rounds.length; r++)
+		{
+			SBox[] boxes = rounds[r].getSBoxes();
+			boxBits[r]   = boxes[0].bitSize();
+			numBoxes[r]  = boxes.length;
+			encKeys[r]   = (r == 0 && skipFirstKey) ? 0 : toLittleEndian(rounds[r].getSubKey().longValue());
+			encTables[r] = new long[boxes.length<<boxBits[r]];
+			decTables[r] = new long[boxes.length<<boxBits[r]];
+			
+			Permutation prevPerm = (r > 0) ? rounds[r-1].getPermutation() : null;
+			decKeys[r] = (prevPerm != null) ? permuteRev(prevPerm, encKeys[r]) : encKeys[r];
+			
+			for(int i=0; i<boxes.length; i++)
+			{
+				SBox inverse = boxes[i].invert();
+				int  shift   = i*boxBits[r];
+				
+				for(int x=0; x<(1<<boxBits[r]); x++)
+				{
+					long fwdPart = ((long)boxes[i].sub(x))<<shift;
+					long revPart = ((long)inverse.sub(x))<<shift;
+					
+					encTables[r][(i<<boxBits[r])|x] = permuteFwd(rounds[r].getPermutation(), fwdPart);
+					decTables[r][(i<<boxBits[r])|x] = (prevPerm != null) ? permuteRev(prevPerm, revPart) : revPart;
+				}
+			}
+		}
+		
+		// Decryption begins by undoing the last permutation, which no earlier table absorbs.
+		this.decInitialPerm = new long[numBytes<<Byte.SIZE];
+		for(int j=0; j<numBytes; j++)
+		{
+			for(int x=0; x<(1<<Byte.SIZE); x++)
+			{
+				long part = ((long)x)<<(j*Byte.SIZE);
+				decInitialPerm[(j<<Byte.SIZE)|x] = (rounds.length > 0)
+						? permuteRev(rounds[rounds.length-1].getPermutation(), part)
+						: part;
+			}
+		}
+	}
+	
+	@Override
+	public long encrypt(final long in)
+	{
+		long state = toLittleEndian(in);
+		
+		for(int r=0; r<encTables.length; r++)
+		{
+			state ^= encKeys[r];
+			state  = substitute(state, encTables[r], boxBits[r], numBoxes[r]);
+		}
+		
+		return toLittleEndian(state);
+	}
+	
+	@Override
+	public long decrypt(final long in)
+	{
+		long state = toLittleEndian(in);
+		
+		long permuted = 0;
+		for(int j=0; j<numBytes; j++)
+		{
+			permuted ^= decInitialPerm[(j<<Byte.SIZE)|(int)((state>>>(j*Byte.SIZE))&0xFF)];
+		}
+		state = permuted;
+		
+		for(int r=decTables.length-1; r>=0; r--)
+		{
+			state  = substitute(state, decTables[r], boxBits[r], numBoxes[r]);
+			state ^= decKeys[r];
+		}
+		
+		return toLittleEndian(state);
+	}
+	
+	@Override
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	private static long substitute(final long state, final long[] table, final int bits, final int boxes)
+	{
+		long mask = (1L<<bits)-1;
+		long out  = 0;
+		
+		for(int i=0; i<boxes; i++)
+		{
+			out ^= table[(i<<bits)|(int)((state>>>(i*bits))&mask)];
+		}
+		
+		return out;
+	}
+	
+	private long toLittleEndian(final long in)
+	{
+		return BitUtils.reverseBytes(in, numBytes);
+	}
+	
+	private long permuteFwd(final Permutation perm, final long littleEndian)
+	{
+		return toLittleEndian(perm.permuteFwd(toLittleEndian(littleEndian)));
+	}
+	
+	private long permuteRev(final Permutation perm, final long littleEndian)
+	{
+		return toLittleEndian(perm.permuteRev(toLittleEndian(littleEndian)));
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.nio.LongBuffer;
+
+/**
+ * A chosen-plaintext encryption oracle over blocks of at most 64 bits, in the
+ * big-endian form of {@link net.mjcarpenter.maledict.util.BitUtils#byteToLong(byte[])}.
+ * <br /><br />
+ * Attacks that obtain their ciphertexts through an oracle, rather than from
+ * an {@link SPNetwork} directly, can be metered, limited and cached by the
+ * decorators in {@code net.mjcarpenter.maledict.crypto.oracle}.
+ */
+public interface EncryptionOracle
+{
+	long encrypt(long plaintext);
+	
+	int getBlockSize();
+	
+	/**
+	 * Encrypts the remaining blocks of {@code in} into {@code out} as one
+	 * query batch. Both buffers are read and written by absolute index, and
+	 * the position of each is advanced past the blocks processed, as with
+	 * {@link SPNetwork#encryptAll(LongBuffer, LongBuffer, BatchExecutor)}.
+	 * <br /><br />
+	 * The default splits the batch across the executor and answers each block
+	 * with {@link #encrypt(long)}.
+	 * 
+	 * @param in The plaintext blocks.
+	 * @param out The buffer to receive the ciphertexts.
+	 * @param executor The executor across which to split the batch.
+	 */
+	default void encryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+	{
+		int count = in.remaining();
+		if(out.remaining() < count)
+			throw new IllegalArgumentException("Output must have room for at least as many blocks as input!");
+		
+		int inBase  = in.position();
+		int outBase = out.position();
+		
+		executor.run(count, (from, to) ->
+		{
+			for(int i=from; i<to; i++)
+				out.put(outBase+i, encrypt(in.get(inBase+i)));
+		});
+		
+		in.position(inBase+count);
+		out.position(outBase+count);
+	}
+}
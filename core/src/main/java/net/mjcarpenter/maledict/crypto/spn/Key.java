@@ -36,6 +36,10 @@ public final class Key implements SPNComponent, Comparable<Key>
 	@XStreamAlias("noop")
 	private final boolean noop;
 	
+	// Derived transient fields.
+	private transient long  keyLong;
+	private transient Block keyBlock;
+	
 	public Key(final byte[] key)
 	{
 		this(false, key);
@@ -43,8 +47,10 @@ public final class Key implements SPNComponent, Comparable<Key>
 	
 	private Key(boolean noop, final byte[] key)
 	{
-		this.noop = noop;
-		this.key  = key;
+		this.noop    = noop;
+		this.key     = key;
+		this.keyLong  = BitUtils.byteToLong(key);
+		this.keyBlock = Block.valueOf(key);
 	}
 	
 	public static Key noop(int length)
@@ -65,6 +71,38 @@ public final class Key implements SPNComponent, Comparable<Key>
 		return this.key;
 	}
 	
+	/**
+	 * The key as a primitive long, in the same big-endian form
+	 * as {@link BitUtils#byteToLong(byte[])}. Only meaningful for
+	 * keys of at most 64 bits.
+	 * 
+	 * @return The key value as a long.
+	 */
+	public long longValue()
+	{
+		return this.keyLong;
+	}
+	
+	/**
+	 * The key as a {@link Block}, which holds keys of any width.
+	 * 
+	 * @return The key value as a block.
+	 */
+	public Block blockValue()
+	{
+		return this.keyBlock;
+	}
+	
+	public long xor(final long in)
+	{
+		return in^keyLong;
+	}
+	
+	public Block xor(final Block in)
+	{
+		return in.xor(keyBlock);
+	}
+	
 	public byte[] xor(final byte[] in)
 	{
 		BitSet inSet = BitSet.valueOf(in);
@@ -96,14 +134,24 @@ public final class Key implements SPNComponent, Comparable<Key>
 		{
 			result = 0;
 		}
+		else if(this.key.length > Long.BYTES || that.key.length > Long.BYTES)
+		{
+			// The long value only holds the low 64 bits of wider keys.
+			result = this.keyBlock.compareTo(that.keyBlock);
+		}
 		else
 		{
-			long thisKeyLong = BitUtils.byteToLong(this.key);
-			long thatKeyLong = BitUtils.byteToLong(that.key);
-			
-			result = Long.compare(thisKeyLong, thatKeyLong);
+			result = Long.compare(this.keyLong, that.keyLong);
 		}
 		
 		return result;
 	}
+	
+	private Object readResolve()
+	{
+		// Reconstruct derivable transient fields during deserialization.
+		this.keyLong  = BitUtils.byteToLong(key);
+		this.keyBlock = Block.valueOf(key);
+		return this;
+	}
 }
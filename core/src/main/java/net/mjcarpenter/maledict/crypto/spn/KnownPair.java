@@ -17,10 +17,7 @@
  */
 package net.mjcarpenter.maledict.crypto.spn;
 
-import java.security.SecureRandom;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 public final class KnownPair
 {
@@ -45,23 +42,15 @@ public final class KnownPair
 	
 	public static List<KnownPair> generatePairs(int numPairs, SPNetwork cipher)
 	{
-		List<KnownPair> pairList = new ArrayList<KnownPair>();
-		
-		Random r = new SecureRandom();
-		
-		int byteGenSize = cipher.getBlockSize()/Byte.SIZE + ((cipher.getBlockSize()%Byte.SIZE == 0) ? 0 : 1);
-		
-		for(int i=0; i<numPairs; i++)
-		{
-			byte[] plainT = new byte[byteGenSize];
-			r.nextBytes(plainT);
-			
-			byte[] cipherT = cipher.encrypt(plainT);
-			
-			KnownPair pair = new KnownPair(plainT, cipherT);
-			pairList.add(pair);
-		}
-		
-		return pairList;
+		return PairGenerator.unseeded().generateKnownPairs(numPairs, cipher);
+	}
+	
+	/**
+	 * As {@link #generatePairs(int, SPNetwork)}, but reproducible: the same seed
+	 * always gives the same pairs.
+	 */
+	public static List<KnownPair> generatePairs(int numPairs, SPNetwork cipher, long seed)
+	{
+		return new PairGenerator(seed).generateKnownPairs(numPairs, cipher);
 	}
 }
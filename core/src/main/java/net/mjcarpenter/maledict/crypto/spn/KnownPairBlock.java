@@ -0,0 +1,250 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.mjcarpenter.maledict.util.BitUtils;
+
+/**
+ * A store of known plaintext/ciphertext pairs held as two primitive columns,
+ * for block sizes of at most 64 bits.
+ * <br /><br />
+ * Where a list of {@link KnownPair}s spends several objects and around 80
+ * bytes of heap on each pair of a 16-bit network, a store spends 16 bytes
+ * whatever the block size. Columns are either heap {@code long[]} arrays or
+ * direct buffers outside the heap, and hold blocks in the same big-endian
+ * form as {@link BitUtils#byteToLong(byte[])}.
+ */
+public final class KnownPairBlock
+{
+	private final int        blockSize;
+	private final LongBuffer plaintexts;
+	private final LongBuffer ciphertexts;
+	
+	private KnownPairBlock(final int blockSize, final LongBuffer plaintexts, final LongBuffer ciphertexts)
+	{
+		if(blockSize > Long.SIZE)
+			throw new IllegalArgumentException("Pair stores support block sizes of at most "+Long.SIZE+" bits!");
+		
+		if(plaintexts.capacity() != ciphertexts.capacity())
+			throw new IllegalArgumentException("Plaintext and ciphertext columns must be the same length!");
+		
+		this.blockSize   = blockSize;
+		this.plaintexts  = plaintexts;
+		this.ciphertexts = ciphertexts;
+	}
+	
+	/**
+	 * Creates an empty store of zeroed pairs backed by heap arrays.
+	 * 
+	 * @param count The number of pairs.
+	 * @param blockSize The block size of the pairs in bits.
+	 * @return A store of {@code count} pairs.
+	 */
+	public static KnownPairBlock allocate(final int count, final int blockSize)
+	{
+		return new KnownPairBlock(blockSize, LongBuffer.allocate(count), LongBuffer.allocate(count));
+	}
+	
+	/**
+	 * Creates an empty store of zeroed pairs backed by direct buffers outside the heap.
+	 * 
+	 * @param count The number of pairs.
+	 * @param blockSize The block size of the pairs in bits.
+	 * @return A store of {@code count} pairs.
+	 */
+	public static KnownPairBlock allocateDirect(final int count, final int blockSize)
+	{
+		return new KnownPairBlock(blockSize, directColumn(count), directColumn(count));
+	}
+	
+	/**
+	 * Wraps existing columns without copying them.
+	 * 
+	 * @param blockSize The block size of the pairs in bits.
+	 * @param plaintexts The plaintext column.
+	 * @param ciphertexts The ciphertext column, the same length as {@code plaintexts}.
+	 * @return A store backed by the given arrays.
+	 */
+	public static KnownPairBlock wrap(final int blockSize, final long[] plaintexts, final long[] ciphertexts)
+	{
+		return new KnownPairBlock(blockSize, LongBuffer.wrap(plaintexts), LongBuffer.wrap(ciphertexts));
+	}
+	
+	/**
+	 * Wraps existing column buffers, such as regions of a mapped file, without
+	 * copying them. Each column spans its buffer's whole capacity.
+	 * 
+	 * @param blockSize The block size of the pairs in bits.
+	 * @param plaintexts The plaintext column.
+	 * @param ciphertexts The ciphertext column, the same length as {@code plaintexts}.
+	 * @return A store backed by the given buffers.
+	 */
+	public static KnownPairBlock wrap(final int blockSize, final LongBuffer plaintexts, final LongBuffer ciphertexts)
+	{
+		return new KnownPairBlock(blockSize, plaintexts.slice(), ciphertexts.slice());
+	}
+	
+	/**
+	 * Copies a list of pairs into a heap-backed store.
+	 * 
+	 * @param pairs The pairs to copy.
+	 * @param blockSize The block size of the pairs in bits.
+	 * @return A store holding the same pairs in the same order.
+	 */
+	public static KnownPairBlock of(final List<KnownPair> pairs, final int blockSize)
+	{
+		KnownPairBlock out = allocate(pairs.size(), blockSize);
+		
+		for(int i=0; i<pairs.size(); i++)
+		{
+			out.set(i, BitUtils.byteToLong(pairs.get(i).getPlaintext()), BitUtils.byteToLong(pairs.get(i).getCiphertext()));
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Generates random known pairs into a heap-backed store, encrypting them as
+	 * one parallel batch. The plaintexts are drawn from
+	 * {@link PairGenerator#unseeded()}; use a seeded {@link PairGenerator} for
+	 * a reproducible corpus.
+	 * 
+	 * @param count The number of pairs to generate.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @return A store of {@code count} pairs.
+	 */
+	public static KnownPairBlock generate(final int count, final SPNetwork cipher)
+	{
+		return PairGenerator.unseeded().generateKnown(count, cipher);
+	}
+	
+	/**
+	 * As {@link #generate(int, SPNetwork)}, into a store outside the heap.
+	 */
+	public static KnownPairBlock generateDirect(final int count, final SPNetwork cipher)
+	{
+		return PairGenerator.unseeded().generateKnownDirect(count, cipher);
+	}
+	
+	static LongBuffer directColumn(final int count)
+	{
+		if((long)count*Long.BYTES > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Direct columns hold at most "+(Integer.MAX_VALUE/Long.BYTES)+" blocks!");
+		
+		return ByteBuffer.allocateDirect(count*Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+	}
+	
+	static long blockMask(final int blockSize)
+	{
+		return (blockSize == Long.SIZE) ? -1L : (1L<<blockSize)-1;
+	}
+	
+	public int size()
+	{
+		return plaintexts.capacity();
+	}
+	
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	public long getPlaintext(final int idx)
+	{
+		return plaintexts.get(idx);
+	}
+	
+	public long getCiphertext(final int idx)
+	{
+		return ciphertexts.get(idx);
+	}
+	
+	public void set(final int idx, final long plaintext, final long ciphertext)
+	{
+		plaintexts.put(idx, plaintext);
+		ciphertexts.put(idx, ciphertext);
+	}
+	
+	/**
+	 * A read-only view of the plaintext column, for bulk processing.
+	 */
+	public LongBuffer plaintexts()
+	{
+		return plaintexts.asReadOnlyBuffer();
+	}
+	
+	public LongBuffer ciphertexts()
+	{
+		return ciphertexts.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * A view of pairs {@code [from, to)} of this store, sharing its columns.
+	 * 
+	 * @param from The first pair of the view.
+	 * @param to The pair after the last pair of the view.
+	 * @return A store of {@code to-from} pairs.
+	 */
+	public KnownPairBlock slice(final int from, final int to)
+	{
+		return new KnownPairBlock(blockSize, sliceColumn(plaintexts, from, to), sliceColumn(ciphertexts, from, to));
+	}
+	
+	static LongBuffer sliceColumn(final LongBuffer column, final int from, final int to)
+	{
+		LongBuffer view = column.duplicate();
+		
+		view.limit(to).position(from);
+		return view.slice();
+	}
+	
+	LongBuffer plaintextColumn()
+	{
+		return plaintexts;
+	}
+	
+	LongBuffer ciphertextColumn()
+	{
+		return ciphertexts;
+	}
+	
+	/**
+	 * Copies the store out into a list of {@link KnownPair}s, for code that has
+	 * not moved to columnar stores.
+	 * 
+	 * @return The pairs in the same order.
+	 */
+	public List<KnownPair> toList()
+	{
+		int numBytes = (blockSize+Byte.SIZE-1)/Byte.SIZE;
+		List<KnownPair> out = new ArrayList<KnownPair>(size());
+		
+		for(int i=0; i<size(); i++)
+		{
+			out.add(new KnownPair(BitUtils.longToByte(getPlaintext(i), numBytes), BitUtils.longToByte(getCiphertext(i), numBytes)));
+		}
+		
+		return out;
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+/**
+ * A block cipher of at most 64 bits operating on primitive longs, in the
+ * big-endian form of {@link net.mjcarpenter.maledict.util.BitUtils#byteToLong(byte[])}.
+ * Every such cipher may serve as its own {@link EncryptionOracle}.
+ */
+public interface LongBlockCipher extends EncryptionOracle
+{
+	@Override
+	long encrypt(long in);
+	
+	long decrypt(long in);
+	
+	@Override
+	int getBlockSize();
+}
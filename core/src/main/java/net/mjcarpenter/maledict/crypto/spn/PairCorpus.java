@@ -0,0 +1,362 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A corpus of known or chosen pairs kept in a file and memory-mapped, so that
+ * a corpus is generated once and its pairs never have to be held on the heap.
+ * <br /><br />
+ * A file holds a fixed header followed by the corpus's columns one after
+ * another, plaintexts first, with each block stored as a big-endian 64-bit
+ * word. Each column is mapped on its own, so a file may be larger than a
+ * single mapping allows. The header records the {@link SPNetwork#contentDigest()} of the
+ * network that encrypted the pairs, the block size, the pair type, the pair
+ * count, the seed of the {@link PairGenerator} that drew the plaintexts and,
+ * for chosen pairs, the plaintext difference.
+ */
+public final class PairCorpus
+{
+	public enum PairType
+	{
+		KNOWN(2),
+		CHOSEN(4);
+		
+		private final int columns;
+		
+		private PairType(final int columns)
+		{
+			this.columns = columns;
+		}
+	}
+	
+	private static final int MAGIC       = 0x4D50_4331; // "MPC1"
+	private static final int DIGEST_SIZE = 64;
+	private static final int HEADER_SIZE = 4*Integer.BYTES + 3*Long.BYTES + DIGEST_SIZE;
+	
+	private final String           digest;
+	private final int              blockSize;
+	private final PairType         type;
+	private final int              count;
+	private final long             seed;
+	private final long             diffMask;
+	private final LongBuffer[]     columns;
+	
+	private PairCorpus(final String digest, final int blockSize, final PairType type, final int count,
+			final long seed, final long diffMask, final LongBuffer[] columns)
+	{
+		this.digest    = digest;
+		this.blockSize = blockSize;
+		this.type      = type;
+		this.count     = count;
+		this.seed      = seed;
+		this.diffMask  = diffMask;
+		this.columns   = columns;
+	}
+	
+	/**
+	 * Generates a corpus of known pairs straight into {@code file}, replacing
+	 * anything already there.
+	 * 
+	 * @param file The file to write.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @param count The number of pairs.
+	 * @param seed The seed of the {@link PairGenerator} that draws the plaintexts.
+	 * @return The new corpus, mapped from the file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static PairCorpus createKnown(final Path file, final SPNetwork cipher, final int count, final long seed)
+	throws IOException
+	{
+		return create(file, cipher, PairType.KNOWN, count, seed, 0);
+	}
+	
+	/**
+	 * Generates a corpus of chosen pairs straight into {@code file}, replacing
+	 * anything already there.
+	 * 
+	 * @param file The file to write.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @param count The number of pairs.
+	 * @param diffMask The difference between the plaintexts of each pair.
+	 * @param seed The seed of the {@link PairGenerator} that draws the plaintexts.
+	 * @return The new corpus, mapped from the file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static PairCorpus createChosen(final Path file, final SPNetwork cipher, final int count, final long diffMask, final long seed)
+	throws IOException
+	{
+		return create(file, cipher, PairType.CHOSEN, count, seed, diffMask);
+	}
+	
+	/**
+	 * Maps a corpus of known pairs from {@code file}, first generating it if
+	 * the file is missing or was written for another network, count or seed.
+	 * 
+	 * @param file The file in which the corpus is kept.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @param count The number of pairs.
+	 * @param seed The seed of the {@link PairGenerator} that draws the plaintexts.
+	 * @return The corpus, mapped from the file.
+	 * @throws IOException If the file cannot be read or written.
+	 */
+	public static PairCorpus openKnown(final Path file, final SPNetwork cipher, final int count, final long seed)
+	throws IOException
+	{
+		PairCorpus mapped = Files.isRegularFile(file) ? open(file) : null;
+		if(mapped != null && mapped.matches(cipher, PairType.KNOWN, count, seed, 0))
+			return mapped;
+		
+		return createKnown(file, cipher, count, seed);
+	}
+	
+	/**
+	 * As {@link #openKnown(Path, SPNetwork, int, long)}, for chosen pairs.
+	 */
+	public static PairCorpus openChosen(final Path file, final SPNetwork cipher, final int count, final long diffMask, final long seed)
+	throws IOException
+	{
+		PairCorpus mapped = Files.isRegularFile(file) ? open(file) : null;
+		if(mapped != null && mapped.matches(cipher, PairType.CHOSEN, count, seed, diffMask))
+			return mapped;
+		
+		return createChosen(file, cipher, count, diffMask, seed);
+	}
+	
+	/**
+	 * Maps an existing corpus file.
+	 * 
+	 * @param file The file to map.
+	 * @return The corpus, or {@code null} if the file is not a well-formed corpus.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static PairCorpus open(final Path file)
+	throws IOException
+	{
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(ch.size() < HEADER_SIZE)
+				return null;
+			
+			ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			
+			if(header.getInt() != MAGIC)
+				return null;
+			
+			int  blockSize = header.getInt();
+			int  typeIdx   = header.getInt();
+			int  columns   = header.getInt();
+			long count     = header.getLong();
+			long seed      = header.getLong();
+			long diffMask  = header.getLong();
+			
+			if(typeIdx < 0 || typeIdx >= PairType.values().length || blockSize < 1 || blockSize > Long.SIZE)
+				return null;
+			
+			PairType type = PairType.values()[typeIdx];
+			if(columns != type.columns || count < 0 || count > Integer.MAX_VALUE/Long.BYTES
+					|| ch.size() != fileSize(type, (int)count))
+				return null;
+			
+			byte[] stored = new byte[DIGEST_SIZE];
+			header.get(stored);
+			
+			// The mappings stay valid after the channel is closed.
+			return new PairCorpus(new String(stored, StandardCharsets.US_ASCII), blockSize, type, (int)count,
+					seed, diffMask, asLongs(mapColumns(ch, FileChannel.MapMode.READ_ONLY, type, (int)count)));
+		}
+	}
+	
+	private static PairCorpus create(final Path file, final SPNetwork cipher, final PairType type,
+			final int count, final long seed, final long diffMask)
+	throws IOException
+	{
+		if(cipher.getBlockSize() > Long.SIZE)
+			throw new IllegalArgumentException("Pair corpora support block sizes of at most "+Long.SIZE+" bits!");
+		
+		if(count < 0 || count > Integer.MAX_VALUE/Long.BYTES)
+			throw new IllegalArgumentException("Pair corpora hold at most "+(Integer.MAX_VALUE/Long.BYTES)+" pairs!");
+		
+		Path parent = file.toAbsolutePath().getParent();
+		Path temp   = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		
+		try
+		{
+			try(FileChannel ch = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				
+				buf.putInt(MAGIC);
+				buf.putInt(cipher.getBlockSize());
+				buf.putInt(type.ordinal());
+				buf.putInt(type.columns);
+				buf.putLong(count);
+				buf.putLong(seed);
+				buf.putLong(diffMask&KnownPairBlock.blockMask(cipher.getBlockSize()));
+				buf.put(cipher.contentDigest().getBytes(StandardCharsets.US_ASCII));
+				buf.force();
+				
+				// The columns are generated in place, so no column is ever held on the heap.
+				MappedByteBuffer[] mapped    = mapColumns(ch, FileChannel.MapMode.READ_WRITE, type, count);
+				LongBuffer[]       cols      = asLongs(mapped);
+				PairGenerator      generator = new PairGenerator(seed);
+				
+				if(type == PairType.KNOWN)
+					generator.populate(KnownPairBlock.wrap(cipher.getBlockSize(), cols[0], cols[1]), cipher);
+				else
+					generator.populate(ChosenPairBlock.wrap(cipher.getBlockSize(), cols[0], cols[1], cols[2], cols[3]), diffMask, cipher);
+				
+				for(MappedByteBuffer col: mapped)
+					col.force();
+			}
+			
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+		
+		return open(file);
+	}
+	
+	private static long fileSize(final PairType type, final int count)
+	{
+		return HEADER_SIZE + (long)type.columns*count*Long.BYTES;
+	}
+	
+	private static MappedByteBuffer[] mapColumns(final FileChannel ch, final FileChannel.MapMode mode, final PairType type, final int count)
+	throws IOException
+	{
+		MappedByteBuffer[] out = new MappedByteBuffer[type.columns];
+		
+		for(int i=0; i<out.length; i++)
+		{
+			out[i] = ch.map(mode, HEADER_SIZE + (long)i*count*Long.BYTES, (long)count*Long.BYTES);
+		}
+		
+		return out;
+	}
+	
+	private static LongBuffer[] asLongs(final MappedByteBuffer[] columns)
+	{
+		LongBuffer[] out = new LongBuffer[columns.length];
+		
+		for(int i=0; i<out.length; i++)
+		{
+			out[i] = columns[i].asLongBuffer();
+		}
+		
+		return out;
+	}
+	
+	private boolean matches(final SPNetwork cipher, final PairType type, final int count, final long seed, final long diffMask)
+	{
+		return this.type == type && this.count == count && this.seed == seed
+				&& this.blockSize == cipher.getBlockSize()
+				&& this.diffMask == (diffMask&KnownPairBlock.blockMask(blockSize))
+				&& this.digest.equals(cipher.contentDigest());
+	}
+	
+	/**
+	 * Whether this corpus was encrypted by a network with the same content as {@code cipher}.
+	 */
+	public boolean isFor(final SPNetwork cipher)
+	{
+		return digest.equals(cipher.contentDigest()) && blockSize == cipher.getBlockSize();
+	}
+	
+	/**
+	 * The known pairs of this corpus, read in place from the mapped file.
+	 * 
+	 * @return A store backed by the mapping.
+	 */
+	public KnownPairBlock knownPairs()
+	{
+		if(type != PairType.KNOWN)
+			throw new IllegalStateException("Corpus holds chosen pairs, not known pairs!");
+		
+		return KnownPairBlock.wrap(blockSize, columns[0], columns[1]);
+	}
+	
+	/**
+	 * The chosen pairs of this corpus, read in place from the mapped file.
+	 * 
+	 * @return A store backed by the mapping.
+	 */
+	public ChosenPairBlock chosenPairs()
+	{
+		if(type != PairType.CHOSEN)
+			throw new IllegalStateException("Corpus holds known pairs, not chosen pairs!");
+		
+		return ChosenPairBlock.wrap(blockSize, columns[0], columns[1], columns[2], columns[3]);
+	}
+	
+	/**
+	 * The known pairs of this corpus as a streaming source over the mapping.
+	 */
+	public PairSource<KnownPairBlock> knownSource()
+	{
+		return PairSource.of(knownPairs());
+	}
+	
+	public PairSource<ChosenPairBlock> chosenSource()
+	{
+		return PairSource.of(chosenPairs());
+	}
+	
+	public String getDigest()
+	{
+		return digest;
+	}
+	
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	public PairType getPairType()
+	{
+		return type;
+	}
+	
+	public int size()
+	{
+		return count;
+	}
+	
+	public long getSeed()
+	{
+		return seed;
+	}
+	
+	public long getDiffMask()
+	{
+		return diffMask;
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.nio.LongBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import net.mjcarpenter.maledict.util.BitUtils;
+
+/**
+ * Generates known and chosen pairs in parallel from a {@link RandomSource}.
+ * <br /><br />
+ * Pair {@code i} always draws its plaintext from stream
+ * {@code i/}{@value #STREAM_LENGTH} of the source, at the same offset within
+ * it, so a seeded generator produces the same corpus whatever the executor's
+ * parallelism and however it divides the work.
+ */
+public final class PairGenerator
+{
+	/**
+	 * The number of consecutive pairs drawn from each stream.
+	 */
+	public static final int STREAM_LENGTH = 4096;
+	
+	/**
+	 * The most bits a plaintext structure may vary over, so that one structure
+	 * is at most 64K plaintexts.
+	 */
+	public static final int MAX_STRUCTURE_BITS = 16;
+	
+	private final RandomSource  source;
+	private final BatchExecutor executor;
+	
+	/**
+	 * Creates a generator over the default xoshiro source and executor.
+	 * 
+	 * @param seed The seed from which every pair is derived.
+	 */
+	public PairGenerator(final long seed)
+	{
+		this(RandomSource.xoshiro(seed), BatchExecutor.getDefault());
+	}
+	
+	public PairGenerator(final RandomSource source, final BatchExecutor executor)
+	{
+		this.source   = source;
+		this.executor = executor;
+	}
+	
+	/**
+	 * Creates a generator over the default xoshiro source, seeded once from
+	 * {@link SecureRandom}, for callers that have no seed of their own.
+	 * 
+	 * @return A new generator.
+	 */
+	public static PairGenerator unseeded()
+	{
+		return new PairGenerator(new SecureRandom().nextLong());
+	}
+	
+	public KnownPairBlock generateKnown(final int count, final EncryptionOracle cipher)
+	{
+		return populate(KnownPairBlock.allocate(count, cipher.getBlockSize()), cipher);
+	}
+	
+	public KnownPairBlock generateKnownDirect(final int count, final EncryptionOracle cipher)
+	{
+		return populate(KnownPairBlock.allocateDirect(count, cipher.getBlockSize()), cipher);
+	}
+	
+	public ChosenPairBlock generateChosen(final int count, final long diffMask, final EncryptionOracle cipher)
+	{
+		return populate(ChosenPairBlock.allocate(count, cipher.getBlockSize()), diffMask, cipher);
+	}
+	
+	public ChosenPairBlock generateChosenDirect(final int count, final long diffMask, final EncryptionOracle cipher)
+	{
+		return populate(ChosenPairBlock.allocateDirect(count, cipher.getBlockSize()), diffMask, cipher);
+	}
+	
+	/**
+	 * Generates chosen pairs from plaintext structures, which gives several
+	 * pairs per encryption rather than two encryptions per pair.
+	 * <br /><br />
+	 * A structure is a random base plaintext together with every plaintext
+	 * that differs from it only in the S-boxes that some difference touches.
+	 * The whole structure is encrypted, then every pair inside it whose
+	 * difference is one of {@code diffs} is emitted: a structure over
+	 * {@code k} bits costs {@code 2^k} encryptions and yields
+	 * {@code diffs.length*2^(k-1)} pairs. If the touched S-boxes span more
+	 * than {@value #MAX_STRUCTURE_BITS} bits, the structure varies only the
+	 * bits the differences themselves set.
+	 * <br /><br />
+	 * Pairs of one structure share plaintexts, so they are not independent
+	 * samples in the way pairs from {@link #generateChosen(int, long, EncryptionOracle)} are.
+	 * 
+	 * @param count The number of pairs to generate.
+	 * @param diffs The allowed differences between the plaintexts of a pair.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @return A store of {@code count} pairs, in structure order.
+	 */
+	public ChosenPairBlock generateStructured(final int count, final long[] diffs, final SPNetwork cipher)
+	{
+		return generateStructured(count, diffs, cipher.getRounds()[0].getSBoxes()[0].bitSize(), cipher);
+	}
+	
+	/**
+	 * As {@link #generateStructured(int, long[], SPNetwork)}, through an oracle
+	 * whose S-boxes are {@code boxBits} wide.
+	 */
+	public ChosenPairBlock generateStructured(final int count, final long[] diffs, final int boxBits, final EncryptionOracle cipher)
+	{
+		int    blockSize = cipher.getBlockSize();
+		long   blockMask = KnownPairBlock.blockMask(blockSize);
+		long[] distinct  = Arrays.stream(diffs).map(d -> d&blockMask).distinct().toArray();
+		
+		if(distinct.length == 0 || Arrays.stream(distinct).anyMatch(d -> d == 0))
+			throw new IllegalArgumentException("Structures need at least one non-zero difference!");
+		
+		long   active     = structureMask(distinct, boxBits, blockSize);
+		int    structBits = Long.bitCount(active);
+		int    structSize = 1<<structBits;
+		long   perStruct  = (long)distinct.length*(structSize/2);
+		long   numStructs = (count+perStruct-1)/perStruct;
+		long[] offsets    = new long[structSize];
+		
+		if(numStructs*structSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Structures for "+count+" pairs would hold too many plaintexts!");
+		
+		for(int j=0; j<structSize; j++)
+			offsets[j] = BitUtils.depositBits(j, active);
+		
+		// Each structure's base plaintext is drawn as if it were a pair of its own.
+		LongBuffer bases  = LongBuffer.allocate((int)numStructs);
+		LongBuffer plains = LongBuffer.allocate((int)numStructs*structSize);
+		LongBuffer ciphs  = LongBuffer.allocate((int)numStructs*structSize);
+		
+		fill(bases, blockSize);
+		executor.run((int)numStructs, (from, to) ->
+		{
+			for(int s=from; s<to; s++)
+			{
+				long base = bases.get(s)&~active;
+				for(int j=0; j<structSize; j++)
+					plains.put(s*structSize+j, base^offsets[j]);
+			}
+		});
+		
+		cipher.encryptAll(plains.duplicate(), ciphs.duplicate(), executor);
+		
+		ChosenPairBlock out = ChosenPairBlock.allocate(count, blockSize);
+		int next = 0;
+		
+		for(int s=0; s<numStructs && next<count; s++)
+		{
+			for(int d=0; d<distinct.length && next<count; d++)
+			{
+				int partner = (int)BitUtils.extractBits(distinct[d], active);
+				
+				for(int j=0; j<structSize && next<count; j++)
+				{
+					// Emit each unordered pair once, from its lower member.
+					if(j < (j^partner))
+					{
+						int a = s*structSize+j;
+						int b = s*structSize+(j^partner);
+						out.set(next++, plains.get(a), plains.get(b), ciphs.get(a), ciphs.get(b));
+					}
+				}
+			}
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * As {@link #generateStructured(int, long[], SPNetwork)}, as a list.
+	 */
+	public List<ChosenPair> generateStructuredPairs(final int count, final Block diffMask, final SPNetwork cipher)
+	{
+		if(!isColumnar(cipher))
+			throw new IllegalArgumentException("Structures need a byte-aligned block size of at most "+Long.SIZE+" bits!");
+		
+		return generateStructured(count, new long[]{diffMask.longValue()}, cipher).toList();
+	}
+	
+	/**
+	 * The bits a structure for the given differences varies over: every bit of
+	 * each S-box a difference touches, or only the differences' own bits if
+	 * that would be too many.
+	 */
+	static long structureMask(final long[] diffs, final int boxBits, final int blockSize)
+	{
+		long touched = 0;
+		for(long d: diffs)
+			touched |= d;
+		
+		// Whole boxes line up in both bit orders only when boxes tile bytes.
+		if(Byte.SIZE%boxBits == 0 || boxBits%Byte.SIZE == 0)
+		{
+			long boxMask = (boxBits == Long.SIZE) ? -1L : (1L<<boxBits)-1;
+			long boxes   = 0;
+			
+			for(int shift=0; shift<blockSize; shift+=boxBits)
+			{
+				if((touched & (boxMask<<shift)) != 0)
+					boxes |= boxMask<<shift;
+			}
+			
+			if(Long.bitCount(boxes) <= MAX_STRUCTURE_BITS)
+				return boxes;
+		}
+		
+		if(Long.bitCount(touched) > MAX_STRUCTURE_BITS)
+			throw new IllegalArgumentException("Differences span more than "+MAX_STRUCTURE_BITS+" bits, too many for a structure!");
+		
+		return touched;
+	}
+	
+	/**
+	 * Generates known pairs as a list, for any block size. Blocks of at most
+	 * 64 whole bytes go through a columnar store.
+	 * 
+	 * @param count The number of pairs to generate.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @return The generated pairs.
+	 */
+	public List<KnownPair> generateKnownPairs(final int count, final SPNetwork cipher)
+	{
+		if(isColumnar(cipher))
+			return generateKnown(count, cipher).toList();
+		
+		KnownPair[] out = new KnownPair[count];
+		int numBytes    = numBytes(cipher);
+		
+		draw(0, count, words(numBytes), (i, r) ->
+		{
+			byte[] plainT = nextBytes(r, numBytes);
+			out[i] = new KnownPair(plainT, cipher.encrypt(plainT));
+		});
+		
+		return Arrays.asList(out);
+	}
+	
+	/**
+	 * Generates chosen pairs as a list, for any block size. Blocks of at most
+	 * 64 whole bytes go through a columnar store.
+	 * 
+	 * @param count The number of pairs to generate.
+	 * @param diffMask The difference between the plaintexts of each pair.
+	 * @param cipher The network with which to encrypt the pairs.
+	 * @return The generated pairs.
+	 */
+	public List<ChosenPair> generateChosenPairs(final int count, final Block diffMask, final SPNetwork cipher)
+	{
+		if(isColumnar(cipher))
+			return generateChosen(count, diffMask.longValue(), cipher).toList();
+		
+		ChosenPair[] out = new ChosenPair[count];
+		int numBytes     = numBytes(cipher);
+		
+		draw(0, count, words(numBytes), (i, r) ->
+		{
+			byte[] plainA = nextBytes(r, numBytes);
+			byte[] plainB = Block.valueOf(plainA).xor(diffMask).toByteArray();
+			
+			out[i] = new ChosenPair(
+					new KnownPair(plainA, cipher.encrypt(plainA)),
+					new KnownPair(plainB, cipher.encrypt(plainB)));
+		});
+		
+		return Arrays.asList(out);
+	}
+	
+	/**
+	 * Fills a column with random blocks, the block at index {@code i} of the
+	 * buffer being pair {@code i} of this generator's sequence.
+	 * 
+	 * @param out The column to fill, from index 0 to its capacity.
+	 * @param blockSize The block size in bits, to which each value is masked.
+	 */
+	public void fill(final LongBuffer out, final int blockSize)
+	{
+		fill(out, blockSize, 0);
+	}
+	
+	/**
+	 * As {@link #fill(LongBuffer, int)}, the block at index {@code i} of the
+	 * buffer being pair {@code first+i} of the sequence.
+	 */
+	void fill(final LongBuffer out, final int blockSize, final long first)
+	{
+		long mask = KnownPairBlock.blockMask(blockSize);
+		draw(first, out.capacity(), 1, (i, r) -> out.put(i, r.getAsLong()&mask));
+	}
+	
+	KnownPairBlock populate(final KnownPairBlock out, final EncryptionOracle cipher)
+	{
+		return populate(out, cipher, 0);
+	}
+	
+	KnownPairBlock populate(final KnownPairBlock out, final EncryptionOracle cipher, final long first)
+	{
+		LongBuffer plaintexts = out.plaintextColumn();
+		
+		fill(plaintexts, out.getBlockSize(), first);
+		cipher.encryptAll(plaintexts.duplicate(), out.ciphertextColumn().duplicate(), executor);
+		return out;
+	}
+	
+	ChosenPairBlock populate(final ChosenPairBlock out, final long diffMask, final EncryptionOracle cipher)
+	{
+		return populate(out, diffMask, cipher, 0);
+	}
+	
+	ChosenPairBlock populate(final ChosenPairBlock out, final long diffMask, final EncryptionOracle cipher, final long first)
+	{
+		LongBuffer plaintextsA = out.plaintextColumnA();
+		LongBuffer plaintextsB = out.plaintextColumnB();
+		long       diff        = diffMask&KnownPairBlock.blockMask(out.getBlockSize());
+		
+		fill(plaintextsA, out.getBlockSize(), first);
+		executor.run(out.size(), (from, to) ->
+		{
+			for(int i=from; i<to; i++)
+				plaintextsB.put(i, plaintextsA.get(i)^diff);
+		});
+		
+		cipher.encryptAll(plaintextsA.duplicate(), out.ciphertextColumnA().duplicate(), executor);
+		cipher.encryptAll(plaintextsB.duplicate(), out.ciphertextColumnB().duplicate(), executor);
+		return out;
+	}
+	
+	/**
+	 * Runs {@code task} for each of {@code count} items, handing item {@code i},
+	 * which is item {@code first+i} of the sequence, its stream positioned
+	 * {@code ((first+i)%STREAM_LENGTH)*words} values in.
+	 */
+	private void draw(final long first, final int count, final int words, final ItemTask task)
+	{
+		executor.run(count, (from, to) ->
+		{
+			int i = from;
+			
+			while(i < to)
+			{
+				long         pos    = first+i;
+				long         stream = pos/STREAM_LENGTH;
+				int          end    = (int)Math.min(to, (stream+1)*STREAM_LENGTH-first);
+				LongSupplier r      = source.stream(stream);
+				
+				// A sub-range may begin part way into a stream; skip what earlier items drew.
+				for(long skip=(pos%STREAM_LENGTH)*words; skip>0; skip--)
+					r.getAsLong();
+				
+				for(; i<end; i++)
+					task.run(i, r);
+			}
+		});
+	}
+	
+	private static byte[] nextBytes(final LongSupplier r, final int numBytes)
+	{
+		byte[] out = new byte[numBytes];
+		
+		for(int j=0; j<numBytes; j+=Long.BYTES)
+		{
+			byte[] word = BitUtils.longToByte(r.getAsLong(), Long.BYTES);
+			System.arraycopy(word, 0, out, j, Math.min(Long.BYTES, numBytes-j));
+		}
+		
+		return out;
+	}
+	
+	private static boolean isColumnar(final SPNetwork cipher)
+	{
+		return cipher.getBlockSize() <= Long.SIZE && cipher.getBlockSize()%Byte.SIZE == 0;
+	}
+	
+	private static int numBytes(final SPNetwork cipher)
+	{
+		return (cipher.getBlockSize()+Byte.SIZE-1)/Byte.SIZE;
+	}
+	
+	private static int words(final int numBytes)
+	{
+		return (numBytes+Long.BYTES-1)/Long.BYTES;
+	}
+	
+	@FunctionalInterface
+	private interface ItemTask
+	{
+		void run(int index, LongSupplier random);
+	}
+}
@@ -0,0 +1,357 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Overlaps producing a {@link PairSource}'s chunks with consuming them.
+ * <br /><br />
+ * Producer threads read disjoint splits of the source and push chunks into a
+ * bounded {@link BatchRing}, while consumer threads drain it, each into
+ * state of its own. A producer that finds the ring full waits for room, so
+ * at most {@code capacity} chunks plus one per thread are ever held.
+ * <br /><br />
+ * Counters of the ring's depth and of how often each side waited on the
+ * other may be read during or after a run, to balance the thread counts: a
+ * consumer that often finds the ring empty wants more producers, and a
+ * producer that often finds it full wants more consumers.
+ * 
+ * @param <T> The chunk type of the sources this pipeline runs.
+ */
+public final class PairPipeline<T>
+{
+	public static final int DEFAULT_CAPACITY = 64;
+	
+	// How long a stalled thread parks before looking at the ring again.
+	private static final long STALL_NANOS = 20_000;
+	
+	// Splits of the source per producer, so that uneven progress between producers evens out.
+	private static final int SPLITS_PER_PRODUCER = 4;
+	
+	private final int producers;
+	private final int consumers;
+	private final int capacity;
+	
+	private final AtomicLong produced       = new AtomicLong();
+	private final AtomicLong producerStalls = new AtomicLong();
+	private final AtomicLong consumerStalls = new AtomicLong();
+	private final AtomicLong maxDepth       = new AtomicLong();
+	
+	private volatile BatchRing<T> ring;
+	private volatile boolean      cancelled;
+	
+	/**
+	 * @param producers The number of threads producing chunks.
+	 * @param consumers The number of threads consuming chunks.
+	 * @param capacity The number of chunks the ring holds, a power of two.
+	 */
+	public PairPipeline(final int producers, final int consumers, final int capacity)
+	{
+		if(producers < 1 || consumers < 1)
+			throw new IllegalArgumentException("Pipelines need at least one producer and one consumer!");
+		
+		if(capacity < 1 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Ring capacity must be a positive power of two!");
+		
+		this.producers = producers;
+		this.consumers = consumers;
+		this.capacity  = capacity;
+	}
+	
+	/**
+	 * A pipeline sized to the machine. Consuming a chunk of pairs means
+	 * testing it under every key candidate, which costs far more than
+	 * producing it, so most threads are given to consumers.
+	 * 
+	 * @return A new pipeline.
+	 */
+	public static <T> PairPipeline<T> forProcessors()
+	{
+		int cores     = Runtime.getRuntime().availableProcessors();
+		int producers = Math.max(1, cores/4);
+		
+		return new PairPipeline<T>(producers, Math.max(1, cores-producers), DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Runs one pass over {@code source}, handing every chunk to exactly one
+	 * consumer. Counters are reset at the start of each run.
+	 * 
+	 * @param source The chunks to produce.
+	 * @param state Creates each consumer's own state.
+	 * @param consume Folds one chunk into a consumer's state.
+	 * @return The state of each consumer, once every chunk has been consumed.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting.
+	 */
+	public <A> List<A> run(final PairSource<T> source, final Supplier<A> state, final BiConsumer<A, T> consume)
+	throws InterruptedException
+	{
+		BatchRing<T> ring = new BatchRing<T>(capacity);
+		
+		this.ring = ring;
+		this.cancelled = false;
+		produced.set(0);
+		producerStalls.set(0);
+		consumerStalls.set(0);
+		maxDepth.set(0);
+		
+		Queue<Spliterator<T>>      splits    = split(source.spliterator());
+		AtomicInteger              producing = new AtomicInteger(producers);
+		AtomicReference<Throwable> failure   = new AtomicReference<Throwable>();
+		List<A>                    states    = new ArrayList<A>();
+		List<Thread>               threads   = new ArrayList<Thread>();
+		
+		for(int i=0; i<producers; i++)
+		{
+			threads.add(new Thread(() ->
+			{
+				try
+				{
+					produce(ring, splits);
+				}
+				catch(Throwable t)
+				{
+					fail(failure, t);
+				}
+				finally
+				{
+					producing.decrementAndGet();
+				}
+			}, "pair-producer-"+i));
+		}
+		
+		for(int i=0; i<consumers; i++)
+		{
+			A own = state.get();
+			states.add(own);
+			
+			threads.add(new Thread(() ->
+			{
+				try
+				{
+					consume(ring, producing, own, consume);
+				}
+				catch(Throwable t)
+				{
+					fail(failure, t);
+				}
+			}, "pair-consumer-"+i));
+		}
+		
+		for(Thread t: threads)
+		{
+			t.setDaemon(true);
+			t.start();
+		}
+		
+		try
+		{
+			for(Thread t: threads)
+				t.join();
+		}
+		catch(InterruptedException e)
+		{
+			cancel();
+			throw e;
+		}
+		
+		Throwable t = failure.get();
+		if(t instanceof RuntimeException)
+			throw (RuntimeException)t;
+		if(t instanceof Error)
+			throw (Error)t;
+		
+		return states;
+	}
+	
+	/**
+	 * Stops the current run. Producers stop at their next chunk and consumers
+	 * discard what is left in the ring.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+	
+	public boolean isCanceled()
+	{
+		return cancelled;
+	}
+	
+	private Queue<Spliterator<T>> split(final Spliterator<T> whole)
+	{
+		List<Spliterator<T>> parts = new ArrayList<Spliterator<T>>();
+		parts.add(whole);
+		
+		// Halve every part each round until there are enough, or none will split further.
+		boolean split = true;
+		while(split && parts.size() < producers*SPLITS_PER_PRODUCER)
+		{
+			split = false;
+			
+			for(int i=parts.size()-1; i>=0; i--)
+			{
+				Spliterator<T> prefix = parts.get(i).trySplit();
+				if(prefix != null)
+				{
+					parts.add(i, prefix);
+					split = true;
+				}
+			}
+		}
+		
+		return new ConcurrentLinkedQueue<Spliterator<T>>(parts);
+	}
+	
+	private void produce(final BatchRing<T> ring, final Queue<Spliterator<T>> splits)
+	{
+		Spliterator<T> part;
+		
+		while(!cancelled && (part = splits.poll()) != null)
+		{
+			boolean more = true;
+			while(more && !cancelled)
+				more = part.tryAdvance(chunk -> put(ring, chunk));
+		}
+	}
+	
+	private void put(final BatchRing<T> ring, final T chunk)
+	{
+		while(!ring.offer(chunk))
+		{
+			if(cancelled)
+				return;
+			
+			producerStalls.incrementAndGet();
+			LockSupport.parkNanos(STALL_NANOS);
+		}
+		
+		produced.incrementAndGet();
+		maxDepth.accumulateAndGet(ring.size(), Math::max);
+	}
+	
+	private <A> void consume(final BatchRing<T> ring, final AtomicInteger producing, final A own, final BiConsumer<A, T> consume)
+	{
+		while(true)
+		{
+			T chunk = ring.poll();
+			
+			if(chunk != null)
+			{
+				if(!cancelled)
+					consume.accept(own, chunk);
+				
+				continue;
+			}
+			
+			// Every offer happens before its producer finishes, so an empty ring after the last producer is final.
+			if(producing.get() == 0)
+			{
+				chunk = ring.poll();
+				if(chunk == null)
+					return;
+				
+				if(!cancelled)
+					consume.accept(own, chunk);
+				
+				continue;
+			}
+			
+			consumerStalls.incrementAndGet();
+			LockSupport.parkNanos(STALL_NANOS);
+		}
+	}
+	
+	private void fail(final AtomicReference<Throwable> failure, final Throwable t)
+	{
+		failure.compareAndSet(null, t);
+		cancel();
+	}
+	
+	public int getProducers()
+	{
+		return producers;
+	}
+	
+	public int getConsumers()
+	{
+		return consumers;
+	}
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	/**
+	 * The number of chunks waiting in the ring of the current or last run.
+	 */
+	public int getQueueDepth()
+	{
+		BatchRing<T> current = ring;
+		return (current != null) ? Math.min(current.size(), capacity) : 0;
+	}
+	
+	/**
+	 * The most chunks seen waiting at once during the current or last run.
+	 */
+	public long getMaxQueueDepth()
+	{
+		return Math.min(maxDepth.get(), capacity);
+	}
+	
+	public long getChunksProduced()
+	{
+		return produced.get();
+	}
+	
+	/**
+	 * How many times a producer found the ring full and waited.
+	 */
+	public long getProducerStalls()
+	{
+		return producerStalls.get();
+	}
+	
+	/**
+	 * How many times a consumer found the ring empty and waited.
+	 */
+	public long getConsumerStalls()
+	{
+		return consumerStalls.get();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format("PairPipeline[%d producers, %d consumers, depth %d/%d (max %d), %d chunks, %d producer stalls, %d consumer stalls]",
+				producers, consumers, getQueueDepth(), capacity, getMaxQueueDepth(),
+				getChunksProduced(), getProducerStalls(), getConsumerStalls());
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A sequence of known or chosen pairs that is read in chunks rather than held
+ * all at once, so that the number of pairs is bounded by time rather than by
+ * heap.
+ * <br /><br />
+ * Chunks are {@link KnownPairBlock}s or {@link ChosenPairBlock}s of at most
+ * {@value #CHUNK_SIZE} pairs, starting at multiples of {@value #CHUNK_SIZE}.
+ * A source's spliterator splits between chunks, so chunks may be consumed in
+ * parallel; each call to {@link #spliterator()} begins a fresh pass.
+ * 
+ * @param <T> The chunk type, {@link KnownPairBlock} or {@link ChosenPairBlock}.
+ */
+public interface PairSource<T>
+{
+	int CHUNK_SIZE = PairGenerator.STREAM_LENGTH;
+	
+	int getBlockSize();
+	
+	/**
+	 * The total number of pairs in one pass.
+	 */
+	long size();
+	
+	Spliterator<T> spliterator();
+	
+	default Stream<T> chunks(final boolean parallel)
+	{
+		return StreamSupport.stream(spliterator(), parallel);
+	}
+	
+	/**
+	 * A source over a store's columns, in memory or mapped, whose chunks are
+	 * views of the store rather than copies.
+	 * 
+	 * @param pairs The store to read.
+	 * @return A source of the store's pairs.
+	 */
+	static PairSource<KnownPairBlock> of(final KnownPairBlock pairs)
+	{
+		return new ChunkedPairSource<KnownPairBlock>(pairs.getBlockSize(), pairs.size(),
+				(from, to) -> pairs.slice((int)from, (int)to));
+	}
+	
+	static PairSource<ChosenPairBlock> of(final ChosenPairBlock pairs)
+	{
+		return new ChunkedPairSource<ChosenPairBlock>(pairs.getBlockSize(), pairs.size(),
+				(from, to) -> pairs.slice((int)from, (int)to));
+	}
+	
+	/**
+	 * A source that generates and encrypts each chunk as it is read. Every
+	 * pass yields the same pairs as {@link PairGenerator#generateKnown(int, EncryptionOracle)}
+	 * with the same seed would, but at most one chunk per consuming thread is
+	 * ever held.
+	 * 
+	 * @param cipher The oracle through which to encrypt the pairs.
+	 * @param count The number of pairs.
+	 * @param seed The seed from which every pair is derived.
+	 * @return A source of generated pairs.
+	 */
+	static PairSource<KnownPairBlock> generateKnown(final EncryptionOracle cipher, final long count, final long seed)
+	{
+		PairGenerator generator = new PairGenerator(RandomSource.xoshiro(seed), ChunkedPairSource.INLINE);
+		
+		return new ChunkedPairSource<KnownPairBlock>(cipher.getBlockSize(), count,
+				(from, to) -> generator.populate(KnownPairBlock.allocate((int)(to-from), cipher.getBlockSize()), cipher, from));
+	}
+	
+	/**
+	 * As {@link #generateKnown(EncryptionOracle, long, long)}, for chosen pairs.
+	 */
+	static PairSource<ChosenPairBlock> generateChosen(final EncryptionOracle cipher, final long count, final long diffMask, final long seed)
+	{
+		PairGenerator generator = new PairGenerator(RandomSource.xoshiro(seed), ChunkedPairSource.INLINE);
+		
+		return new ChunkedPairSource<ChosenPairBlock>(cipher.getBlockSize(), count,
+				(from, to) -> generator.populate(ChosenPairBlock.allocate((int)(to-from), cipher.getBlockSize()), diffMask, cipher, from));
+	}
+}
@@ -17,6 +17,7 @@
  */
 package net.mjcarpenter.maledict.crypto.spn;
 
+import java.util.Arrays;
 import java.util.BitSet;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -39,7 +40,11 @@ public final class Permutation implements SPNComponent
 	private final boolean noop;
 	
 	// Derived transient fields.
-	private transient int[] reverse;
+	private transient int[]  reverse;
+	private transient long[] stageMasks;
+	private transient int[]  stageShifts;
+	private transient long[] laneFwd;
+	private transient long[] laneRev;
 	
 	public Permutation(final int... mapping)
 	{
@@ -51,6 +56,7 @@ public final class Permutation implements SPNComponent
 		this.noop = noop;
 		this.mapping = mapping;
 		this.reverse = constructReverse();
+		constructNetwork();
 	}
 	
 	public static Permutation noop(final int length)
@@ -73,26 +79,113 @@ public final class Permutation implements SPNComponent
 	
 	public long permuteFwd(long in)
 	{
-		return permute(in, mapping);
+		if(stageMasks == null)
+			return permute(in, mapping);
+		
+		long out = in&blockMask();
+		for(int s=0; s<stageMasks.length; s++)
+		{
+			out = deltaSwap(out, stageMasks[s], stageShifts[s]);
+		}
+		
+		return out;
 	}
 	
 	public long permuteRev(long in)
 	{
-		return permute(in, reverse);
+		if(stageMasks == null)
+			return permute(in, reverse);
+		
+		// Every stage is its own inverse, so running them backwards undoes the permutation.
+		long out = in&blockMask();
+		for(int s=stageMasks.length-1; s>=0; s--)
+		{
+			out = deltaSwap(out, stageMasks[s], stageShifts[s]);
+		}
+		
+		return out;
+	}
+	
+	public Block permuteFwd(final Block in)
+	{
+		if(stageMasks != null)
+			return Block.valueOf(permuteFwd(in.longValue()), in.bitSize());
+		
+		long[] out = new long[in.numLanes()];
+		permuteFwd(in.lanes(), out);
+		return Block.wrap(in.bitSize(), out);
+	}
+	
+	public Block permuteRev(final Block in)
+	{
+		if(stageMasks != null)
+			return Block.valueOf(permuteRev(in.longValue()), in.bitSize());
+		
+		long[] out = new long[in.numLanes()];
+		permuteRev(in.lanes(), out);
+		return Block.wrap(in.bitSize(), out);
+	}
+	
+	/**
+	 * Permutes a block held in 64-bit lanes, least significant lane first.
+	 * Only available for permutations wider than 64 bits.
+	 * 
+	 * @param in The lanes to permute.
+	 * @param out The array to receive the permuted lanes; must not be {@code in}.
+	 */
+	void permuteFwd(final long[] in, final long[] out)
+	{
+		permuteLanes(in, out, laneFwd);
+	}
+	
+	void permuteRev(final long[] in, final long[] out)
+	{
+		permuteLanes(in, out, laneRev);
+	}
+	
+	private void permuteLanes(final long[] in, final long[] out, final long[] table)
+	{
+		int lanes = out.length;
+		for(int l=0; l<lanes; l++)
+			out[l] = 0;
+		
+		// Each input byte selects a precomputed row holding where its set bits land.
+		for(int j=0; j<(mapping.length+Byte.SIZE-1)/Byte.SIZE; j++)
+		{
+			int x = (int)(in[j>>>3]>>>((j&0x7)*Byte.SIZE))&0xFF;
+			if(x == 0)
+				continue;
+			
+			int row = ((j<<Byte.SIZE)|x)*lanes;
+			for(int l=0; l<lanes; l++)
+				out[l] ^= table[row+l];
+		}
 	}
 	
 	private long permute(long in, final int[] map)
 	{
-		byte[] convertIn  = BitUtils.longToByte(in, map.length/Byte.SIZE);
-		byte[] convertOut = permute(convertIn, map);
+		long out = 0;
 		
-		ArrayUtils.reverse(convertOut);
+		for(int i=0; i<map.length; i++)
+		{
+			out |= ((in>>>i)&0x1L)<<map[i];
+		}
 		
-		return BitUtils.byteToLong(convertOut);
+		return out;
 	}
 	
 	public byte[] permuteFwd(final byte[] in)
 	{
+		if(stageMasks != null)
+		{
+			validateLength(in);
+			return BitUtils.longToByte(permuteFwd(BitUtils.byteToLong(in)), in.length);
+		}
+		else if(laneFwd != null && in.length*Byte.SIZE == mapping.length)
+		{
+			return permuteFwd(Block.valueOf(in)).toByteArray();
+		}
+		
 		byte[] out = permute(in, mapping);
 		ArrayUtils.reverse(out);
 		return out;
@@ -100,18 +193,35 @@ public final class Permutation implements SPNComponent
 	
 	public byte[] permuteRev(final byte[] in)
 	{
+		if(stageMasks != null)
+		{
+			validateLength(in);
+			return BitUtils.longToByte(permuteRev(BitUtils.byteToLong(in)), in.length);
+		}
+		else if(laneRev != null && in.length*Byte.SIZE == mapping.length)
+		{
+			return permuteRev(Block.valueOf(in)).toByteArray();
+		}
+		
 		byte[] out = permute(in, reverse);
 		ArrayUtils.reverse(out);
 		return out;
 	}
 	
+	private void validateLength(final byte[] in)
+	{
+		if(in.length*Byte.SIZE != mapping.length)
+			throw new IllegalArgumentException("Input length must match permutation size! Found "+in.length*Byte.SIZE+" but expected "+mapping.length+"!");
+	}
+	
 	private byte[] permute(final byte[] in, final int[] map)
 	{
-		if(in.length*Byte.SIZE != map.length)
-			throw new IllegalArgumentException("Input length must match permutation size! Found "+in.length*Byte.SIZE+" but expected "+map.length+"!");
+		validateLength(in);
 		
-		ArrayUtils.reverse(in);
-		BitSet set = BitSet.valueOf(in);
+		// Reverse a copy so the caller's array is left untouched.
+		byte[] reversed = Arrays.copyOf(in, in.length);
+		ArrayUtils.reverse(reversed);
+		BitSet set = BitSet.valueOf(reversed);
 		BitSet out = new BitSet(map.length);
 		
 		for(int i=0; i<map.length; i++)
@@ -158,10 +268,173 @@ public final class Permutation implements SPNComponent
 		return revMap;
 	}
 	
+	/**
+	 * Compiles the mapping into a Benes network of delta-swap stages.
+	 * <br /><br />
+	 * A permutation of {@code n} bits, padded with fixed points up to the next
+	 * power of two {@code 2^k}, is routed through {@code 2k-1} stages that each
+	 * conditionally swap bit pairs a fixed distance apart. Stages that swap
+	 * nothing are dropped, so a no-op permutation compiles to no stages at all.
+	 * Permutations wider than 64 bits instead get lane tables from
+	 * {@link #constructLaneTables(int[])}.
+	 */
+	private void constructNetwork()
+	{
+		if(mapping.length > Long.SIZE)
+		{
+			this.stageMasks  = null;
+			this.stageShifts = null;
+			this.laneFwd = constructLaneTables(mapping);
+			this.laneRev = constructLaneTables(reverse);
+			return;
+		}
+		
+		this.laneFwd = null;
+		this.laneRev = null;
+		
+		int size = 2;
+		while(size < mapping.length)
+			size <<= 1;
+		
+		int levels = Integer.numberOfTrailingZeros(size);
+		int[] padded = new int[size];
+		for(int i=0; i<size; i++)
+			padded[i] = (i < mapping.length) ? mapping[i] : i;
+		
+		long[] masks = new long[2*levels-1];
+		routeNetwork(padded, 0, 0, levels, masks);
+		
+		int used = 0;
+		for(long each: masks)
+			used += (each != 0) ? 1 : 0;
+		
+		this.stageMasks  = new long[used];
+		this.stageShifts = new int[used];
+		
+		for(int s=0, idx=0; s<masks.length; s++)
+		{
+			if(masks[s] != 0)
+			{
+				int level = (s < levels) ? s : 2*levels-2-s;
+				stageMasks[idx]  = masks[s];
+				stageShifts[idx] = size>>>(level+1);
+				idx++;
+			}
+		}
+	}
+	
+	/**
+	 * Routes one sub-network of a Benes network with the looping algorithm.
+	 * Each element is assigned to the upper or lower half so that no input or
+	 * output switch sends both of its elements the same way, and the halves
+	 * are then routed recursively.
+	 */
+	private static void routeNetwork(final int[] perm, final int offset, final int level, final int levels, final long[] masks)
+	{
+		int half = perm.length>>>1;
+		
+		if(half == 1)
+		{
+			if(perm[0] == 1)
+				masks[levels-1] |= 1L<<offset;
+			return;
+		}
+		
+		int[] inv  = new int[perm.length];
+		int[] side = new int[perm.length];
+		for(int i=0; i<perm.length; i++)
+		{
+			inv[perm[i]] = i;
+			side[i] = -1;
+		}
+		
+		for(int start=0; start<perm.length; start++)
+		{
+			for(int i=start; side[i] == -1; i=inv[perm[i^half]^half])
+			{
+				side[i] = 0;
+				side[i^half] = 1;
+			}
+		}
+		
+		int[] upper = new int[half];
+		int[] lower = new int[half];
+		
+		for(int i=0; i<perm.length; i++)
+		{
+			if(side[i] == 0)
+				upper[i&(half-1)] = perm[i]&(half-1);
+			else
+				lower[i&(half-1)] = perm[i]&(half-1);
+			
+			if(side[i] == 1 && i < half)
+				masks[level] |= 1L<<(offset+i);
+			
+			if(side[i] == 1 && perm[i] < half)
+				masks[2*levels-2-level] |= 1L<<(offset+perm[i]);
+		}
+		
+		routeNetwork(upper, offset, level+1, levels, masks);
+		routeNetwork(lower, offset+half, level+1, levels, masks);
+	}
+	
+	/**
+	 * Builds one row per input byte position and byte value, holding the
+	 * lanes that byte's set bits are sent to. A multi-lane permutation is then
+	 * one row lookup and one {@code XOR} per lane for every non-zero input byte.
+	 */
+	private static long[] constructLaneTables(final int[] map)
+	{
+		int numBytes = (map.length+Byte.SIZE-1)/Byte.SIZE;
+		int lanes    = Block.lanesFor(map.length);
+		long[] table = new long[(numBytes<<Byte.SIZE)*lanes];
+		
+		for(int i=0; i<map.length; i++)
+		{
+			int  j   = i/Byte.SIZE;
+			int  bit = i%Byte.SIZE;
+			int  l   = map[i]>>>6;
+			long set = 1L<<(map[i]&0x3F);
+			
+			for(int x=1<<bit; x<(1<<Byte.SIZE); x=(x+1)|(1<<bit))
+			{
+				table[((j<<Byte.SIZE)|x)*lanes+l] |= set;
+			}
+		}
+		
+		return table;
+	}
+	
+	private static long deltaSwap(final long in, final long mask, final int shift)
+	{
+		long t = ((in>>>shift)^in)&mask;
+		return in^t^(t<<shift);
+	}
+	
+	/**
+	 * The masks of the compiled delta-swap stages, in forward order, or
+	 * {@code null} for permutations wider than 64 bits.
+	 */
+	long[] stageMasks()
+	{
+		return (stageMasks != null) ? Arrays.copyOf(stageMasks, stageMasks.length) : null;
+	}
+	
+	int[] stageShifts()
+	{
+		return (stageShifts != null) ? Arrays.copyOf(stageShifts, stageShifts.length) : null;
+	}
+	
+	private long blockMask()
+	{
+		return (mapping.length == Long.SIZE) ? -1L : (1L<<mapping.length)-1;
+	}
+	
 	private Object readResolve()
 	{
 		// Reconstruct derivable transient fields during deserialization.
 		this.reverse = constructReverse();
+		constructNetwork();
 		return this;
 	}
 
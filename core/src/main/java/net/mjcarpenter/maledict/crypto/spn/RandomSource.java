@@ -0,0 +1,78 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.security.SecureRandom;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * A family of independent random streams, numbered from zero, from which a
+ * {@link PairGenerator} draws plaintexts.
+ * <br /><br />
+ * A seeded source returns the same stream for the same number every time it
+ * is asked, which is what lets a generator give the same corpus for the same
+ * seed however its work is divided between threads.
+ */
+@FunctionalInterface
+public interface RandomSource
+{
+	/**
+	 * Opens a stream. The returned supplier is used by one thread only.
+	 * 
+	 * @param index The number of the stream.
+	 * @return The stream's sequence of random longs.
+	 */
+	LongSupplier stream(long index);
+	
+	/**
+	 * The default source: a xoshiro256** generator per stream, with each
+	 * stream's state derived from the seed and the stream number.
+	 * 
+	 * @param seed The seed of the whole family.
+	 * @return A reproducible source.
+	 */
+	static RandomSource xoshiro(final long seed)
+	{
+		return index -> new Xoshiro256(Xoshiro256.mix(seed, index));
+	}
+	
+	/**
+	 * A source of {@link SplittableRandom} streams, with each stream's seed
+	 * derived from the seed and the stream number.
+	 * 
+	 * @param seed The seed of the whole family.
+	 * @return A reproducible source.
+	 */
+	static RandomSource splittable(final long seed)
+	{
+		return index -> new SplittableRandom(Xoshiro256.mix(seed, index))::nextLong;
+	}
+	
+	/**
+	 * A source of which every stream draws from one shared {@link SecureRandom}.
+	 * It is far slower than the seeded sources and never reproducible.
+	 * 
+	 * @return An unpredictable source.
+	 */
+	static RandomSource secure()
+	{
+		SecureRandom random = new SecureRandom();
+		return index -> random::nextLong;
+	}
+}
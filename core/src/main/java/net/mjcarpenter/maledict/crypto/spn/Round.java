@@ -43,6 +43,9 @@ public class Round implements SPNComponent
 	@XStreamAlias("perm")
 	private final Permutation perm;
 	
+	// Derived transient fields.
+	private transient int[][] inverseLayer;
+	
 	public Round(final int bitLength, final Key subKey, final Permutation perm, final SBox... roundBoxes)
 	{
 		this(false, bitLength, subKey, perm, roundBoxes);
@@ -72,6 +75,8 @@ public class Round implements SPNComponent
 		this.roundBoxes = roundBoxes;
 		this.subKey     = subKey;
 		this.perm       = perm;
+		
+		this.inverseLayer = constructInverseLayer();
 	}
 	
 	public static Round noop(int bitLength, int numBoxes)
@@ -142,16 +147,117 @@ public class Round implements SPNComponent
 		for(int i=0; i<roundBoxes.length; i++)
 		{
 			BitSet subSet = set.get(i*roundBoxes[i].bitSize(), (i+1)*roundBoxes[i].bitSize());
-			int subPart = (subSet.toByteArray().length > 0) ? (int)subSet.toByteArray()[0] : 0;
-			long outPart = roundBoxes[i].sub(subPart)<<(i*roundBoxes[i].bitSize());
-			subSet = BitSet.valueOf(new long[]{outPart});
-			outSet.or(subSet);
+			int subPart = (subSet.length() > 0) ? (int)subSet.toLongArray()[0] : 0;
+			placeBits(outSet, roundBoxes[i].sub(subPart), i*roundBoxes[i].bitSize(), roundBoxes[i].bitSize());
 		}
 		
 		byte[] osbytes = BitUtils.convertBitSetToByte(outSet, in.length);
 	    return perm.permuteFwd(osbytes);
 	}
 	
+	public long processLong(final long in)
+	{
+		int  numBytes = bitLength/Byte.SIZE;
+		long state    = BitUtils.reverseBytes(subKey.xor(in), numBytes);
+		long out      = 0;
+		
+		for(int i=0; i<roundBoxes.length; i++)
+		{
+			int  bits    = roundBoxes[i].bitSize();
+			int  subPart = (int)((state>>>(i*bits))&((1L<<bits)-1));
+			out |= ((long)roundBoxes[i].sub(subPart))<<(i*bits);
+		}
+		
+		return perm.permuteFwd(BitUtils.reverseBytes(out, numBytes));
+	}
+	
+	public long invertLong(final long in)
+	{
+		int  numBytes = bitLength/Byte.SIZE;
+		long state    = BitUtils.reverseBytes(perm.permuteRev(in), numBytes);
+		long out      = 0;
+		
+		for(int i=0; i<roundBoxes.length; i++)
+		{
+			int  bits    = roundBoxes[i].bitSize();
+			int  subPart = (int)((state>>>(i*bits))&((1L<<bits)-1));
+			out |= ((long)inverseLayer[i][subPart])<<(i*bits);
+		}
+		
+		return subKey.xor(BitUtils.reverseBytes(out, numBytes));
+	}
+	
+	public Block process(final Block in)
+	{
+		if(bitLength <= Long.SIZE)
+			return Block.valueOf(processLong(in.longValue()), bitLength);
+		
+		long[] state = in.lanes();
+		processLanes(state, new long[state.length]);
+		return Block.wrap(bitLength, state);
+	}
+	
+	public Block invert(final Block in)
+	{
+		if(bitLength <= Long.SIZE)
+			return Block.valueOf(invertLong(in.longValue()), bitLength);
+		
+		long[] state = in.lanes();
+		invertLanes(state, new long[state.length]);
+		return Block.wrap(bitLength, state);
+	}
+	
+	/**
+	 * Runs the round in place over a block wider than 64 bits held in lanes,
+	 * least significant lane first. The two arrays take turns as source and
+	 * destination, so nothing is allocated.
+	 * 
+	 * @param state The block to process; holds the result on return.
+	 * @param scratch Working space of the same length as {@code state}.
+	 */
+	void processLanes(final long[] state, final long[] scratch)
+	{
+		int numBytes = bitLength/Byte.SIZE;
+		Block key = subKey.blockValue();
+		
+		for(int l=0; l<state.length; l++)
+			state[l] ^= key.lane(l);
+		
+		BitUtils.reverseBytes(state, scratch, numBytes);
+		substituteLanes(scratch, state, false);
+		BitUtils.reverseBytes(state, scratch, numBytes);
+		perm.permuteFwd(scratch, state);
+	}
+	
+	void invertLanes(final long[] state, final long[] scratch)
+	{
+		int numBytes = bitLength/Byte.SIZE;
+		Block key = subKey.blockValue();
+		
+		perm.permuteRev(state, scratch);
+		BitUtils.reverseBytes(scratch, state, numBytes);
+		substituteLanes(state, scratch, true);
+		BitUtils.reverseBytes(scratch, state, numBytes);
+		
+		for(int l=0; l<state.length; l++)
+			state[l] ^= key.lane(l);
+	}
+	
+	private void substituteLanes(final long[] in, final long[] out, final boolean inverse)
+	{
+		for(int l=0; l<out.length; l++)
+			out[l] = 0;
+		
+		for(int i=0; i<roundBoxes.length; i++)
+		{
+			int bits    = roundBoxes[i].bitSize();
+			int subPart = (int)Block.extract(in, i*bits, bits);
+			int subbed  = inverse ? inverseLayer[i][subPart] : roundBoxes[i].sub(subPart);
+			
+			Block.deposit(out, i*bits, bits, subbed);
+		}
+	}
+	
 	public byte[] invert(final byte[] in)
 	{
 		BitSet set = BitSet.valueOf(perm.permuteRev(in));
@@ -160,15 +266,42 @@ public class Round implements SPNComponent
 		for(int i=0; i<roundBoxes.length; i++)
 		{
 			BitSet subSet = set.get(i*roundBoxes[i].bitSize(), (i+1)*roundBoxes[i].bitSize());
-			int subPart = (subSet.toByteArray().length > 0) ? (int)subSet.toByteArray()[0] : 0;
-			long outPart = roundBoxes[i].invert().sub(subPart)<<(i*roundBoxes[i].bitSize());
-			subSet = BitSet.valueOf(new long[]{outPart});
-			outSet.or(subSet);
+			int subPart = (subSet.length() > 0) ? (int)subSet.toLongArray()[0] : 0;
+			placeBits(outSet, inverseLayer[i][subPart], i*roundBoxes[i].bitSize(), roundBoxes[i].bitSize());
 		}
 		
 		byte[] osbytes = BitUtils.convertBitSetToByte(outSet, in.length);
 		return subKey.xor(osbytes);
 	}
+	
+	private int[][] constructInverseLayer()
+	{
+		// Shares each box's cached inverse mapping; nothing is copied or rebuilt.
+		int[][] layer = new int[roundBoxes.length][];
+		for(int i=0; i<roundBoxes.length; i++)
+		{
+			layer[i] = roundBoxes[i].reverseMapping();
+		}
+		
+		return layer;
+	}
+	
+	private Object readResolve()
+	{
+		// Reconstruct derivable transient fields during deserialization.
+		this.inverseLayer = constructInverseLayer();
+		return this;
+	}
+	
+	private static void placeBits(BitSet outSet, int value, int offset, int width)
+	{
+		// Set bits individually; shifting into a long overflows past bit 63.
+		for(int j=0; j<width; j++)
+		{
+			if(((value>>>j)&0x1) != 0)
+				outSet.set(offset+j);
+		}
+	}
 
 	@Override
 	public boolean isNoop()
@@ -0,0 +1,36 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+/**
+ * Applies one {@link Round} to a run of blocks at once, layer by layer,
+ * with results identical to {@link Round#processLong(long)} and
+ * {@link Round#invertLong(long)} on each block.
+ */
+interface RoundBatch
+{
+	/**
+	 * Encrypts {@code blocks[from]} to {@code blocks[to-1]} through the round in place.
+	 */
+	void process(long[] blocks, int from, int to);
+	
+	/**
+	 * Decrypts {@code blocks[from]} to {@code blocks[to-1]} through the round in place.
+	 */
+	void invert(long[] blocks, int from, int to);
+}
@@ -0,0 +1,42 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+/**
+ * Chooses a {@link RoundBatch} engine for a round.
+ * <br /><br />
+ * This is the Java 8 version, which has no batch engines, so every round
+ * runs through the scalar paths. The multi-release JAR carries a Java 17
+ * version under {@code META-INF/versions/17} that uses the vector API when
+ * it is available.
+ */
+final class RoundBatches
+{
+	private RoundBatches()
+	{
+	}
+	
+	/**
+	 * @param round The round to batch.
+	 * @return A batch engine for the round, or {@code null} if the scalar path should be used.
+	 */
+	static RoundBatch forRound(final Round round)
+	{
+		return null;
+	}
+}
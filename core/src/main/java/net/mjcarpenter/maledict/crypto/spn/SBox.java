@@ -37,6 +37,8 @@ public final class SBox implements SPNComponent
 	private final boolean noop;
 	
 	// Derived transient fields.
+	private transient int[]   mapRev;
+	private transient SBox    inverse;
 	private transient int[][] lat;
 	private transient int[][] ddt;
 	
@@ -50,25 +52,32 @@ public final class SBox implements SPNComponent
 		if(BitUtils.countSetBits(mapFwd.length) != 1) // Only one bit set == power of two
 			throw new IllegalArgumentException("SBox size must be power of two!");
 		
+		// Every output appears exactly once iff no output is out of range or repeated.
+		boolean[] seen = new boolean[mapFwd.length];
 		for(int i=0; i<mapFwd.length; i++)
 		{
-			boolean contains = false;
-			
-			for(int j=0; j<mapFwd.length; j++)
-			{
-				contains |= (mapFwd[j] == i);
-				if(contains) break;
-			}
-			
-			if(!contains)
+			if(mapFwd[i] < 0 || mapFwd[i] >= mapFwd.length || seen[mapFwd[i]])
 				throw new IllegalArgumentException(VALIDATION_INDICES);
+			
+			seen[mapFwd[i]] = true;
 		}
 		
-		
 		this.mapFwd = mapFwd;
 		this.noop = noop;
-		this.lat = constructLAT();
-		this.ddt = constructDDT();
+		this.mapRev = constructReverse();
+		
+		// LAT and DDT are built on first use; most boxes are only ever substituted through.
+		this.lat = null;
+		this.ddt = null;
+	}
+	
+	private SBox(final SBox forward)
+	{
+		// Inverse of an already-validated box, so validation is skipped.
+		this.mapFwd  = forward.mapRev;
+		this.mapRev  = forward.mapFwd;
+		this.noop    = false;
+		this.inverse = forward;
 	}
 	
 	public static SBox noop(final int length)
@@ -82,21 +91,12 @@ public final class SBox implements SPNComponent
 	
 	public SBox invert()
 	{
-		int[] reverse = new int[mapFwd.length];
-		
-		for(int i=0; i<mapFwd.length; i++)
+		if(inverse == null)
 		{
-			for(int j=0; j<mapFwd.length; j++)
-			{
-				if(mapFwd[j] == i)
-				{
-					reverse[i] = j;
-					break;
-				}
-			}
+			inverse = new SBox(this);
 		}
 		
-		return new SBox(reverse);
+		return inverse;
 	}
 	
 	/**
@@ -116,6 +116,19 @@ public final class SBox implements SPNComponent
 			return mapFwd[n];
 	}
 	
+	int[] reverseMapping()
+	{
+		return mapRev;
+	}
+	
+	public int subInverse(final int n)
+	{
+		if(n >= mapRev.length || n < 0)
+			throw new IllegalArgumentException("Invalid index " + n);
+		else
+			return mapRev[n];
+	}
+	
 	public int[][] getLAT()
 	{
 		if(lat == null)
@@ -136,6 +149,18 @@ public final class SBox implements SPNComponent
 		return Arrays.copyOf(ddt, ddt.length);
 	}
 	
+	private int[] constructReverse()
+	{
+		int[] reverse = new int[mapFwd.length];
+		
+		for(int i=0; i<mapFwd.length; i++)
+		{
+			reverse[mapFwd[i]] = i;
+		}
+		
+		return reverse;
+	}
+	
 	private int[][] constructLAT()
 	{
 		int[][] lat = new int[mapFwd.length][mapFwd.length];
@@ -172,8 +197,7 @@ public final class SBox implements SPNComponent
 	private Object readResolve()
 	{
 		// Reconstruct derivable transient fields during deserialization.
-		this.lat = constructLAT();
-		this.ddt = constructDDT();
+		this.mapRev = constructReverse();
 		
 		return this;
 	}
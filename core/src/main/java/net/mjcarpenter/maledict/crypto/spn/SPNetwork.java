@@ -17,16 +17,25 @@
  */
 package net.mjcarpenter.maledict.crypto.spn;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
 
 import net.mjcarpenter.maledict.util.BitUtils;
+
 @SuppressWarnings("serial")
 @XStreamAlias("spn")
-public final class SPNetwork implements SPNComponent
+public final class SPNetwork implements SPNComponent, LongBlockCipher
 {
 	@XStreamAsAttribute
 	private final int blockSize;
@@ -38,6 +47,12 @@ public final class SPNetwork implements SPNComponent
 	@XStreamImplicit
 	private final Round[] rounds;
 	
+	// Derived transient fields.
+	private transient volatile Engines engines;
+	
+	// Codebook mode is a runtime setting and is not serialized.
+	private transient volatile boolean codebookEnabled;
+	private transient volatile Path    codebookDirectory;
 	
 	public SPNetwork(final int blockSize, final Round[] rounds)
 	{
@@ -87,6 +102,9 @@ public final class SPNetwork implements SPNComponent
 	
 	public byte[] encrypt(final byte[] in)
 	{
+		if(codebookEnabled && in.length*Byte.SIZE == blockSize)
+			return BitUtils.longToByte(codebook().encrypt(BitUtils.byteToLong(in)), in.length);
+		
 		byte[] out = Arrays.copyOf(in, in.length);
 		
 		for(int i=0; i<rounds.length; i++)
@@ -99,6 +117,9 @@ public final class SPNetwork implements SPNComponent
 	
 	public byte[] decrypt(final byte[] in)
 	{
+		if(codebookEnabled && in.length*Byte.SIZE == blockSize)
+			return BitUtils.longToByte(codebook().decrypt(BitUtils.byteToLong(in)), in.length);
+		
 		byte[] out = Arrays.copyOf(in, in.length);
 		
 		for(int i=rounds.length-1; i>=0; i--)
@@ -109,20 +130,449 @@ public final class SPNetwork implements SPNComponent
 		return out;
 	}
 	
+	@Override
 	public long encrypt(final long in)
 	{
-		byte[] inByte = BitUtils.longToByte(in, blockSize/Byte.SIZE);
-		byte[] res = encrypt(inByte);
-		return BitUtils.byteToLong(res);
+		if(codebookEnabled)
+			return codebook().encrypt(in);
+		
+		long out = in;
+		
+		for(int i=0; i<rounds.length; i++)
+		{
+			out = rounds[i].processLong(out);
+		}
+		
+		return out;
 	}
 	
+	@Override
 	public long decrypt(final long in)
 	{
-		byte[] inByte = BitUtils.longToByte(in, blockSize/Byte.SIZE);
-		byte[] res = decrypt(inByte);
-		return BitUtils.byteToLong(res);
+		if(codebookEnabled)
+			return codebook().decrypt(in);
+		
+		long out = in;
+		
+		for(int i=rounds.length-1; i>=0; i--)
+		{
+			out = rounds[i].invertLong(out);
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Encrypts a block of any width. Blocks of at most 64 bits take the
+	 * {@link #encrypt(long)} path; wider blocks are processed in place as
+	 * 64-bit lanes, allocating only the result.
+	 * 
+	 * @param in The plaintext block.
+	 * @return The ciphertext block.
+	 */
+	public Block encrypt(final Block in)
+	{
+		if(blockSize <= Long.SIZE)
+			return Block.valueOf(encrypt(in.longValue()), blockSize);
+		
+		long[] state   = in.lanes();
+		long[] scratch = new long[state.length];
+		
+		for(int i=0; i<rounds.length; i++)
+		{
+			rounds[i].processLanes(state, scratch);
+		}
+		
+		return Block.wrap(blockSize, state);
+	}
+	
+	public Block decrypt(final Block in)
+	{
+		if(blockSize <= Long.SIZE)
+			return Block.valueOf(decrypt(in.longValue()), blockSize);
+		
+		long[] state   = in.lanes();
+		long[] scratch = new long[state.length];
+		
+		for(int i=rounds.length-1; i>=0; i--)
+		{
+			rounds[i].invertLanes(state, scratch);
+		}
+		
+		return Block.wrap(blockSize, state);
+	}
+	
+	public void encryptAll(final long[] in, final long[] out)
+	{
+		encryptAll(in, out, BatchExecutor.getDefault());
+	}
+	
+	/**
+	 * Encrypts every block in {@code in} into the same index of {@code out},
+	 * splitting large batches across the given executor. Results are identical
+	 * to calling {@link #encrypt(long)} on each block in turn.
+	 * 
+	 * @param in The plaintext blocks.
+	 * @param out The array to receive the ciphertexts; may be {@code in}.
+	 * @param executor The executor across which to split the batch.
+	 */
+	public void encryptAll(final long[] in, final long[] out, final BatchExecutor executor)
+	{
+		validateBatch(in.length, out.length);
+		RoundBatch[] layers = batchLayers();
+		
+		if(layers != null)
+		{
+			executor.run(in.length, (from, to) ->
+			{
+				System.arraycopy(in, from, out, from, to-from);
+				for(int r=0; r<layers.length; r++)
+					layers[r].process(out, from, to);
+			});
+			return;
+		}
+		
+		BitslicedSPNetwork sliced = batchBitsliced(in.length);
+		if(sliced != null)
+		{
+			executor.run(in.length, (from, to) -> sliced.process(in, out, from, to, true));
+			return;
+		}
+		
+		LongBlockCipher engine = batchEngine();
+		
+		executor.run(in.length, (from, to) ->
+		{
+			for(int i=from; i<to; i++)
+				out[i] = engine.encrypt(in[i]);
+		});
+	}
+	
+	public void decryptAll(final long[] in, final long[] out)
+	{
+		decryptAll(in, out, BatchExecutor.getDefault());
+	}
+	
+	public void decryptAll(final long[] in, final long[] out, final BatchExecutor executor)
+	{
+		validateBatch(in.length, out.length);
+		RoundBatch[] layers = batchLayers();
+		
+		if(layers != null)
+		{
+			executor.run(in.length, (from, to) ->
+			{
+				System.arraycopy(in, from, out, from, to-from);
+				for(int r=layers.length-1; r>=0; r--)
+					layers[r].invert(out, from, to);
+			});
+			return;
+		}
+		
+		BitslicedSPNetwork sliced = batchBitsliced(in.length);
+		if(sliced != null)
+		{
+			executor.run(in.length, (from, to) -> sliced.process(in, out, from, to, false));
+			return;
+		}
+		
+		LongBlockCipher engine = batchEngine();
+		
+		executor.run(in.length, (from, to) ->
+		{
+			for(int i=from; i<to; i++)
+				out[i] = engine.decrypt(in[i]);
+		});
+	}
+	
+	public void encryptAll(final LongBuffer in, final LongBuffer out)
+	{
+		encryptAll(in, out, BatchExecutor.getDefault());
+	}
+	
+	/**
+	 * Encrypts the remaining blocks of {@code in} into {@code out}, as with
+	 * {@link #encryptAll(long[], long[], BatchExecutor)}. Both buffers are read and
+	 * written by absolute index, so direct buffers are never copied, and the
+	 * position of each is advanced past the blocks processed.
+	 * 
+	 * @param in The plaintext blocks.
+	 * @param out The buffer to receive the ciphertexts.
+	 * @param executor The executor across which to split the batch.
+	 */
+	@Override
+	public void encryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+	{
+		processAll(in, out, executor, true);
+	}
+	
+	public void decryptAll(final LongBuffer in, final LongBuffer out)
+	{
+		decryptAll(in, out, BatchExecutor.getDefault());
+	}
+	
+	public void decryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+	{
+		processAll(in, out, executor, false);
+	}
+	
+	private void processAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor, final boolean encrypt)
+	{
+		int count = in.remaining();
+		validateBatch(count, out.remaining());
+		
+		LongBlockCipher    engine  = batchEngine();
+		BitslicedSPNetwork sliced  = batchBitsliced(count);
+		int                inBase  = in.position();
+		int                outBase = out.position();
+		
+		executor.run(count, (from, to) ->
+		{
+			if(sliced != null)
+			{
+				sliced.process(in, inBase, out, outBase, from, to, encrypt);
+				return;
+			}
+			
+			for(int i=from; i<to; i++)
+			{
+				long block = in.get(inBase+i);
+				out.put(outBase+i, encrypt ? engine.encrypt(block) : engine.decrypt(block));
+			}
+		});
+		
+		in.position(inBase+count);
+		out.position(outBase+count);
+	}
+	
+	private void validateBatch(final int inLength, final int outLength)
+	{
+		if(blockSize > Long.SIZE)
+			throw new IllegalArgumentException("Batches of longs support block sizes of at most "+Long.SIZE+" bits!");
+		
+		if(outLength < inLength)
+			throw new IllegalArgumentException("Output must have room for at least as many blocks as input!");
+	}
+	
+	public long encryptRounds(final int from, final int to, final long in)
+	{
+		return encryptRounds(from, to, in, false);
+	}
+	
+	/**
+	 * Encrypts through rounds {@code from} (inclusive) to {@code to} (exclusive)
+	 * only, using a compiled engine for that range that is built on first use.
+	 * 
+	 * @param from The index of the first round to apply.
+	 * @param to One past the index of the last round to apply.
+	 * @param in The block entering round {@code from}.
+	 * @param skipFirstKey Whether to leave out round {@code from}'s key.
+	 * @return The block leaving round {@code to-1}.
+	 */
+	public long encryptRounds(final int from, final int to, final long in, final boolean skipFirstKey)
+	{
+		return getRoundRange(from, to, skipFirstKey).encrypt(in);
+	}
+	
+	public long decryptRounds(final int from, final int to, final long in)
+	{
+		return decryptRounds(from, to, in, false);
+	}
+	
+	/**
+	 * Decrypts back through rounds {@code to-1} down to {@code from}, the
+	 * inverse of {@link #encryptRounds(int, int, long, boolean)}. Skipping the
+	 * final key stops just short of round {@code from}'s key, which is how the
+	 * key bias extractors peel off a round before guessing its key.
+	 * 
+	 * @param from The index of the last round to undo.
+	 * @param to One past the index of the first round to undo.
+	 * @param in The block leaving round {@code to-1}.
+	 * @param skipFinalKey Whether to leave out round {@code from}'s key.
+	 * @return The block entering round {@code from}.
+	 */
+	public long decryptRounds(final int from, final int to, final long in, final boolean skipFinalKey)
+	{
+		return getRoundRange(from, to, skipFinalKey).decrypt(in);
+	}
+	
+	/**
+	 * The compiled engine for rounds {@code from} (inclusive) to {@code to}
+	 * (exclusive), for callers that run many blocks through the same range.
+	 * Engines are cached until a round is replaced.
+	 * 
+	 * @param from The index of the first round in the range.
+	 * @param to One past the index of the last round in the range.
+	 * @param skipKey Whether to leave out round {@code from}'s key, which is
+	 *        the first step of encryption and the final step of decryption.
+	 * @return A cipher over the given range of rounds.
+	 */
+	public LongBlockCipher getRoundRange(final int from, final int to, final boolean skipKey)
+	{
+		if(blockSize > Long.SIZE)
+			throw new IllegalArgumentException("Round ranges support block sizes of at most "+Long.SIZE+" bits!");
+		
+		if(from < 0 || to > rounds.length || from > to)
+			throw new IllegalArgumentException("Round range ["+from+", "+to+") is not within the "+rounds.length+" rounds of this network!");
+		
+		return engines().range(this, from, to, skipKey);
+	}
+	
+	/**
+	 * The table-driven form of this network, compiled on first use. The array
+	 * returned by {@link #getRounds()} can be written to, so the engine is
+	 * rebuilt whenever a round has been replaced since it was compiled.
+	 */
+	CompiledSPNetwork compiled()
+	{
+		return engines().compiled;
+	}
+	
+	/**
+	 * Switches to codebook mode, in which every block is encrypted or
+	 * decrypted with a single load from a precomputed {@link Codebook}. The
+	 * codebook is built now and rebuilt on next use whenever a round is replaced.
+	 * 
+	 * @throws IllegalArgumentException If the block size is wider than {@link Codebook#MAX_BLOCK_SIZE}.
+	 */
+	public void enableCodebook()
+	{
+		Codebook.validateBlockSize(blockSize);
+		
+		this.codebookDirectory = null;
+		this.codebookEnabled   = true;
+		codebook();
+	}
+	
+	/**
+	 * Switches to codebook mode as with {@link #enableCodebook()}, keeping
+	 * each codebook in {@code directory} under the name of its network's
+	 * {@link #contentDigest()}. A codebook already there is memory-mapped
+	 * rather than rebuilt.
+	 * 
+	 * @param directory The directory in which to keep codebooks.
+	 * @throws IOException If the codebook cannot be read or written.
+	 */
+	public void enableCodebook(final Path directory)
+	throws IOException
+	{
+		Codebook.validateBlockSize(blockSize);
+		
+		engines().openCodebook(this, directory);
+		
+		this.codebookDirectory = directory;
+		this.codebookEnabled   = true;
+	}
+	
+	public void disableCodebook()
+	{
+		this.codebookEnabled = false;
+	}
+	
+	public boolean isCodebookEnabled()
+	{
+		return codebookEnabled;
+	}
+	
+	/**
+	 * The codebook for the current rounds, built or mapped on first use.
+	 */
+	Codebook codebook()
+	{
+		return engines().codebook(this, codebookDirectory);
+	}
+	
+	private LongBlockCipher batchEngine()
+	{
+		return codebookEnabled ? codebook() : compiled();
+	}
+	
+	/**
+	 * Layer-at-a-time engines for every round, used for array batches when
+	 * the runtime provides them for every round and codebook mode is off.
+	 */
+	private RoundBatch[] batchLayers()
+	{
+		return codebookEnabled ? null : engines().layers;
+	}
+	
+	/**
+	 * The bitsliced engine, used for batches of at least one full slice when
+	 * it outpaces the compiled engine and codebook mode is off.
+	 */
+	private BitslicedSPNetwork batchBitsliced(final int count)
+	{
+		return (codebookEnabled || count < Long.SIZE) ? null : engines().bitsliced;
+	}
+	
+	private Engines engines()
+	{
+		Engines current = this.engines;
+		
+		if(current == null || !current.matches(rounds))
+		{
+			current = new Engines(this);
+			this.engines = current;
+		}
+		
+		return current;
+	}
+	
+	/**
+	 * A SHA-256 digest of everything that affects this network's output: the
+	 * block size and every round's key, S-boxes and permutation. Networks
+	 * with equal digests encrypt identically.
+	 * 
+	 * @return The digest as a lowercase hex string.
+	 */
+	public String contentDigest()
+	{
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to provide SHA-256.
+			throw new IllegalStateException(e);
+		}
+		
+		updateInt(md, blockSize);
+		updateInt(md, rounds.length);
+		
+		for(Round r: rounds)
+		{
+			byte[] key = r.getSubKey().getKeyValue();
+			updateInt(md, key.length);
+			md.update(key);
+			
+			updateInt(md, r.getSBoxes().length);
+			for(SBox box: r.getSBoxes())
+			{
+				updateInt(md, box.bitSize());
+				for(int x=0; x<(1<<box.bitSize()); x++)
+					updateInt(md, box.sub(x));
+			}
+			
+			updateInt(md, r.getPermutation().length());
+			for(int each: r.getPermutation().getMapping())
+				updateInt(md, each);
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		for(byte each: md.digest())
+			sb.append(String.format("%02x", each));
+		
+		return sb.toString();
+	}
+	
+	private static void updateInt(final MessageDigest md, final int value)
+	{
+		md.update(ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
 	}
 	
+	@Override
 	public int getBlockSize()
 	{
 		return this.blockSize;
@@ -138,4 +588,105 @@ public final class SPNetwork implements SPNComponent
 	{
 		return noop;
 	}
+	
+	/**
+	 * Engines derived from one snapshot of the rounds. Held in a single
+	 * volatile field so a reader always sees an engine with its own snapshot.
+	 */
+	private static final class Engines
+	{
+		private final Round[]           snapshot;
+		private final CompiledSPNetwork compiled;
+		
+		// Built only in codebook mode, and at most once per snapshot.
+		private volatile Codebook codebook;
+		
+		// Engines over sub-ranges of the rounds, keyed by bounds and key skipping.
+		private final Map<Integer, CompiledSPNetwork> ranges = new ConcurrentHashMap<Integer, CompiledSPNetwork>();
+		
+		// Null unless every round has a batch engine on this runtime.
+		private final RoundBatch[] layers;
+		
+		// Null unless bitslicing outpaces the compiled engine for these rounds.
+		private final BitslicedSPNetwork bitsliced;
+		
+		private Engines(final SPNetwork spn)
+		{
+			this.snapshot  = Arrays.copyOf(spn.rounds, spn.rounds.length);
+			this.compiled  = new CompiledSPNetwork(spn);
+			this.layers    = batchLayers(snapshot);
+			this.bitsliced = BitslicedSPNetwork.isFasterFor(spn) ? new BitslicedSPNetwork(spn) : null;
+		}
+		
+		private static RoundBatch[] batchLayers(final Round[] rounds)
+		{
+			RoundBatch[] layers = new RoundBatch[rounds.length];
+			
+			for(int r=0; r<rounds.length; r++)
+			{
+				layers[r] = RoundBatches.forRound(rounds[r]);
+				if(layers[r] == null)
+					return null;
+			}
+			
+			return layers;
+		}
+		
+		private CompiledSPNetwork range(final SPNetwork spn, final int from, final int to, final boolean skipKey)
+		{
+			if(from == 0 && to == snapshot.length && !skipKey)
+				return compiled;
+			
+			int key = ((from*(snapshot.length+1))+to)*2 + (skipKey ? 1 : 0);
+			
+			return ranges.computeIfAbsent(key, k ->
+					new CompiledSPNetwork(spn.blockSize, Arrays.copyOfRange(snapshot, from, to), skipKey));
+		}
+		
+		private Codebook codebook(final SPNetwork spn, final Path directory)
+		{
+			Codebook current = this.codebook;
+			if(current != null)
+				return current;
+			
+			synchronized(this)
+			{
+				if(this.codebook == null)
+				{
+					try
+					{
+						openCodebook(spn, directory);
+					}
+					catch(IOException e)
+					{
+						// Persistence is only a cache, so an unusable directory costs a rebuild.
+						this.codebook = Codebook.build(spn, BatchExecutor.getDefault());
+					}
+				}
+				
+				return this.codebook;
+			}
+		}
+		
+		private synchronized void openCodebook(final SPNetwork spn, final Path directory)
+		throws IOException
+		{
+			if(directory == null)
+				this.codebook = Codebook.build(spn, BatchExecutor.getDefault());
+			else
+				this.codebook = Codebook.open(spn, directory.resolve(spn.contentDigest()+".codebook"), BatchExecutor.getDefault());
+		}
+		
+		private boolean matches(final Round[] rounds)
+		{
+			// Rounds are immutable, so comparing references is enough.
+			for(int i=0; i<rounds.length; i++)
+			{
+				if(rounds[i] != snapshot[i])
+					return false;
+			}
+			
+			return true;
+		}
+	}
 }
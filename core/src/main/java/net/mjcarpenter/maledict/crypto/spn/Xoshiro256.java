@@ -0,0 +1,74 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The xoshiro256** generator of Blackman and Vigna, seeded through SplitMix64
+ * so that nearby seeds give unrelated states.
+ */
+final class Xoshiro256 implements LongSupplier
+{
+	private static final long GOLDEN_GAMMA = 0x9E37_79B9_7F4A_7C15L;
+	
+	private long s0, s1, s2, s3;
+	
+	Xoshiro256(final long seed)
+	{
+		long x = seed;
+		
+		s0 = splitMix(x += GOLDEN_GAMMA);
+		s1 = splitMix(x += GOLDEN_GAMMA);
+		s2 = splitMix(x += GOLDEN_GAMMA);
+		s3 = splitMix(x += GOLDEN_GAMMA);
+	}
+	
+	@Override
+	public long getAsLong()
+	{
+		long result = Long.rotateLeft(s1*5, 7)*9;
+		long t      = s1<<17;
+		
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3  = Long.rotateLeft(s3, 45);
+		
+		return result;
+	}
+	
+	/**
+	 * Derives the seed of one numbered stream from the seed of its family.
+	 */
+	static long mix(final long seed, final long index)
+	{
+		return splitMix(seed ^ splitMix(index*GOLDEN_GAMMA));
+	}
+	
+	private static long splitMix(final long x)
+	{
+		long z = x;
+		
+		z = (z ^ (z>>>30))*0xBF58_476D_1CE4_E5B9L;
+		z = (z ^ (z>>>27))*0x94D0_49BB_1331_11EBL;
+		return z ^ (z>>>31);
+	}
+}
@@ -90,6 +90,104 @@ public final class BitUtils
 		return out;
 	}
 	
+	/**
+	 * Reverses the order of the lowest {@code numBytes} bytes of a given long.
+	 * <br /><br />
+	 * This converts between the big-endian value produced by
+	 * {@link #byteToLong(byte[])} and the little-endian bit numbering used by
+	 * {@link BitSet#valueOf(byte[])}, and is its own inverse.
+	 * 
+	 * @param in The long primitive whose bytes to reverse.
+	 * @param numBytes The number of significant bytes in {@code in}, from 1 to 8.
+	 * @return {@code in} with its lowest {@code numBytes} bytes in reverse order.
+	 */
+	public static long reverseBytes(long in, int numBytes)
+	{
+		return Long.reverseBytes(in) >>> (Long.SIZE - numBytes*Byte.SIZE);
+	}
+	
+	/**
+	 * Reverses the order of the lowest {@code numBytes} bytes held across an array
+	 * of 64-bit lanes, least significant lane first.
+	 * <br /><br />
+	 * This is the multi-lane form of {@link #reverseBytes(long, int)}.
+	 * 
+	 * @param in The lanes whose bytes to reverse.
+	 * @param out The array to receive the reversed lanes; must not be {@code in}.
+	 * @param numBytes The number of significant bytes in {@code in}.
+	 */
+	public static void reverseBytes(long[] in, long[] out, int numBytes)
+	{
+		int last  = in.length-1;
+		int shift = (in.length*Long.SIZE/Byte.SIZE - numBytes)*Byte.SIZE;
+		
+		for(int j=0; j<=last; j++)
+		{
+			long lo = Long.reverseBytes(in[last-j]);
+			
+			if(shift == 0)
+			{
+				out[j] = lo;
+			}
+			else
+			{
+				// Reversing every lane leaves the padding bytes at the bottom; shift them out.
+				long hi = (j < last) ? Long.reverseBytes(in[last-j-1]) : 0;
+				out[j]  = (lo>>>shift)|(hi<<(Long.SIZE-shift));
+			}
+		}
+	}
+	
+	/**
+	 * Spreads the low bits of {@code bits} over the set bits of {@code mask},
+	 * lowest first. This is the inverse of {@link #extractBits(long, long)}.
+	 * 
+	 * @param bits The bits to spread, packed into the low end.
+	 * @param mask The positions to which to spread them.
+	 * @return The low {@code Long.bitCount(mask)} bits of {@code bits}, at the positions set in {@code mask}.
+	 */
+	public static long depositBits(long bits, long mask)
+	{
+		long out = 0;
+		long m   = mask;
+		
+		for(long b=1; m!=0; b<<=1)
+		{
+			long lowest = m & -m;
+			if((bits & b) != 0)
+				out |= lowest;
+			
+			m ^= lowest;
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Gathers the bits of {@code value} under the set bits of {@code mask}
+	 * into the low bits, lowest first.
+	 * 
+	 * @param value The value from which to gather bits.
+	 * @param mask The positions from which to gather them.
+	 * @return The bits of {@code value} under {@code mask}, packed into the low end.
+	 */
+	public static long extractBits(long value, long mask)
+	{
+		long out = 0;
+		long m   = mask;
+		
+		for(long b=1; m!=0; b<<=1)
+		{
+			long lowest = m & -m;
+			if((value & lowest) != 0)
+				out |= b;
+			
+			m ^= lowest;
+		}
+		
+		return out;
+	}
+	
 	/**
 	 * Converts a {@link BitSet} to a byte array.
 	 * <br /><br />
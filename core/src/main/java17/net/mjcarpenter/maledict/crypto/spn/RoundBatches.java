@@ -0,0 +1,54 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+/**
+ * Chooses a {@link RoundBatch} engine for a round.
+ * <br /><br />
+ * This is the Java 17 version, which uses {@link VectorRoundBatch} when the
+ * {@code jdk.incubator.vector} module has been added to the runtime with
+ * {@code --add-modules jdk.incubator.vector}, and the round has a shape it
+ * supports. Otherwise rounds run through the scalar paths as on Java 8.
+ */
+final class RoundBatches
+{
+	private static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	
+	private RoundBatches()
+	{
+	}
+	
+	/**
+	 * @param round The round to batch.
+	 * @return A batch engine for the round, or {@code null} if the scalar path should be used.
+	 */
+	static RoundBatch forRound(final Round round)
+	{
+		if(!VECTOR_AVAILABLE)
+			return null;
+		
+		try
+		{
+			return VectorRoundBatch.supports(round) ? new VectorRoundBatch(round) : null;
+		}
+		catch(LinkageError e)
+		{
+			return null;
+		}
+	}
+}
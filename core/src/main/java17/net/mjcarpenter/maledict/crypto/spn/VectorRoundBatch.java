@@ -0,0 +1,215 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link RoundBatch} for rounds of 4-bit S-boxes that processes as many
+ * blocks at once as fit in the preferred vector shape.
+ * <br /><br />
+ * Blocks are kept in their big-endian form throughout. The key is one
+ * lane-wise {@code XOR}. For the S-box layer, the blocks are viewed as bytes
+ * and split into low and high nibbles, and each distinct S-box is a 16-entry
+ * byte shuffle whose results are blended into the byte lanes that box
+ * covers. The permutation runs the same delta-swap stages as
+ * {@link Permutation#permuteFwd(long)}, a shift, mask and {@code XOR} at a
+ * time across all lanes.
+ */
+final class VectorRoundBatch implements RoundBatch
+{
+	private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, LONGS.vectorShape());
+	
+	private static final int NIBBLE = 4;
+	
+	private final Round  round;
+	private final long   key;
+	private final long[] stageMasks;
+	private final int[]  stageShifts;
+	
+	// One entry per distinct S-box in the round.
+	private final ByteVector[]       fwdTables;
+	private final ByteVector[]       revTables;
+	private final VectorMask<Byte>[] lowLanes;
+	private final VectorMask<Byte>[] highLanes;
+	
+	/**
+	 * Whether a round can be batched: a byte-aligned block of at most 64 bits
+	 * made of 4-bit S-boxes, on hardware whose vectors hold at least one
+	 * 16-entry table.
+	 */
+	static boolean supports(final Round round)
+	{
+		if(round.bitLength() > Long.SIZE || round.bitLength()%Byte.SIZE != 0 || BYTES.length() < (1<<NIBBLE))
+			return false;
+		
+		for(SBox box: round.getSBoxes())
+		{
+			if(box.bitSize() != NIBBLE)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	VectorRoundBatch(final Round round)
+	{
+		this.round       = round;
+		this.key         = round.getSubKey().longValue();
+		this.stageMasks  = round.getPermutation().stageMasks();
+		this.stageShifts = round.getPermutation().stageShifts();
+		
+		SBox[] boxes    = round.getSBoxes();
+		int    numBytes = round.bitLength()/Byte.SIZE;
+		
+		// Group box positions by S-box content.
+		List<int[]>     distinct  = new ArrayList<int[]>();
+		List<boolean[]> lowUsers  = new ArrayList<boolean[]>();
+		List<boolean[]> highUsers = new ArrayList<boolean[]>();
+		
+		for(int i=0; i<boxes.length; i++)
+		{
+			int[] table = new int[1<<NIBBLE];
+			for(int x=0; x<table.length; x++)
+				table[x] = boxes[i].sub(x);
+			
+			int d = 0;
+			while(d < distinct.size() && !Arrays.equals(distinct.get(d), table))
+				d++;
+			
+			if(d == distinct.size())
+			{
+				distinct.add(table);
+				lowUsers.add(new boolean[BYTES.length()]);
+				highUsers.add(new boolean[BYTES.length()]);
+			}
+			
+			// Box i covers nibble i%2 of little-endian byte i/2, which is byte
+			// numBytes-1-i/2 from the bottom of the big-endian block. Byte b of
+			// each long is byte lane 8*l+b of the reinterpreted vector.
+			int byteInLong = numBytes-1-i/2;
+			boolean[] users = (i%2 == 0) ? lowUsers.get(d) : highUsers.get(d);
+			for(int l=0; l<LONGS.length(); l++)
+				users[l*Long.BYTES+byteInLong] = true;
+		}
+		
+		this.fwdTables = new ByteVector[distinct.size()];
+		this.revTables = new ByteVector[distinct.size()];
+		// Generic arrays cannot be created directly, but every element is a byte mask.
+		@SuppressWarnings("unchecked")
+		VectorMask<Byte>[] low  = (VectorMask<Byte>[])new VectorMask<?>[distinct.size()];
+		@SuppressWarnings("unchecked")
+		VectorMask<Byte>[] high = (VectorMask<Byte>[])new VectorMask<?>[distinct.size()];
+		this.lowLanes  = low;
+		this.highLanes = high;
+		
+		for(int d=0; d<distinct.size(); d++)
+		{
+			byte[] fwd = new byte[BYTES.length()];
+			byte[] rev = new byte[BYTES.length()];
+			
+			for(int x=0; x<(1<<NIBBLE); x++)
+			{
+				fwd[x] = (byte)distinct.get(d)[x];
+				rev[distinct.get(d)[x]] = (byte)x;
+			}
+			
+			fwdTables[d] = ByteVector.fromArray(BYTES, fwd, 0);
+			revTables[d] = ByteVector.fromArray(BYTES, rev, 0);
+			lowLanes[d]  = VectorMask.fromArray(BYTES, lowUsers.get(d), 0);
+			highLanes[d] = VectorMask.fromArray(BYTES, highUsers.get(d), 0);
+		}
+	}
+	
+	@Override
+	public void process(final long[] blocks, final int from, final int to)
+	{
+		int i     = from;
+		int bound = from + LONGS.loopBound(to-from);
+		
+		for(; i<bound; i+=LONGS.length())
+		{
+			LongVector v = LongVector.fromArray(LONGS, blocks, i).lanewise(VectorOperators.XOR, key);
+			v = substitute(v, fwdTables);
+			
+			for(int s=0; s<stageMasks.length; s++)
+				v = deltaSwap(v, stageMasks[s], stageShifts[s]);
+			
+			v.intoArray(blocks, i);
+		}
+		
+		for(; i<to; i++)
+			blocks[i] = round.processLong(blocks[i]);
+	}
+	
+	@Override
+	public void invert(final long[] blocks, final int from, final int to)
+	{
+		int i     = from;
+		int bound = from + LONGS.loopBound(to-from);
+		
+		for(; i<bound; i+=LONGS.length())
+		{
+			LongVector v = LongVector.fromArray(LONGS, blocks, i);
+			
+			// Every stage is its own inverse, so running them backwards undoes the permutation.
+			for(int s=stageMasks.length-1; s>=0; s--)
+				v = deltaSwap(v, stageMasks[s], stageShifts[s]);
+			
+			v = substitute(v, revTables).lanewise(VectorOperators.XOR, key);
+			v.intoArray(blocks, i);
+		}
+		
+		for(; i<to; i++)
+			blocks[i] = round.invertLong(blocks[i]);
+	}
+	
+	private LongVector substitute(final LongVector in, final ByteVector[] tables)
+	{
+		ByteVector bytes = in.reinterpretAsBytes();
+		ByteVector low   = bytes.and((byte)0x0F);
+		ByteVector high  = bytes.lanewise(VectorOperators.LSHR, NIBBLE).and((byte)0x0F);
+		
+		// Lanes outside the block belong to no box and stay zero.
+		ByteVector outLow  = ByteVector.zero(BYTES);
+		ByteVector outHigh = ByteVector.zero(BYTES);
+		
+		for(int d=0; d<tables.length; d++)
+		{
+			outLow  = outLow.blend(low.selectFrom(tables[d]), lowLanes[d]);
+			outHigh = outHigh.blend(high.selectFrom(tables[d]), highLanes[d]);
+		}
+		
+		return outLow.or(outHigh.lanewise(VectorOperators.LSHL, NIBBLE)).reinterpretAsLongs();
+	}
+	
+	private static LongVector deltaSwap(final LongVector in, final long mask, final int shift)
+	{
+		LongVector t = in.lanewise(VectorOperators.LSHR, shift).lanewise(VectorOperators.XOR, in).and(mask);
+		return in.lanewise(VectorOperators.XOR, t).lanewise(VectorOperators.XOR, t.lanewise(VectorOperators.LSHL, shift));
+	}
+}
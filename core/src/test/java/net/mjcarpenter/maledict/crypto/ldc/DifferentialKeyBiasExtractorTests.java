@@ -18,11 +18,15 @@
 package net.mjcarpenter.maledict.crypto.ldc;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 
 import javax.xml.bind.DatatypeConverter;
 
@@ -32,9 +36,15 @@ import org.junit.Test;
 
 import net.mjcarpenter.maledict.crypto.ldc.DifferentialApproximation;
 import net.mjcarpenter.maledict.crypto.ldc.DifferentialKeyBiasExtractor;
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.ChosenPair;
+import net.mjcarpenter.maledict.crypto.spn.ChosenPairBlock;
 import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.crypto.spn.KnownPair;
+import net.mjcarpenter.maledict.crypto.spn.PairGenerator;
+import net.mjcarpenter.maledict.crypto.spn.PairPipeline;
+import net.mjcarpenter.maledict.crypto.spn.PairSource;
 import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
 import net.mjcarpenter.maledict.crypto.spn.SBox;
@@ -142,6 +152,122 @@ public class DifferentialKeyBiasExtractorTests
 				resultBytes);
 	}
 	
+	@Test
+	public void testBiasTableFromColumns()
+	throws Exception
+	{
+		dkbe.generateBiases(ChosenPairBlock.generate(5000, apx.getPlaintextMask(), spn), (mainProg, mainTot, subProg, subTot) -> {});
+		
+		byte[] expected = new byte[]{(byte)0x02, (byte)0x04};
+		byte[] resultBytes = dkbe.getMaxBiasKey().getKeyValue();
+		
+		assertArrayEquals(String.format("Expected target partial subkey [%s] but got [%s] (bias %.06f)",
+				DatatypeConverter.printHexBinary(expected),
+				DatatypeConverter.printHexBinary(resultBytes),
+				dkbe.getMaxBiasValue()),
+				expected,
+				resultBytes);
+	}
+	
+	@Test
+	public void testBiasTableFromStructures()
+	throws Exception
+	{
+		PairGenerator generator = new PairGenerator(0x5EEDL);
+		
+		dkbe.generateBiases(generator.generateStructured(5000, new long[]{apx.getPlaintextMask()}, spn), (mainProg, mainTot, subProg, subTot) -> {});
+		Map<Key, Double> columnar = new TreeMap<Key, Double>(dkbe.getBiasMap());
+		
+		byte[] expected = new byte[]{(byte)0x02, (byte)0x04};
+		byte[] resultBytes = dkbe.getMaxBiasKey().getKeyValue();
+		
+		assertArrayEquals(String.format("Expected target partial subkey [%s] but got [%s] (bias %.06f)",
+				DatatypeConverter.printHexBinary(expected),
+				DatatypeConverter.printHexBinary(resultBytes),
+				dkbe.getMaxBiasValue()),
+				expected,
+				resultBytes);
+		
+		dkbe.generateBiases(new PairGenerator(0x5EEDL).generateStructuredPairs(5000, apx.getPlaintextMaskBlock(), spn), (mainProg, mainTot, subProg, subTot) -> {});
+		assertEquals("List and columnar structures gave different biases.", columnar, dkbe.getBiasMap());
+	}
+	
+	@Test
+	public void testFilterKeepsEveryRightPair()
+	throws Exception
+	{
+		ChosenPairBlock columns = new PairGenerator(0x5EEDL).generateChosen(5000, apx.getPlaintextMask(), spn);
+		dkbe.generateBiases(columns, (mainProg, mainTot, subProg, subTot) -> {});
+		
+		assertEquals("Filter did not examine every pair.", 5000, dkbe.getPairsExamined());
+		assertTrue(String.format("Filter let all %d pairs through.", dkbe.getPairsSurviving()),
+				dkbe.getPairsSurviving() < dkbe.getPairsExamined());
+		
+		// Count every pair, unfiltered, under every key the extractor scored.
+		Round testRound = rnd.replaceKey(Key.noop(16));
+		for(Map.Entry<Key, Double> entry: dkbe.getBiasMap().entrySet())
+		{
+			int matches = 0;
+			
+			for(int p=0; p<columns.size(); p++)
+			{
+				Block partialA = testRound.invert(entry.getKey().xor(Block.valueOf(columns.getCiphertextA(p), 16)));
+				Block partialB = testRound.invert(entry.getKey().xor(Block.valueOf(columns.getCiphertextB(p), 16)));
+				
+				if(apx.testAgainst(Block.valueOf(columns.getPlaintextA(p), 16), Block.valueOf(columns.getPlaintextB(p), 16), partialA, partialB))
+					matches++;
+			}
+			
+			assertEquals(String.format("Filtered bias for [%s] differed.", entry.getKey()),
+					matches/5000.0, entry.getValue(), 0);
+		}
+	}
+	
+	@Test
+	public void testPipelinedMatchesSinglePass()
+	throws Exception
+	{
+		PairSource<ChosenPairBlock> source = PairSource.generateChosen(spn, 5000, apx.getPlaintextMask(), 0x5EEDL);
+		
+		dkbe.generateBiases(source, (mainProg, mainTot, subProg, subTot) -> {});
+		Map<Key, Double> expected = new TreeMap<Key, Double>(dkbe.getBiasMap());
+		
+		dkbe.generateBiases(source, new PairPipeline<ChosenPairBlock>(2, 3, 4), (mainProg, mainTot, subProg, subTot) -> {});
+		
+		assertEquals("Pipelined extraction gave different biases.", expected, dkbe.getBiasMap());
+	}
+	
+	@Test
+	public void testParallelSearchMatchesSequential()
+	throws Exception
+	{
+		ChosenPairBlock block = new PairGenerator(0x5EEDL).generateChosen(5000, apx.getPlaintextMask(), spn);
+		
+		dkbe.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+		Map<Key, Double> expected = new TreeMap<Key, Double>(dkbe.getBiasMap());
+		
+		dkbe.setKeyExecutor(new BatchExecutor(4, 1));
+		dkbe.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+		
+		assertEquals("Parallel search gave different biases.", expected, dkbe.getBiasMap());
+	}
+	
+	@Test
+	public void testBoxTablesMatchFullDecryption()
+	throws Exception
+	{
+		ChosenPairBlock block = new PairGenerator(0x5EEDL).generateChosen(5000, apx.getPlaintextMask(), spn);
+		
+		assertTrue("Box tables were not available.", dkbe.usesBoxTables());
+		dkbe.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+		Map<Key, Double> expected = new TreeMap<Key, Double>(dkbe.getBiasMap());
+		
+		dkbe.setBoxTables(false);
+		dkbe.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+		
+		assertEquals("Box tables gave different biases.", dkbe.getBiasMap(), expected);
+	}
+	
 	@Test(expected=IllegalArgumentException.class)
 	public void testInvalidPlaintextDifferential()
 	throws Exception
@@ -19,11 +19,18 @@ package net.mjcarpenter.maledict.crypto.ldc;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.DatatypeConverter;
 
@@ -33,8 +40,12 @@ import org.junit.Test;
 
 import net.mjcarpenter.maledict.crypto.ldc.LinearApproximation;
 import net.mjcarpenter.maledict.crypto.ldc.LinearKeyBiasExtractor;
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
 import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.crypto.spn.KnownPair;
+import net.mjcarpenter.maledict.crypto.spn.KnownPairBlock;
+import net.mjcarpenter.maledict.crypto.spn.PairGenerator;
+import net.mjcarpenter.maledict.crypto.spn.PairSource;
 import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
 import net.mjcarpenter.maledict.crypto.spn.SBox;
@@ -133,6 +144,241 @@ public class LinearKeyBiasExtractorTests
 				resultBytes);
 	}
 	
+	@Test
+	public void testBiasTableFromColumns()
+	throws Exception
+	{
+		lkbe.generateBiases(new PairGenerator(0x5EEDL).generateKnown(10000, spn), (mainProg, mainTot, subProg, subTot) -> {});
+		
+		byte[] expected = new byte[]{(byte)0x02, (byte)0x04};
+		byte[] resultBytes = lkbe.getMaxBiasKey().getKeyValue();
+		
+		assertArrayEquals(String.format("Expected target partial subkey [%s] but got [%s] (bias %.06f)",
+				DatatypeConverter.printHexBinary(expected),
+				DatatypeConverter.printHexBinary(resultBytes),
+				lkbe.getMaxBiasValue()),
+				expected,
+				resultBytes);
+	}
+	
+	@Test
+	public void testBiasTableFromStream()
+	throws Exception
+	{
+		lkbe.generateBiases(PairSource.generateKnown(spn, 10000, 0x5EEDL), (mainProg, mainTot, subProg, subTot) -> {});
+		
+		byte[] expected = new byte[]{(byte)0x02, (byte)0x04};
+		byte[] resultBytes = lkbe.getMaxBiasKey().getKeyValue();
+		
+		assertArrayEquals(String.format("Expected target partial subkey [%s] but got [%s] (bias %.06f)",
+				DatatypeConverter.printHexBinary(expected),
+				DatatypeConverter.printHexBinary(resultBytes),
+				lkbe.getMaxBiasValue()),
+				expected,
+				resultBytes);
+	}
+	
+	@Test
+	public void testDistillationMatchesDirectCount()
+	throws Exception
+	{
+		KnownPairBlock block = new PairGenerator(0x5EEDL).generateKnown(5000, spn);
+		
+		// The fourth round has no permutation; the third shows the active bits being traced through one.
+		for(Round round: new Round[]{rnd, spn.getRounds()[2]})
+		{
+			LinearKeyBiasExtractor direct    = new LinearKeyBiasExtractor(round, apx);
+			LinearKeyBiasExtractor distilled = new LinearKeyBiasExtractor(round, apx);
+			
+			direct.setDistillation(false);
+			distilled.setWalshRanking(false);
+			assertTrue("Distillation was not available.", distilled.usesDistillation());
+			
+			direct.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			distilled.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			
+			for(Key k: direct.getBiasMap().keySet())
+			{
+				assertEquals(String.format("Distilled bias for [%s] differed.", DatatypeConverter.printHexBinary(k.getKeyValue())),
+						direct.getBiasFor(k), distilled.getBiasFor(k), 0);
+			}
+		}
+	}
+	
+	@Test
+	public void testWalshRankingMatchesDirectCount()
+	throws Exception
+	{
+		KnownPairBlock block = new PairGenerator(0x5EEDL).generateKnown(5000, spn);
+		
+		for(Round round: new Round[]{rnd, spn.getRounds()[2]})
+		{
+			LinearKeyBiasExtractor direct = new LinearKeyBiasExtractor(round, apx);
+			LinearKeyBiasExtractor ranked = new LinearKeyBiasExtractor(round, apx);
+			
+			direct.setDistillation(false);
+			assertTrue("Walsh ranking was not available.", ranked.usesWalshRanking());
+			
+			direct.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			ranked.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			
+			for(Key k: direct.getBiasMap().keySet())
+			{
+				assertEquals(String.format("Ranked bias for [%s] differed.", DatatypeConverter.printHexBinary(k.getKeyValue())),
+						direct.getBiasFor(k), ranked.getBiasFor(k), 0);
+			}
+			
+			assertArrayEquals("Ranking found a different best key.",
+					direct.getMaxBiasKey().getKeyValue(), ranked.getMaxBiasKey().getKeyValue());
+		}
+	}
+	
+	@Test
+	public void testParallelSearchMatchesSequential()
+	throws Exception
+	{
+		KnownPairBlock block = new PairGenerator(0x5EEDL).generateKnown(5000, spn);
+		
+		// Both the direct count and the distillation table loop search candidates one by one.
+		for(boolean distill: new boolean[]{false, true})
+		{
+			LinearKeyBiasExtractor sequential = new LinearKeyBiasExtractor(rnd, apx);
+			LinearKeyBiasExtractor parallel   = new LinearKeyBiasExtractor(rnd, apx);
+			
+			sequential.setDistillation(distill);
+			sequential.setWalshRanking(false);
+			parallel.setDistillation(distill);
+			parallel.setWalshRanking(false);
+			parallel.setKeyExecutor(new BatchExecutor(4, 1));
+			
+			sequential.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			parallel.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			
+			assertEquals("Parallel search gave different biases.", sequential.getBiasMap(), parallel.getBiasMap());
+		}
+	}
+	
+	@Test
+	public void testBoxTablesMatchFullDecryption()
+	throws Exception
+	{
+		KnownPairBlock block = new PairGenerator(0x5EEDL).generateKnown(5000, spn);
+		
+		for(Round round: new Round[]{rnd, spn.getRounds()[2]})
+		{
+			LinearKeyBiasExtractor decrypted = new LinearKeyBiasExtractor(round, apx);
+			LinearKeyBiasExtractor tabulated = new LinearKeyBiasExtractor(round, apx);
+			
+			decrypted.setDistillation(false);
+			decrypted.setBoxTables(false);
+			tabulated.setDistillation(false);
+			assertTrue("Box tables were not available.", tabulated.usesBoxTables());
+			
+			decrypted.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			tabulated.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+			
+			assertEquals("Box tables gave different biases.", decrypted.getBiasMap(), tabulated.getBiasMap());
+		}
+	}
+	
+	@Test
+	public void testParallelSearchCancels()
+	throws Exception
+	{
+		int[] reports = new int[1];
+		
+		lkbe.setWalshRanking(false);
+		lkbe.setKeyExecutor(new BatchExecutor(4, 1));
+		lkbe.generateBiases(new PairGenerator(0x5EEDL).generateKnown(5000, spn), (mainProg, mainTot, subProg, subTot) ->
+		{
+			// The table loop reports once per candidate; stop after the first few.
+			if(subTot != 5000 && ++reports[0] == 10)
+				lkbe.cancel();
+		});
+		
+		assertTrue("Extractor did not notice the cancellation.", lkbe.isCanceled());
+		assertNull("Cancelled search left a bias map.", lkbe.getBiasMap());
+		assertTrue(String.format("Search ran on for %d candidates after cancelling.", reports[0]), reports[0] < 256);
+	}
+	
+	@Test
+	public void testParallelSearchProgressMonotone()
+	throws Exception
+	{
+		List<Integer> reports = new ArrayList<Integer>();
+		AtomicInteger inside = new AtomicInteger();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		
+		lkbe.setWalshRanking(false);
+		lkbe.setKeyExecutor(new BatchExecutor(4, 1));
+		lkbe.generateBiases(new PairGenerator(0x5EEDL).generateKnown(5000, spn), (mainProg, mainTot, subProg, subTot) ->
+		{
+			if(subTot == 5000)
+				return;
+			
+			// Reports must come one at a time, with no lock held by the extractor.
+			if(inside.incrementAndGet() > 1)
+				overlapped.set(true);
+			
+			synchronized(reports)
+			{
+				reports.add(mainProg);
+			}
+			
+			inside.decrementAndGet();
+		});
+		
+		assertFalse("Progress callbacks overlapped.", overlapped.get());
+		assertEquals("Search did not end on the full candidate count.", 256, (int)reports.get(reports.size()-1));
+		
+		for(int i=1; i<reports.size(); i++)
+		{
+			assertTrue(String.format("Progress went from %d back to %d.", reports.get(i-1), reports.get(i)),
+					reports.get(i) > reports.get(i-1));
+		}
+	}
+	
+	@Test
+	public void testScoresMatchBiasMap()
+	throws Exception
+	{
+		KnownPairBlock block = new PairGenerator(0x5EEDL).generateKnown(5000, spn);
+		lkbe.generateBiases(block, (mainProg, mainTot, subProg, subTot) -> {});
+		
+		KeyBiasScores scores = lkbe.getScores();
+		Map<Key, Double> map = lkbe.getBiasMap();
+		assertEquals("Scores and bias map held different numbers of keys.", map.size(), scores.size());
+		
+		scores.forEach((candidate, bias) -> {
+			Key k = scores.getKey(candidate);
+			assertEquals(String.format("Candidate %d did not map back from its key.", candidate), candidate, lkbe.getCandidateFor(k));
+			assertEquals(String.format("Bias for candidate %d differed from the map.", candidate), map.get(k), bias, 0);
+		});
+		
+		// The bounded heap must give the same order as sorting every candidate.
+		Integer[] sorted = new Integer[scores.size()];
+		for(int i=0; i<sorted.length; i++)
+			sorted[i] = i;
+		
+		Arrays.sort(sorted, (a, b) -> {
+			int byBias = Double.compare(scores.getBias(b), scores.getBias(a));
+			return (byBias != 0) ? byBias : Integer.compare(a, b);
+		});
+		
+		for(int n: new int[]{0, 1, 10, sorted.length, sorted.length+5})
+		{
+			int[] top = scores.topCandidates(n);
+			assertEquals(String.format("Top %d returned the wrong number of candidates.", n), Math.min(n, sorted.length), top.length);
+			
+			for(int i=0; i<top.length; i++)
+				assertEquals(String.format("Top %d differed at rank %d.", n, i), (int)sorted[i], top[i]);
+		}
+		
+		assertEquals("Best candidate was not ranked first.", scores.getBestCandidate(), scores.topCandidates(1)[0]);
+		assertArrayEquals("Best key did not match the best candidate.",
+				scores.getKey(scores.getBestCandidate()).getKeyValue(), lkbe.getMaxBiasKey().getKeyValue());
+	}
+	
 	@Test
 	public void testGetKey()
 	throws Exception
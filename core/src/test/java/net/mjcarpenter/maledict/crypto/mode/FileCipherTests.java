@@ -0,0 +1,192 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.mode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
+import net.mjcarpenter.maledict.crypto.spn.SPNetworkTests;
+import net.mjcarpenter.maledict.util.BitUtils;
+
+public final class FileCipherTests
+{
+	private static final int[] LENGTHS = {0, 1, 2, 3, 1000, 1001, 40961};
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private SPNetwork spn;
+	private Random    random;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn    = SPNetworkTests.sampleNetwork();
+		random = new Random(0x5eed);
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn    = null;
+		random = null;
+	}
+	
+	@Test
+	public void testRoundTripInEveryMode()
+	throws Exception
+	{
+		for(BlockMode mode: BlockMode.values())
+		{
+			// A small window and executor make the parallel paths cross window boundaries.
+			FileCipher cipher = new FileCipher(spn, mode, new BatchExecutor(4, 16), 37);
+			
+			for(int length: LENGTHS)
+			{
+				byte[] plain = new byte[length];
+				random.nextBytes(plain);
+				
+				byte[] encrypted = roundTrip(cipher, plain, 0x1234L);
+				
+				if(mode == BlockMode.CTR)
+					assertEquals(String.format("%s changed the length of %d bytes.", mode, length), length, encrypted.length);
+				else
+					assertEquals(String.format("%s did not pad %d bytes.", mode, length), (length/2+1)*2, encrypted.length);
+			}
+		}
+	}
+	
+	@Test
+	public void testWideNetworkRoundTrip()
+	throws Exception
+	{
+		SPNetwork wide = SPNetworkTests.randomNetwork(random, 64, 8, 4);
+		
+		for(BlockMode mode: BlockMode.values())
+		{
+			FileCipher cipher = new FileCipher(wide, mode, new BatchExecutor(4, 16), 37);
+			byte[] plain = new byte[5003];
+			random.nextBytes(plain);
+			
+			roundTrip(cipher, plain, random.nextLong());
+		}
+	}
+	
+	@Test
+	public void testModesMatchBlockDefinitions()
+	throws Exception
+	{
+		byte[] plain = new byte[4001];
+		random.nextBytes(plain);
+		long iv = 0xfff0L;
+		
+		byte[] ecb = encrypt(new FileCipher(spn, BlockMode.ECB, new BatchExecutor(4, 16), 37), plain, iv);
+		byte[] ctr = encrypt(new FileCipher(spn, BlockMode.CTR, new BatchExecutor(4, 16), 37), plain, iv);
+		byte[] cbc = encrypt(new FileCipher(spn, BlockMode.CBC, new BatchExecutor(4, 16), 37), plain, iv);
+		
+		long chain = iv;
+		for(int b=0; b<plain.length/2; b++)
+		{
+			long block = ((plain[2*b]&0xFF)<<8)|(plain[2*b+1]&0xFF);
+			
+			assertEquals(String.format("ECB block %d was wrong.", b), spn.encrypt(block), block(ecb, b));
+			assertEquals(String.format("CTR block %d was wrong.", b), block^spn.encrypt((iv+b)&0xFFFF), block(ctr, b));
+			
+			chain = spn.encrypt(block^chain);
+			assertEquals(String.format("CBC block %d was wrong.", b), chain, block(cbc, b));
+		}
+		
+		long padded = ((plain[plain.length-1]&0xFF)<<8)|0x01;
+		assertEquals("CBC padding block was wrong.", spn.encrypt(padded^chain), block(cbc, plain.length/2));
+		assertEquals("CTR tail was wrong.", (byte)(plain[plain.length-1]^(spn.encrypt((iv+plain.length/2)&0xFFFF)>>>8)),
+				ctr[ctr.length-1]);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadPaddingRejected()
+	throws Exception
+	{
+		Path in  = folder.newFile().toPath();
+		Path out = folder.newFile().toPath();
+		
+		// Decrypts to a final byte of zero, which is never a valid pad.
+		Files.write(in, BitUtils.longToByte(spn.encrypt(0x1200L), 2));
+		new FileCipher(spn, BlockMode.ECB).decrypt(in, out, 0);
+	}
+	
+	@Test
+	public void testThroughputReported()
+	throws Exception
+	{
+		Path in  = folder.newFile().toPath();
+		Path out = folder.newFile().toPath();
+		Files.write(in, new byte[1<<16]);
+		
+		Throughput t = new FileCipher(spn, BlockMode.CTR).encrypt(in, out, 0);
+		
+		assertEquals("Throughput did not count the input.", 1<<16, t.getBytes());
+		assertTrue("Throughput was not positive.", t.getMegabytesPerSecond() > 0);
+	}
+	
+	private byte[] roundTrip(final FileCipher cipher, final byte[] plain, final long iv)
+	throws Exception
+	{
+		Path encrypted = folder.newFile().toPath();
+		Path decrypted = folder.newFile().toPath();
+		
+		Files.write(encrypted, encrypt(cipher, plain, iv));
+		cipher.decrypt(encrypted, decrypted, iv);
+		
+		assertArrayEquals(String.format("%d bytes did not survive a round trip.", plain.length),
+				plain, Files.readAllBytes(decrypted));
+		
+		return Files.readAllBytes(encrypted);
+	}
+	
+	private byte[] encrypt(final FileCipher cipher, final byte[] plain, final long iv)
+	throws Exception
+	{
+		Path in  = folder.newFile().toPath();
+		Path out = folder.newFile().toPath();
+		
+		Files.write(in, plain);
+		cipher.encrypt(in, out, iv);
+		
+		return Files.readAllBytes(out);
+	}
+	
+	private static long block(final byte[] data, final int index)
+	{
+		return ((data[2*index]&0xFF)<<8)|(data[2*index+1]&0xFF);
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.oracle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
+import net.mjcarpenter.maledict.crypto.spn.ChosenPairBlock;
+import net.mjcarpenter.maledict.crypto.spn.EncryptionOracle;
+import net.mjcarpenter.maledict.crypto.spn.KnownPairBlock;
+import net.mjcarpenter.maledict.crypto.spn.PairGenerator;
+import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
+import net.mjcarpenter.maledict.crypto.spn.SPNetworkTests;
+
+public final class OracleTests
+{
+	private static final int  COUNT = 1000;
+	private static final long SEED  = 0xC0FFEEL;
+	
+	private SPNetwork spn;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+	}
+	
+	@Test
+	public void testCountsQueriesAndCalls()
+	throws Exception
+	{
+		CountingOracle oracle = new CountingOracle(spn);
+		
+		oracle.encrypt(0x1234L);
+		encryptAll(oracle, plaintexts(COUNT));
+		
+		assertEquals("Queries were miscounted.", COUNT+1, oracle.getQueries());
+		assertEquals("Calls were miscounted.", 2, oracle.getCalls());
+		
+		oracle.reset();
+		assertEquals("Reset did not clear the queries.", 0, oracle.getQueries());
+	}
+	
+	@Test
+	public void testBudgetRejectsWholeBatch()
+	throws Exception
+	{
+		BudgetedOracle oracle = new BudgetedOracle(spn, COUNT);
+		encryptAll(oracle, plaintexts(COUNT-10));
+		
+		try
+		{
+			encryptAll(oracle, plaintexts(11));
+			fail("Batch beyond the budget was answered.");
+		}
+		catch(QueryBudgetExceededException e)
+		{
+			assertEquals("Exception reported the wrong request.", 11, e.getRequested());
+		}
+		
+		assertEquals("Rejected batch was charged.", COUNT-10, oracle.getUsed());
+		encryptAll(oracle, plaintexts(10));
+		assertEquals("Budget was not fully usable.", 0, oracle.getRemaining());
+	}
+	
+	@Test
+	public void testMemoAnswersRepeatsWithoutBudget()
+	throws Exception
+	{
+		BudgetedOracle  budget = new BudgetedOracle(spn, COUNT);
+		MemoizingOracle memo   = new MemoizingOracle(budget, COUNT);
+		long[]          plains = plaintexts(COUNT);
+		
+		long[] first  = encryptAll(memo, plains);
+		long[] second = encryptAll(memo, plains);
+		
+		for(int i=0; i<COUNT; i++)
+		{
+			assertEquals(String.format("Ciphertext %d was wrong.", i), spn.encrypt(plains[i]), first[i]);
+			assertEquals(String.format("Repeat of ciphertext %d differed.", i), first[i], second[i]);
+		}
+		
+		assertEquals("Repeats were charged to the budget.", COUNT, budget.getUsed());
+		assertEquals("Repeats were not answered from the cache.", COUNT, memo.getHits());
+	}
+	
+	@Test
+	public void testMemoEvictsLeastRecentlyUsed()
+	throws Exception
+	{
+		CountingOracle  counter = new CountingOracle(spn);
+		MemoizingOracle memo    = new MemoizingOracle(counter, 2);
+		
+		memo.encrypt(1);
+		memo.encrypt(2);
+		memo.encrypt(1);
+		memo.encrypt(3);
+		
+		assertEquals("Cache grew beyond its capacity.", 2, memo.size());
+		
+		memo.encrypt(1);
+		assertEquals("Recently used plaintext was evicted.", 3, counter.getQueries());
+		
+		memo.encrypt(2);
+		assertEquals("Least recently used plaintext was kept.", 4, counter.getQueries());
+	}
+	
+	@Test
+	public void testBatchesNeverExceedLimit()
+	throws Exception
+	{
+		AtomicInteger largest = new AtomicInteger();
+		EncryptionOracle recorder = new EncryptionOracle()
+		{
+			@Override
+			public long encrypt(final long plaintext)
+			{
+				return spn.encrypt(plaintext);
+			}
+			
+			@Override
+			public void encryptAll(final LongBuffer in, final LongBuffer out, final BatchExecutor executor)
+			{
+				largest.accumulateAndGet(in.remaining(), Math::max);
+				spn.encryptAll(in, out, executor);
+			}
+			
+			@Override
+			public int getBlockSize()
+			{
+				return spn.getBlockSize();
+			}
+		};
+		
+		long[] plains = plaintexts(COUNT);
+		long[] ciphs  = encryptAll(new BatchingOracle(recorder, 64), plains);
+		
+		assertTrue(String.format("Delegate saw a batch of %d.", largest.get()), largest.get() <= 64);
+		for(int i=0; i<COUNT; i++)
+			assertEquals(String.format("Ciphertext %d was wrong.", i), spn.encrypt(plains[i]), ciphs[i]);
+	}
+	
+	@Test
+	public void testGeneratorThroughOracleMatchesNetwork()
+	throws Exception
+	{
+		CountingOracle  oracle   = new CountingOracle(new MemoizingOracle(spn, 16));
+		KnownPairBlock  known    = new PairGenerator(SEED).generateKnown(COUNT, oracle);
+		KnownPairBlock  expected = new PairGenerator(SEED).generateKnown(COUNT, spn);
+		ChosenPairBlock chosen   = new PairGenerator(SEED).generateChosen(COUNT, 0x0b00L, oracle);
+		ChosenPairBlock direct   = new PairGenerator(SEED).generateChosen(COUNT, 0x0b00L, spn);
+		
+		for(int i=0; i<COUNT; i++)
+		{
+			assertEquals(String.format("Known ciphertext %d differed.", i), expected.getCiphertext(i), known.getCiphertext(i));
+			assertEquals(String.format("Chosen ciphertext %d differed.", i), direct.getCiphertextB(i), chosen.getCiphertextB(i));
+		}
+		
+		assertEquals("Generator bypassed the oracle.", 3*COUNT, oracle.getQueries());
+	}
+	
+	private long[] plaintexts(final int count)
+	{
+		// Distinct, so that the memo tests see no repeats within a batch.
+		long[] out = new long[count];
+		for(int i=0; i<count; i++)
+			out[i] = (i*0x9E37L)&0xFFFFL;
+		return out;
+	}
+	
+	private static long[] encryptAll(final EncryptionOracle oracle, final long[] plains)
+	{
+		long[] out = new long[plains.length];
+		oracle.encryptAll(LongBuffer.wrap(plains), LongBuffer.wrap(out), BatchExecutor.getDefault());
+		return out;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.LongBuffer;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BitslicedSPNetworkTests
+{
+	private SPNetwork spn;
+	private BitslicedSPNetwork sliced;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+		sliced = new BitslicedSPNetwork(spn);
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+		sliced = null;
+	}
+	
+	@Test
+	public void testTransposeIsInvolution()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		long[] original = new long[Long.SIZE];
+		for(int i=0; i<original.length; i++)
+			original[i] = r.nextLong();
+		
+		long[] matrix = original.clone();
+		BitslicedSPNetwork.transpose(matrix);
+		
+		for(int i=0; i<Long.SIZE; i++)
+		{
+			for(int j=0; j<Long.SIZE; j++)
+			{
+				assertEquals(String.format("Bit (%d, %d) was not transposed.", i, j),
+						(original[i]>>>j)&0x1, (matrix[j]>>>i)&0x1);
+			}
+		}
+		
+		BitslicedSPNetwork.transpose(matrix);
+		assertArrayEquals("Transposing twice did not restore the matrix.", original, matrix);
+	}
+	
+	@Test
+	public void testFullCodebookMatchesNetwork()
+	throws Exception
+	{
+		long[] plain = new long[1<<16];
+		for(int i=0; i<plain.length; i++)
+			plain[i] = i;
+		
+		long[] cipher = new long[plain.length];
+		long[] back   = new long[plain.length];
+		sliced.encrypt(plain, cipher);
+		sliced.decrypt(cipher, back);
+		
+		CompiledSPNetwork reference = new CompiledSPNetwork(spn);
+		for(int i=0; i<plain.length; i++)
+		{
+			assertEquals(String.format("Encryption of [%04x] differed.", i),
+					reference.encrypt(plain[i]), cipher[i]);
+		}
+		
+		assertArrayEquals("Decryption did not invert encryption.", plain, back);
+		assertEquals("Known vector did not match.", Long.valueOf("8035", 16).longValue(), cipher[0xab06]);
+	}
+	
+	@Test
+	public void testRandomNetworksMatch()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		
+		// Batch lengths that are not a multiple of 64 exercise the padded final pass.
+		int[][] shapes = {{24, 3, 100}, {32, 8, 64}, {48, 4, 129}, {64, 4, 500}, {64, 8, 70}};
+		
+		for(int[] shape: shapes)
+		{
+			SPNetwork network = SPNetworkTests.randomNetwork(r, shape[0], shape[1], 4);
+			BitslicedSPNetwork engine = new BitslicedSPNetwork(network);
+			long blockMask = (shape[0] == Long.SIZE) ? -1L : (1L<<shape[0])-1;
+			
+			long[] plain = new long[shape[2]];
+			for(int i=0; i<plain.length; i++)
+				plain[i] = r.nextLong()&blockMask;
+			
+			long[] cipher = new long[plain.length];
+			long[] back   = new long[plain.length];
+			engine.encrypt(plain, cipher);
+			engine.decrypt(cipher, back);
+			
+			for(int i=0; i<plain.length; i++)
+			{
+				assertEquals(String.format("%d-bit network with %d-bit boxes encrypted [%x] differently.", shape[0], shape[1], plain[i]),
+						network.encrypt(plain[i]), cipher[i]);
+			}
+			
+			assertArrayEquals(String.format("%d-bit network with %d-bit boxes did not invert.", shape[0], shape[1]),
+					plain, back);
+		}
+	}
+	
+	@Test
+	public void testNetworkBatchesRouteThroughSlices()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		
+		// Small chunks split the batch off slice boundaries.
+		BatchExecutor executor = new BatchExecutor(4, 50);
+		
+		for(int blockSize: new int[]{16, 32, 64})
+		{
+			SPNetwork network = SPNetworkTests.randomNetwork(r, blockSize, 4, 4);
+			long blockMask = (blockSize == Long.SIZE) ? -1L : (1L<<blockSize)-1;
+			
+			assertTrue(String.format("%d-bit network with 4-bit boxes was not bitsliced.", blockSize),
+					BitslicedSPNetwork.isFasterFor(network));
+			
+			long[] plain = new long[1000];
+			for(int i=0; i<plain.length; i++)
+				plain[i] = r.nextLong()&blockMask;
+			
+			long[] cipher = new long[plain.length];
+			long[] back   = new long[plain.length];
+			network.encryptAll(plain, cipher, executor);
+			network.decryptAll(cipher, back, executor);
+			
+			// Buffers are read and written from their positions.
+			LongBuffer in  = LongBuffer.allocate(plain.length+3);
+			LongBuffer out = LongBuffer.allocate(plain.length+7);
+			in.position(3);
+			in.duplicate().put(plain);
+			out.position(7);
+			network.encryptAll(in, out, executor);
+			
+			for(int i=0; i<plain.length; i++)
+			{
+				assertEquals(String.format("%d-bit batch encrypted [%x] differently.", blockSize, plain[i]),
+						network.encrypt(plain[i]), cipher[i]);
+				assertEquals(String.format("%d-bit buffer batch encrypted [%x] differently.", blockSize, plain[i]),
+						cipher[i], out.get(7+i));
+			}
+			
+			assertArrayEquals(String.format("%d-bit batch did not invert.", blockSize), plain, back);
+		}
+		
+		assertFalse("Network with 8-bit boxes was bitsliced.",
+				BitslicedSPNetwork.isFasterFor(SPNetworkTests.randomNetwork(r, 32, 8, 4)));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+
+import net.mjcarpenter.maledict.util.BitUtils;
+
+public final class BlockTests
+{
+	@Test
+	public void testByteRoundTrip()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		
+		for(int numBytes: new int[]{1, 2, 8, 9, 16, 32})
+		{
+			byte[] in = new byte[numBytes];
+			r.nextBytes(in);
+			
+			Block block = Block.valueOf(in);
+			
+			assertEquals("Block width did not match byte length.", numBytes*Byte.SIZE, block.bitSize());
+			assertArrayEquals(String.format("Bytes [%s] did not survive conversion.", DatatypeConverter.printHexBinary(in)),
+					in, block.toByteArray());
+		}
+	}
+	
+	@Test
+	public void testNarrowBlockMatchesLong()
+	throws Exception
+	{
+		byte[] in = new byte[]{(byte)0xab, (byte)0x06};
+		
+		assertEquals("Single-lane block did not match the long value.",
+				BitUtils.byteToLong(in), Block.valueOf(in).longValue());
+	}
+	
+	@Test
+	public void testLaneOrder()
+	throws Exception
+	{
+		byte[] in = DatatypeConverter.parseHexBinary("0123456789abcdeffedcba9876543210");
+		Block block = Block.valueOf(in);
+		
+		assertEquals("Low lane did not hold the last eight bytes.", 0xfedcba9876543210L, block.lane(0));
+		assertEquals("High lane did not hold the first eight bytes.", 0x0123456789abcdefL, block.lane(1));
+		assertEquals("Hex form did not match input.", "0123456789abcdeffedcba9876543210", block.toString());
+	}
+	
+	@Test
+	public void testBitsAcrossLanes()
+	throws Exception
+	{
+		Block block = Block.zero(128).withBits(62, 4, 0xF);
+		
+		assertEquals("Straddling read did not return written bits.", 0xF, block.bits(62, 4));
+		assertEquals("Low lane did not hold the lower two bits.", 0xC000000000000000L, block.lane(0));
+		assertEquals("High lane did not hold the upper two bits.", 0x3L, block.lane(1));
+		assertTrue("Bit 63 was not set.", block.getBit(63));
+		assertTrue("Bit 64 was not set.", block.getBit(64));
+		assertFalse("Bit 66 was set.", block.getBit(66));
+		
+		assertTrue("Clearing the bits did not return zero.", block.withBits(62, 4, 0).isZero());
+	}
+	
+	@Test
+	public void testMaskedParity()
+	throws Exception
+	{
+		Block value = Block.ofLanes(128, 0x1L, 0x1L);
+		
+		assertFalse("Two set bits gave odd parity.", value.maskedParity(Block.ofLanes(128, -1L, -1L)));
+		assertTrue("One masked bit gave even parity.", value.maskedParity(Block.ofLanes(128, 0x0L, 0x1L)));
+	}
+	
+	@Test
+	public void testCompareIsUnsigned()
+	throws Exception
+	{
+		Block high = Block.ofLanes(128, 0x0L, 0x8000000000000000L);
+		Block low  = Block.ofLanes(128, -1L, 0x7FFFFFFFFFFFFFFFL);
+		
+		assertTrue("High lane was not compared first.", high.compareTo(low) > 0);
+		assertTrue("Lower block compared greater.", low.compareTo(high) < 0);
+		assertEquals("Equal blocks did not compare equal.", 0, high.compareTo(Block.ofLanes(128, 0x0L, 0x8000000000000000L)));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testMismatchedLanesRejected()
+	throws Exception
+	{
+		Block.zero(128).xor(Block.zero(64));
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CipherSpecializerTests
+{
+	private SPNetwork spn;
+	private LongBlockCipher specialized;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+		specialized = CipherSpecializer.specialize(spn);
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+		specialized = null;
+	}
+	
+	@Test
+	public void testGeneratedClassUsed()
+	throws Exception
+	{
+		assertFalse("Sample network fell back to the interpreted engine.", specialized instanceof SPNetwork);
+		assertEquals("Generated class reported the wrong block size.", spn.getBlockSize(), specialized.getBlockSize());
+	}
+	
+	@Test
+	public void testFullCodebookMatchesNetwork()
+	throws Exception
+	{
+		for(long in=0; in<(1<<16); in++)
+		{
+			assertEquals(String.format("Encryption of [%04x] differed.", in),
+					spn.encrypt(in), specialized.encrypt(in));
+			assertEquals(String.format("Decryption of [%04x] differed.", in),
+					spn.decrypt(in), specialized.decrypt(in));
+		}
+	}
+	
+	@Test
+	public void testRandomNetworksMatch()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		int[][] shapes = {{8, 4}, {24, 3}, {32, 8}, {48, 4}, {64, 4}, {64, 8}};
+		
+		for(int[] shape: shapes)
+		{
+			SPNetwork network = SPNetworkTests.randomNetwork(r, shape[0], shape[1], 4);
+			LongBlockCipher engine = CipherSpecializer.specialize(network);
+			long blockMask = (shape[0] == Long.SIZE) ? -1L : (1L<<shape[0])-1;
+			
+			assertFalse(String.format("%d-bit network fell back to the interpreted engine.", shape[0]),
+					engine instanceof SPNetwork);
+			
+			for(int i=0; i<200; i++)
+			{
+				long in = r.nextLong()&blockMask;
+				long out = engine.encrypt(in);
+				
+				assertEquals(String.format("%d-bit network with %d-bit boxes encrypted [%x] differently.", shape[0], shape[1], in),
+						network.encrypt(in), out);
+				assertEquals(String.format("%d-bit network with %d-bit boxes did not invert [%x].", shape[0], shape[1], out),
+						in, engine.decrypt(out));
+			}
+		}
+	}
+	
+	@Test
+	public void testCacheKeyedByContent()
+	throws Exception
+	{
+		SPNetwork copy = SPNetworkTests.sampleNetwork();
+		
+		assertEquals("Equal networks had different digests.", spn.contentDigest(), copy.contentDigest());
+		assertSame("Equal networks did not share a generated cipher.", specialized, CipherSpecializer.specialize(copy));
+		
+		Round[] rounds = copy.getRounds().clone();
+		rounds[0] = rounds[0].replaceKey(new Key(new byte[]{(byte)0x12, (byte)0x34}));
+		SPNetwork changed = new SPNetwork(copy.getBlockSize(), rounds);
+		
+		assertNotEquals("Changing a key did not change the digest.", spn.contentDigest(), changed.contentDigest());
+		assertEquals("Changed network's generated cipher did not follow its key.",
+				changed.encrypt(0xab06L), CipherSpecializer.specialize(changed).encrypt(0xab06L));
+	}
+	
+	@Test
+	public void testConcurrentSpecializationShared()
+	throws Exception
+	{
+		int threads = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		
+		try
+		{
+			// Fresh content each time, so every attempt starts from an empty cache entry.
+			for(long seed=0; seed<10; seed++)
+			{
+				CountDownLatch start = new CountDownLatch(1);
+				List<Future<LongBlockCipher>> results = new ArrayList<Future<LongBlockCipher>>();
+				
+				for(int t=0; t<threads; t++)
+				{
+					SPNetwork network = SPNetworkTests.randomNetwork(new Random(0xC0DEL+seed), 32, 4, 4);
+					results.add(pool.submit(() ->
+					{
+						start.await();
+						return CipherSpecializer.specialize(network);
+					}));
+				}
+				
+				start.countDown();
+				
+				LongBlockCipher first = results.get(0).get();
+				for(Future<LongBlockCipher> result: results)
+				{
+					LongBlockCipher engine = result.get();
+					
+					assertFalse(String.format("Network %d fell back to the interpreted engine.", seed), engine instanceof SPNetwork);
+					assertSame(String.format("Network %d was not shared across threads.", seed), first, engine);
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testWideBlockFallsBack()
+	throws Exception
+	{
+		SPNetwork wide = SPNetwork.noop(128, 4, 2);
+		
+		assertSame("Wide network was not returned as-is.", wide, CipherSpecializer.specialize(wide));
+	}
+}
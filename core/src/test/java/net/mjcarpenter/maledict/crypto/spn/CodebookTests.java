@@ -0,0 +1,170 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CodebookTests
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private SPNetwork spn;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+	}
+	
+	@Test
+	public void testCodebookMatchesNetwork()
+	throws Exception
+	{
+		Codebook book = Codebook.build(spn, BatchExecutor.getDefault());
+		
+		for(long in=0; in<(1<<16); in++)
+		{
+			assertEquals(String.format("Codebook encryption of [%04x] differed.", in),
+					spn.encrypt(in), book.encrypt(in));
+			assertEquals(String.format("Codebook decryption of [%04x] differed.", in),
+					spn.decrypt(in), book.decrypt(in));
+		}
+	}
+	
+	@Test
+	public void testBitsAboveBlockIgnored()
+	throws Exception
+	{
+		Codebook book = Codebook.build(spn, BatchExecutor.getDefault());
+		Random   rand = new Random(0x5EEDL);
+		
+		for(int i=0; i<1000; i++)
+		{
+			long in = rand.nextLong();
+			
+			assertEquals(String.format("Codebook encryption of [%016x] differed.", in),
+					spn.compiled().encrypt(in), book.encrypt(in));
+			assertEquals(String.format("Codebook decryption of [%016x] differed.", in),
+					spn.compiled().decrypt(in), book.decrypt(in));
+		}
+	}
+	
+	@Test
+	public void testCodebookModeMatchesNetwork()
+	throws Exception
+	{
+		SPNetwork reference = SPNetworkTests.sampleNetwork();
+		spn.enableCodebook();
+		
+		assertTrue("Codebook mode was not enabled.", spn.isCodebookEnabled());
+		assertArrayEquals("Byte array encryption did not use the same codebook.",
+				new byte[]{(byte)0x80,(byte)0x35}, spn.encrypt(new byte[]{(byte)0xab,(byte)0x06}));
+		
+		long[] in  = new long[1<<16];
+		long[] out = new long[1<<16];
+		for(int i=0; i<in.length; i++)
+			in[i] = i;
+		
+		spn.encryptAll(in, out);
+		
+		for(int i=0; i<in.length; i++)
+		{
+			assertEquals(String.format("Batch encryption of [%04x] differed.", i), reference.encrypt(in[i]), out[i]);
+			assertEquals(String.format("Decryption of [%04x] differed.", i), reference.decrypt(in[i]), spn.decrypt(in[i]));
+		}
+	}
+	
+	@Test
+	public void testCodebookInvalidatedByReplacedRound()
+	throws Exception
+	{
+		spn.enableCodebook();
+		long before = spn.encrypt(0xab06L);
+		
+		spn.getRounds()[0] = spn.getRounds()[0].replaceKey(new Key(new byte[]{(byte)0x12, (byte)0x34}));
+		spn.disableCodebook();
+		long expected = spn.encrypt(0xab06L);
+		spn.enableCodebook();
+		
+		assertTrue("Replacing the key did not change the ciphertext.", before != expected);
+		assertEquals("Codebook mode used a stale codebook.", expected, spn.encrypt(0xab06L));
+	}
+	
+	@Test
+	public void testPersistedCodebookIsMapped()
+	throws Exception
+	{
+		Path dir = folder.getRoot().toPath();
+		spn.enableCodebook(dir);
+		
+		Path file = dir.resolve(spn.contentDigest()+".codebook");
+		assertTrue("Codebook was not written.", Files.isRegularFile(file));
+		
+		long modified = Files.getLastModifiedTime(file).toMillis();
+		Codebook mapped = Codebook.open(SPNetworkTests.sampleNetwork(), file, BatchExecutor.getDefault());
+		
+		assertEquals("Existing codebook was rewritten.", modified, Files.getLastModifiedTime(file).toMillis());
+		for(long in=0; in<(1<<16); in++)
+		{
+			assertEquals(String.format("Mapped encryption of [%04x] differed.", in), spn.encrypt(in), mapped.encrypt(in));
+			assertEquals(String.format("Mapped decryption of [%04x] differed.", in), spn.decrypt(in), mapped.decrypt(in));
+		}
+	}
+	
+	@Test
+	public void testMismatchedFileRebuilt()
+	throws Exception
+	{
+		Path file = folder.getRoot().toPath().resolve("shared.codebook");
+		Codebook.open(spn, file, BatchExecutor.getDefault());
+		
+		SPNetwork other = SPNetworkTests.randomNetwork(new Random(0x5eed), 16, 4, 4);
+		Codebook book = Codebook.open(other, file, BatchExecutor.getDefault());
+		
+		assertEquals("Codebook for another network was reused.", other.contentDigest(), book.getDigest());
+		assertEquals("Rebuilt codebook did not match its network.", other.encrypt(0xab06L), book.encrypt(0xab06L));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testWideBlockRejected()
+	throws Exception
+	{
+		SPNetwork.noop(32, 4, 2).enableCodebook();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CompiledSPNetworkTests
+{
+	private SPNetwork spn;
+	private CompiledSPNetwork compiled;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+		compiled = new CompiledSPNetwork(spn);
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+		compiled = null;
+	}
+	
+	@Test
+	public void testKnownVector()
+	throws Exception
+	{
+		long plaintext  = Long.valueOf("ab06", 16);
+		long ciphertext = Long.valueOf("8035", 16);
+		
+		assertEquals("Ciphertext did not match expected result.",
+				ciphertext, compiled.encrypt(plaintext));
+		assertEquals("Plaintext did not match expected result.",
+				plaintext, compiled.decrypt(ciphertext));
+	}
+	
+	@Test
+	public void testFullCodebookMatchesNetwork()
+	throws Exception
+	{
+		for(long in=0; in<(1<<16); in++)
+		{
+			assertEquals(String.format("Encryption of [%04x] differed.", in),
+					spn.encrypt(in), compiled.encrypt(in));
+			assertEquals(String.format("Decryption of [%04x] differed.", in),
+					spn.decrypt(in), compiled.decrypt(in));
+		}
+	}
+	
+	@Test
+	public void testRandomNetworksMatch()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		
+		// Odd-width boxes straddle byte boundaries; 8-bit boxes exercise the full byte range.
+		int[][] shapes = {{24, 3}, {32, 8}, {48, 4}, {64, 4}, {64, 8}};
+		
+		for(int[] shape: shapes)
+		{
+			SPNetwork network = SPNetworkTests.randomNetwork(r, shape[0], shape[1], 4);
+			CompiledSPNetwork engine = new CompiledSPNetwork(network);
+			long blockMask = (shape[0] == Long.SIZE) ? -1L : (1L<<shape[0])-1;
+			
+			for(int i=0; i<200; i++)
+			{
+				long in = r.nextLong()&blockMask;
+				long out = engine.encrypt(in);
+				
+				assertEquals(String.format("%d-bit network with %d-bit boxes encrypted [%x] differently.", shape[0], shape[1], in),
+						network.encrypt(in), out);
+				assertEquals(String.format("%d-bit network with %d-bit boxes did not invert [%x].", shape[0], shape[1], out),
+						in, engine.decrypt(out));
+			}
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testWideBlockRejected()
+	throws Exception
+	{
+		new CompiledSPNetwork(SPNetwork.noop(128, 4, 2));
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mjcarpenter.maledict.util.BitUtils;
+
+public final class KnownPairBlockTests
+{
+	private SPNetwork spn;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+	}
+	
+	@Test
+	public void testGeneratedPairsEncrypt()
+	throws Exception
+	{
+		for(KnownPairBlock pairs: new KnownPairBlock[]{KnownPairBlock.generate(5000, spn), KnownPairBlock.generateDirect(5000, spn)})
+		{
+			assertEquals("Store held the wrong number of pairs.", 5000, pairs.size());
+			
+			for(int i=0; i<pairs.size(); i++)
+			{
+				assertEquals(String.format("Pair %d did not encrypt its plaintext.", i),
+						spn.encrypt(pairs.getPlaintext(i)), pairs.getCiphertext(i));
+			}
+		}
+	}
+	
+	@Test
+	public void testListRoundTrip()
+	throws Exception
+	{
+		List<KnownPair> list = KnownPair.generatePairs(100, spn);
+		KnownPairBlock pairs = KnownPairBlock.of(list, spn.getBlockSize());
+		List<KnownPair> back = pairs.toList();
+		
+		for(int i=0; i<list.size(); i++)
+		{
+			assertEquals(String.format("Plaintext %d did not match.", i),
+					BitUtils.byteToLong(list.get(i).getPlaintext()), pairs.getPlaintext(i));
+			assertArrayEquals(String.format("Ciphertext %d did not survive the round trip.", i),
+					list.get(i).getCiphertext(), back.get(i).getCiphertext());
+		}
+	}
+	
+	@Test
+	public void testChosenPairsHoldDifference()
+	throws Exception
+	{
+		ChosenPairBlock pairs = ChosenPairBlock.generateDirect(5000, 0x0b00L, spn);
+		
+		for(int i=0; i<pairs.size(); i++)
+		{
+			assertEquals(String.format("Pair %d did not differ by the mask.", i),
+					0x0b00L, pairs.getPlaintextA(i)^pairs.getPlaintextB(i));
+			assertEquals(String.format("Pair %d A did not encrypt its plaintext.", i),
+					spn.encrypt(pairs.getPlaintextA(i)), pairs.getCiphertextA(i));
+			assertEquals(String.format("Pair %d B did not encrypt its plaintext.", i),
+					spn.encrypt(pairs.getPlaintextB(i)), pairs.getCiphertextB(i));
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testWideBlockRejected()
+	throws Exception
+	{
+		KnownPairBlock.allocate(10, 128);
+	}
+}
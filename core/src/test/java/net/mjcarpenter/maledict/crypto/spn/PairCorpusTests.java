@@ -0,0 +1,121 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class PairCorpusTests
+{
+	private static final long SEED = 0x1234_5678L;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private SPNetwork spn;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+	}
+	
+	@Test
+	public void testKnownCorpusMatchesGenerator()
+	throws Exception
+	{
+		Path file = folder.getRoot().toPath().resolve("known.corpus");
+		PairCorpus.createKnown(file, spn, 20000, SEED);
+		
+		PairCorpus     corpus   = PairCorpus.open(file);
+		KnownPairBlock expected = new PairGenerator(SEED).generateKnown(20000, spn);
+		KnownPairBlock actual   = corpus.knownPairs();
+		
+		assertEquals("Header lost the pair type.", PairCorpus.PairType.KNOWN, corpus.getPairType());
+		assertEquals("Header lost the seed.", SEED, corpus.getSeed());
+		assertTrue("Corpus did not recognise its network.", corpus.isFor(spn));
+		assertEquals("Corpus held the wrong number of pairs.", 20000, actual.size());
+		
+		for(int i=0; i<actual.size(); i++)
+		{
+			assertEquals(String.format("Plaintext %d differed from the generator.", i),
+					expected.getPlaintext(i), actual.getPlaintext(i));
+			assertEquals(String.format("Ciphertext %d differed from the generator.", i),
+					expected.getCiphertext(i), actual.getCiphertext(i));
+		}
+	}
+	
+	@Test
+	public void testChosenCorpusHoldsDifference()
+	throws Exception
+	{
+		Path            file  = folder.getRoot().toPath().resolve("chosen.corpus");
+		ChosenPairBlock pairs = PairCorpus.createChosen(file, spn, 5000, 0x0b00L, SEED).chosenPairs();
+		
+		for(int i=0; i<pairs.size(); i++)
+		{
+			assertEquals(String.format("Pair %d did not differ by the mask.", i),
+					0x0b00L, pairs.getPlaintextA(i)^pairs.getPlaintextB(i));
+			assertEquals(String.format("Pair %d B did not encrypt its plaintext.", i),
+					spn.encrypt(pairs.getPlaintextB(i)), pairs.getCiphertextB(i));
+		}
+	}
+	
+	@Test
+	public void testOpenReusesMatchingFile()
+	throws Exception
+	{
+		Path file = folder.getRoot().toPath().resolve("reuse.corpus");
+		PairCorpus.openKnown(file, spn, 1000, SEED);
+		long written = Files.getLastModifiedTime(file).toMillis();
+		
+		Files.setLastModifiedTime(file, FileTime.fromMillis(written-10000));
+		PairCorpus.openKnown(file, spn, 1000, SEED);
+		assertEquals("Matching corpus was regenerated.", written-10000, Files.getLastModifiedTime(file).toMillis());
+		
+		PairCorpus other = PairCorpus.openKnown(file, spn, 1000, SEED+1);
+		assertEquals("Corpus with another seed was reused.", SEED+1, other.getSeed());
+		assertNotEquals("Corpus with another seed was not rewritten.", written-10000, Files.getLastModifiedTime(file).toMillis());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testWrongPairTypeRejected()
+	throws Exception
+	{
+		PairCorpus.createKnown(folder.getRoot().toPath().resolve("typed.corpus"), spn, 10, SEED).chosenPairs();
+	}
+}
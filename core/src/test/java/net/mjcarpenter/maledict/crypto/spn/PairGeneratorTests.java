@@ -0,0 +1,166 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class PairGeneratorTests
+{
+	private static final int  COUNT = 50000;
+	private static final long SEED  = 0x5EED_1234_ABCDL;
+	
+	private SPNetwork     spn;
+	private BatchExecutor serial;
+	private BatchExecutor parallel;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn      = SPNetworkTests.sampleNetwork();
+		serial   = new BatchExecutor(1, COUNT);
+		parallel = new BatchExecutor(4, 1000);
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn      = null;
+		serial   = null;
+		parallel = null;
+	}
+	
+	@Test
+	public void testSameSeedSameCorpus()
+	throws Exception
+	{
+		for(RandomSource source: new RandomSource[]{RandomSource.xoshiro(SEED), RandomSource.splittable(SEED)})
+		{
+			KnownPairBlock expected = new PairGenerator(source, serial).generateKnown(COUNT, spn);
+			KnownPairBlock actual   = new PairGenerator(source, parallel).generateKnownDirect(COUNT, spn);
+			
+			for(int i=0; i<COUNT; i++)
+			{
+				assertEquals(String.format("Plaintext %d depended on the thread count.", i),
+						expected.getPlaintext(i), actual.getPlaintext(i));
+				assertEquals(String.format("Ciphertext %d did not encrypt its plaintext.", i),
+						spn.encrypt(actual.getPlaintext(i)), actual.getCiphertext(i));
+			}
+		}
+	}
+	
+	@Test
+	public void testDifferentSeedsDiffer()
+	throws Exception
+	{
+		KnownPairBlock a = new PairGenerator(SEED).generateKnown(64, spn);
+		KnownPairBlock b = new PairGenerator(SEED+1).generateKnown(64, spn);
+		
+		boolean same = true;
+		for(int i=0; i<64; i++)
+			same &= (a.getPlaintext(i) == b.getPlaintext(i));
+		
+		assertFalse("Adjacent seeds gave the same corpus.", same);
+	}
+	
+	@Test
+	public void testChosenPairsReproducible()
+	throws Exception
+	{
+		ChosenPairBlock expected = new PairGenerator(RandomSource.xoshiro(SEED), serial).generateChosen(COUNT, 0x0b00L, spn);
+		ChosenPairBlock actual   = new PairGenerator(RandomSource.xoshiro(SEED), parallel).generateChosen(COUNT, 0x0b00L, spn);
+		
+		for(int i=0; i<COUNT; i++)
+		{
+			assertEquals(String.format("Plaintext %d depended on the thread count.", i),
+					expected.getPlaintextA(i), actual.getPlaintextA(i));
+			assertEquals(String.format("Pair %d did not differ by the mask.", i),
+					0x0b00L, actual.getPlaintextA(i)^actual.getPlaintextB(i));
+			assertEquals(String.format("Ciphertext %d B did not encrypt its plaintext.", i),
+					spn.encrypt(actual.getPlaintextB(i)), actual.getCiphertextB(i));
+		}
+	}
+	
+	@Test
+	public void testStructuredPairs()
+	throws Exception
+	{
+		long[]          diffs  = new long[]{0x0b00L, 0x0600L};
+		ChosenPairBlock pairs  = new PairGenerator(SEED).generateStructured(COUNT, diffs, spn);
+		ChosenPairBlock again  = new PairGenerator(RandomSource.xoshiro(SEED), parallel).generateStructured(COUNT, diffs, spn);
+		long            active = PairGenerator.structureMask(diffs, 4, 16);
+		
+		assertEquals("Structure did not cover the touched S-box.", 0x0f00L, active);
+		assertEquals("Store held the wrong number of pairs.", COUNT, pairs.size());
+		
+		for(int i=0; i<COUNT; i++)
+		{
+			long diff = pairs.getPlaintextA(i)^pairs.getPlaintextB(i);
+			
+			assertTrue(String.format("Pair %d had difference [%04x].", i, diff), diff == 0x0b00L || diff == 0x0600L);
+			assertEquals(String.format("Pair %d A did not encrypt its plaintext.", i),
+					spn.encrypt(pairs.getPlaintextA(i)), pairs.getCiphertextA(i));
+			assertEquals(String.format("Pair %d B did not encrypt its plaintext.", i),
+					spn.encrypt(pairs.getPlaintextB(i)), pairs.getCiphertextB(i));
+			assertEquals(String.format("Pair %d depended on the thread count.", i),
+					pairs.getPlaintextA(i), again.getPlaintextA(i));
+		}
+		
+		// 16 plaintexts per structure give 8 pairs for each difference.
+		for(int i=0; i<16; i++)
+		{
+			assertEquals(String.format("Pair %d left its structure.", i),
+					pairs.getPlaintextA(0)&~active, pairs.getPlaintextA(i)&~active);
+		}
+		
+		assertNotEquals("Second structure reused the first's base.",
+				pairs.getPlaintextA(0)&~active, pairs.getPlaintextA(16)&~active);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testStructureRejectsZeroDifference()
+	throws Exception
+	{
+		new PairGenerator(SEED).generateStructured(100, new long[]{0}, spn);
+	}
+	
+	@Test
+	public void testSeededListsReproducible()
+	throws Exception
+	{
+		List<KnownPair> a = KnownPair.generatePairs(1000, spn, SEED);
+		List<KnownPair> b = KnownPair.generatePairs(1000, spn, SEED);
+		
+		for(int i=0; i<a.size(); i++)
+		{
+			assertArrayEquals(String.format("Pair %d was not reproduced.", i),
+					a.get(i).getPlaintext(), b.get(i).getPlaintext());
+		}
+	}
+}
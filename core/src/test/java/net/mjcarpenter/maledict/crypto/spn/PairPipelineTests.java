@@ -0,0 +1,117 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class PairPipelineTests
+{
+	private static final int  COUNT = 40*PairSource.CHUNK_SIZE + 17;
+	private static final long SEED  = 0xFEEDL;
+	
+	private SPNetwork spn;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+	}
+	
+	@Test
+	public void testRingIsFifoAndBounded()
+	throws Exception
+	{
+		BatchRing<Integer> ring = new BatchRing<Integer>(4);
+		
+		for(int lap=0; lap<3; lap++)
+		{
+			for(int i=0; i<4; i++)
+				assertTrue(String.format("Ring refused item %d with room left.", i), ring.offer(i));
+			
+			assertTrue("Full ring accepted another item.", !ring.offer(99));
+			assertEquals("Ring reported the wrong depth.", 4, ring.size());
+			
+			for(int i=0; i<4; i++)
+				assertEquals("Ring did not return items in order.", Integer.valueOf(i), ring.poll());
+			
+			assertNull("Empty ring returned an item.", ring.poll());
+		}
+	}
+	
+	@Test
+	public void testEveryChunkConsumedOnce()
+	throws Exception
+	{
+		KnownPairBlock expected = new PairGenerator(SEED).generateKnown(COUNT, spn);
+		
+		long expectedSum = 0;
+		for(int i=0; i<COUNT; i++)
+			expectedSum += expected.getCiphertext(i);
+		
+		// A ring far smaller than the source, so producers must wait on consumers.
+		PairPipeline<KnownPairBlock> pipeline = new PairPipeline<KnownPairBlock>(3, 2, 2);
+		List<AtomicLong> sums = pipeline.run(PairSource.generateKnown(spn, COUNT, SEED), AtomicLong::new, (sum, chunk) ->
+		{
+			for(int i=0; i<chunk.size(); i++)
+				sum.addAndGet(chunk.getCiphertext(i));
+		});
+		
+		long actualSum = 0;
+		for(AtomicLong sum: sums)
+			actualSum += sum.get();
+		
+		assertEquals("Consumers held the wrong number of states.", 2, sums.size());
+		assertEquals("Pipeline did not consume every pair exactly once.", expectedSum, actualSum);
+		assertEquals("Pipeline produced the wrong number of chunks.", 41, pipeline.getChunksProduced());
+		assertTrue("Ring grew past its capacity.", pipeline.getMaxQueueDepth() <= 2);
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testConsumerFailurePropagates()
+	throws Exception
+	{
+		new PairPipeline<KnownPairBlock>(1, 2, 8).run(PairSource.generateKnown(spn, COUNT, SEED), Object::new, (state, chunk) ->
+		{
+			throw new IllegalStateException("Consumer failed!");
+		});
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testCapacityMustBePowerOfTwo()
+	throws Exception
+	{
+		new PairPipeline<KnownPairBlock>(1, 1, 3);
+	}
+}
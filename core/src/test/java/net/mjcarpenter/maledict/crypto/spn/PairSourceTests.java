@@ -0,0 +1,105 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Spliterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class PairSourceTests
+{
+	private static final int  COUNT = 3*PairSource.CHUNK_SIZE + 123;
+	private static final long SEED  = 0xC0FFEEL;
+	
+	private SPNetwork spn;
+	
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		spn = SPNetworkTests.sampleNetwork();
+	}
+	
+	@After
+	public void tearDown()
+	throws Exception
+	{
+		spn = null;
+	}
+	
+	@Test
+	public void testGeneratedSourceMatchesGenerator()
+	throws Exception
+	{
+		KnownPairBlock expected = new PairGenerator(SEED).generateKnown(COUNT, spn);
+		int[] next = new int[1];
+		
+		PairSource.generateKnown(spn, COUNT, SEED).spliterator().forEachRemaining(chunk ->
+		{
+			for(int i=0; i<chunk.size(); i++, next[0]++)
+			{
+				assertEquals(String.format("Plaintext %d differed from the generator.", next[0]),
+						expected.getPlaintext(next[0]), chunk.getPlaintext(i));
+				assertEquals(String.format("Ciphertext %d differed from the generator.", next[0]),
+						expected.getCiphertext(next[0]), chunk.getCiphertext(i));
+			}
+		});
+		
+		assertEquals("Source did not yield every pair.", COUNT, next[0]);
+	}
+	
+	@Test
+	public void testSplitsOnChunkBoundaries()
+	throws Exception
+	{
+		ChosenPairBlock              pairs  = new PairGenerator(SEED).generateChosen(COUNT, 0x0b00L, spn);
+		Spliterator<ChosenPairBlock> suffix = PairSource.of(pairs).spliterator();
+		Spliterator<ChosenPairBlock> prefix = suffix.trySplit();
+		
+		assertEquals("Chunks were not divided evenly.", 2, prefix.estimateSize());
+		
+		long[] first = new long[1];
+		suffix.tryAdvance(chunk -> first[0] = chunk.getPlaintextA(0));
+		assertEquals("Suffix did not begin on a chunk boundary.", pairs.getPlaintextA(2*PairSource.CHUNK_SIZE), first[0]);
+	}
+	
+	@Test
+	public void testParallelPassCoversSource()
+	throws Exception
+	{
+		KnownPairBlock pairs = new PairGenerator(SEED).generateKnown(COUNT, spn);
+		
+		long expected = 0;
+		for(int i=0; i<COUNT; i++)
+			expected += pairs.getCiphertext(i);
+		
+		long actual = PairSource.of(pairs).chunks(true).mapToLong(chunk ->
+		{
+			long sum = 0;
+			for(int i=0; i<chunk.size(); i++)
+				sum += chunk.getCiphertext(i);
+			return sum;
+		}).sum();
+		
+		assertEquals("Parallel pass did not see every pair once.", expected, actual);
+	}
+}
@@ -20,6 +20,8 @@ package net.mjcarpenter.maledict.crypto.spn;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
 import javax.xml.bind.DatatypeConverter;
 
 import org.junit.After;
@@ -142,4 +144,105 @@ public final class PermutationTests
 				expectedE,
 				outE);
 	}
+	
+	@Test
+	public void testByteInputNotMutated()
+	throws Exception
+	{
+		byte[] input = {(byte)0xab,(byte)0x6f};
+		
+		perm.permuteFwd(input);
+		perm.permuteRev(input);
+		
+		assertArrayEquals("Permutation modified its input array.",
+				new byte[]{(byte)0xab,(byte)0x6f}, input);
+	}
+	
+	@Test
+	public void testCompiledNetworkMatchesMapping()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		int[] sizes = {8, 16, 24, 40, 64};
+		
+		for(int size: sizes)
+		{
+			int[] map = new int[size];
+			for(int i=0; i<size; i++)
+				map[i] = i;
+			
+			for(int i=size-1; i>0; i--)
+			{
+				int j = r.nextInt(i+1);
+				int tmp = map[i];
+				map[i] = map[j];
+				map[j] = tmp;
+			}
+			
+			Permutation random = new Permutation(map);
+			long blockMask = (size == Long.SIZE) ? -1L : (1L<<size)-1;
+			
+			for(int trial=0; trial<500; trial++)
+			{
+				long in = r.nextLong()&blockMask;
+				
+				long expected = 0;
+				for(int i=0; i<size; i++)
+					expected |= ((in>>>i)&0x1L)<<map[i];
+				
+				long out = random.permuteFwd(in);
+				
+				assertEquals(String.format("%d-bit permutation of [%x] failed.", size, in),
+						expected, out);
+				assertEquals(String.format("%d-bit reverse permutation of [%x] failed.", size, out),
+						in, random.permuteRev(out));
+			}
+		}
+	}
+	
+	@Test
+	public void testLaneTablesMatchMapping()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		int[] sizes = {72, 128, 256};
+		
+		for(int size: sizes)
+		{
+			int[] map = new int[size];
+			for(int i=0; i<size; i++)
+				map[i] = i;
+			
+			for(int i=size-1; i>0; i--)
+			{
+				int j = r.nextInt(i+1);
+				int tmp = map[i];
+				map[i] = map[j];
+				map[j] = tmp;
+			}
+			
+			Permutation random = new Permutation(map);
+			
+			for(int trial=0; trial<100; trial++)
+			{
+				byte[] bytes = new byte[size/Byte.SIZE];
+				r.nextBytes(bytes);
+				Block in = Block.valueOf(bytes);
+				
+				Block expected = Block.zero(size);
+				for(int i=0; i<size; i++)
+				{
+					if(in.getBit(i))
+						expected = expected.withBits(map[i], 1, 1);
+				}
+				
+				Block out = random.permuteFwd(in);
+				
+				assertEquals(String.format("%d-bit permutation of [%s] failed.", size, in),
+						expected, out);
+				assertEquals(String.format("%d-bit reverse permutation of [%s] failed.", size, out),
+						in, random.permuteRev(out));
+			}
+		}
+	}
 }
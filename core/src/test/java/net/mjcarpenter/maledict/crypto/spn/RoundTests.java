@@ -18,6 +18,10 @@
 package net.mjcarpenter.maledict.crypto.spn;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
@@ -27,6 +31,7 @@ import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
 import net.mjcarpenter.maledict.crypto.spn.SBox;
+import net.mjcarpenter.maledict.util.BitUtils;
 
 public final class RoundTests
 {
@@ -70,4 +75,68 @@ public final class RoundTests
 		assertArrayEquals("Output did not match expected value.",
 				output, expected);
 	}
+	
+	@Test
+	public void testRoundLong()
+	throws Exception
+	{
+		long input    = Long.valueOf("ab06", 16);
+		long expected = Long.valueOf("6d29", 16);
+		
+		assertEquals("Output did not match expected value.",
+				expected, round.processLong(input));
+		assertEquals("Inversion did not restore input.",
+				input, round.invertLong(expected));
+	}
+	
+	@Test
+	public void testLongMatchesByteForAllInputs()
+	throws Exception
+	{
+		for(int i=0; i<(1<<16); i++)
+		{
+			byte[] bytes = BitUtils.longToByte(i, 2);
+			
+			assertEquals(String.format("Processing of [%04x] differed.", i),
+					BitUtils.byteToLong(round.process(bytes)), round.processLong(i));
+			assertEquals(String.format("Inversion of [%04x] differed.", i),
+					BitUtils.byteToLong(round.invert(bytes)), round.invertLong(i));
+		}
+	}
+	
+	@Test
+	public void testBatchMatchesSingleBlocks()
+	throws Exception
+	{
+		// Batch engines exist only on runtimes that load the multi-release variant.
+		Random r = new Random(0x5eed);
+		Round[] rounds = {round, SPNetworkTests.randomNetwork(r, 24, 4, 1).getRounds()[0],
+				SPNetworkTests.randomNetwork(r, 64, 4, 1).getRounds()[0]};
+		
+		for(Round each: rounds)
+		{
+			RoundBatch batch = RoundBatches.forRound(each);
+			assumeTrue(batch != null);
+			
+			long   blockMask = (each.bitLength() == Long.SIZE) ? -1L : (1L<<each.bitLength())-1;
+			long[] blocks    = new long[1003];
+			for(int i=0; i<blocks.length; i++)
+				blocks[i] = r.nextLong()&blockMask;
+			
+			long[] processed = blocks.clone();
+			batch.process(processed, 1, blocks.length);
+			
+			long[] inverted = processed.clone();
+			batch.invert(inverted, 1, blocks.length);
+			
+			assertEquals("Batch touched a block outside its range.", blocks[0], processed[0]);
+			for(int i=1; i<blocks.length; i++)
+			{
+				assertEquals(String.format("%d-bit batch processed [%x] differently.", each.bitLength(), blocks[i]),
+						each.processLong(blocks[i]), processed[i]);
+				assertEquals(String.format("%d-bit batch did not invert [%x].", each.bitLength(), processed[i]),
+						blocks[i], inverted[i]);
+			}
+		}
+	}
 }
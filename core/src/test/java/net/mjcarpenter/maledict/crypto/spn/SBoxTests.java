@@ -20,6 +20,7 @@ package net.mjcarpenter.maledict.crypto.spn;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
 
 import org.junit.After;
 import org.junit.Before;
@@ -119,6 +120,45 @@ public final class SBoxTests
 		
 	}
 	
+	@Test
+	public void testInverseIsCached()
+	throws Exception
+	{
+		SBox inverse = sbox.invert();
+		
+		assertSame("Inverting twice built a new SBox.", inverse, sbox.invert());
+		assertSame("Inverse of the inverse was not the original SBox.", sbox, inverse.invert());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testRepeatedOutputRejected()
+	throws Exception
+	{
+		new SBox(0xE, 0x4, 0xD, 0x1, 0x2, 0xF, 0xB, 0x8, 0x3, 0xA, 0x6, 0xC, 0x5, 0x9, 0x0, 0xE);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testOutOfRangeOutputRejected()
+	throws Exception
+	{
+		new SBox(0xE, 0x4, 0xD, 0x1, 0x2, 0xF, 0xB, 0x8, 0x3, 0xA, 0x6, 0xC, 0x5, 0x9, 0x0, 0x10);
+	}
+	
+	@Test
+	public void testSubInverseMatchesInvertedBox()
+	throws Exception
+	{
+		SBox inverse = sbox.invert();
+		
+		for(int i=0; i<16; i++)
+		{
+			assertEquals(String.format("Inverse substitution of [%x] did not match inverted SBox.", i),
+					inverse.sub(i), sbox.subInverse(i));
+			assertEquals(String.format("Inverse substitution did not undo substitution of [%x].", i),
+					i, sbox.subInverse(sbox.sub(i)));
+		}
+	}
+	
 	@Test
 	public void testSBoxMakesCorrectLAT()
 	throws Exception
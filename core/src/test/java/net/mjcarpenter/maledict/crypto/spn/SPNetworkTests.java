@@ -19,16 +19,30 @@ package net.mjcarpenter.maledict.crypto.spn;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.After;
 import org.junit.Test;
 
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.Converter;
+
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
 import net.mjcarpenter.maledict.crypto.spn.SBox;
 import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
+import net.mjcarpenter.maledict.util.BitUtils;
+import net.mjcarpenter.maledict.util.HexByteConverter;
 
 public final class SPNetworkTests
 {
@@ -100,6 +114,249 @@ public final class SPNetworkTests
 				expected, plaintext);
 	}
 	
+	@Test
+	public void testLongPathMatchesBytePath()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		int[][] shapes = {{16, 4}, {24, 3}, {32, 8}, {64, 4}};
+		
+		for(int[] shape: shapes)
+		{
+			SPNetwork network = randomNetwork(r, shape[0], shape[1], 4);
+			
+			for(int i=0; i<200; i++)
+			{
+				byte[] plain = new byte[shape[0]/Byte.SIZE];
+				r.nextBytes(plain);
+				
+				long plainLong  = BitUtils.byteToLong(plain);
+				long cipherLong = network.encrypt(plainLong);
+				
+				assertEquals(String.format("%d-bit long encryption of [%x] differed.", shape[0], plainLong),
+						BitUtils.byteToLong(network.encrypt(plain)), cipherLong);
+				assertEquals(String.format("%d-bit long decryption of [%x] did not invert.", shape[0], cipherLong),
+						plainLong, network.decrypt(cipherLong));
+			}
+		}
+	}
+	
+	@Test
+	public void testWideBlockPathMatchesBytePath()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		
+		// 72 bits leaves a partial top lane; 3-bit boxes straddle lane boundaries.
+		int[][] shapes = {{16, 4}, {72, 4}, {96, 3}, {128, 4}, {128, 8}, {256, 4}};
+		
+		for(int[] shape: shapes)
+		{
+			SPNetwork network = randomNetwork(r, shape[0], shape[1], 4);
+			
+			for(int i=0; i<50; i++)
+			{
+				byte[] plain = new byte[shape[0]/Byte.SIZE];
+				r.nextBytes(plain);
+				
+				Block plainBlock  = Block.valueOf(plain);
+				Block cipherBlock = network.encrypt(plainBlock);
+				
+				assertArrayEquals(String.format("%d-bit block encryption of [%s] differed.", shape[0], plainBlock),
+						network.encrypt(plain), cipherBlock.toByteArray());
+				assertEquals(String.format("%d-bit block decryption of [%s] did not invert.", shape[0], cipherBlock),
+						plainBlock, network.decrypt(cipherBlock));
+				assertEquals(String.format("%d-bit round of [%s] differed.", shape[0], plainBlock),
+						Block.valueOf(network.getRounds()[0].process(plain)), network.getRounds()[0].process(plainBlock));
+			}
+		}
+	}
+	
+	@Test
+	public void testBatchMatchesSingleBlocks()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		SPNetwork network = randomNetwork(r, 32, 4, 4);
+		
+		// A tiny chunk size forces the batch to be split many times over.
+		BatchExecutor executor = new BatchExecutor(4, 64);
+		
+		long[] plain = new long[10000];
+		for(int i=0; i<plain.length; i++)
+			plain[i] = r.nextLong()&0xFFFFFFFFL;
+		
+		long[] cipher = new long[plain.length];
+		network.encryptAll(plain, cipher, executor);
+		
+		for(int i=0; i<plain.length; i++)
+		{
+			assertEquals(String.format("Batch encryption of [%x] differed.", plain[i]),
+					network.encrypt(plain[i]), cipher[i]);
+		}
+		
+		network.decryptAll(cipher, cipher, executor);
+		assertArrayEquals("In-place batch decryption did not invert.", plain, cipher);
+	}
+	
+	@Test
+	public void testBufferBatchMatchesSingleBlocks()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		BatchExecutor executor = new BatchExecutor(3, 16);
+		
+		LongBuffer in  = ByteBuffer.allocateDirect(1000*Long.BYTES).asLongBuffer();
+		LongBuffer out = ByteBuffer.allocateDirect(1010*Long.BYTES).asLongBuffer();
+		while(in.hasRemaining())
+			in.put(r.nextInt(1<<16));
+		
+		// Start part-way in to check that positions are honoured.
+		in.position(10);
+		out.position(20);
+		spn.encryptAll(in, out, executor);
+		
+		assertEquals("Input position was not advanced.", 1000, in.position());
+		assertEquals("Output position was not advanced.", 1010, out.position());
+		
+		for(int i=0; i<990; i++)
+		{
+			assertEquals(String.format("Buffer encryption of [%04x] differed.", in.get(10+i)),
+					spn.encrypt(in.get(10+i)), out.get(20+i));
+		}
+	}
+	
+	@Test
+	public void testBatchSeesReplacedRound()
+	throws Exception
+	{
+		long[] before = new long[1<<16];
+		long[] after  = new long[1<<16];
+		for(int i=0; i<before.length; i++)
+			before[i] = i;
+		
+		spn.encryptAll(before, after);
+		
+		// Replacing a round through the live array must not leave a stale compiled engine behind.
+		spn.getRounds()[0] = spn.getRounds()[0].replaceKey(new Key(new byte[]{(byte)0x12, (byte)0x34}));
+		spn.encryptAll(before, after);
+		
+		for(int i=0; i<before.length; i++)
+		{
+			assertEquals(String.format("Batch encryption of [%04x] used a stale engine.", i),
+					spn.encrypt(before[i]), after[i]);
+		}
+	}
+	
+	@Test
+	public void testRoundRangesComposeToNetwork()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		SPNetwork network = randomNetwork(r, 32, 4, 5);
+		
+		for(int i=0; i<200; i++)
+		{
+			long in  = r.nextLong()&0xFFFFFFFFL;
+			long mid = network.encryptRounds(0, 2, in);
+			long out = network.encryptRounds(2, 5, mid);
+			
+			assertEquals(String.format("Split encryption of [%08x] differed.", in), network.encrypt(in), out);
+			assertEquals(String.format("Suffix decryption of [%08x] differed.", out), mid, network.decryptRounds(2, 5, out));
+			assertEquals(String.format("Prefix decryption of [%08x] differed.", mid), in, network.decryptRounds(0, 2, mid));
+			assertEquals(String.format("Empty range changed [%08x].", in), in, network.encryptRounds(3, 3, in));
+		}
+	}
+	
+	@Test
+	public void testSkippedKeyMatchesNoopKeyRound()
+	throws Exception
+	{
+		Round round   = spn.getRounds()[3];
+		Round keyless = round.replaceKey(Key.noop(16));
+		
+		for(long in=0; in<(1<<16); in++)
+		{
+			assertEquals(String.format("Keyless decryption of [%04x] differed.", in),
+					keyless.invertLong(in), spn.decryptRounds(3, 4, in, true));
+			assertEquals(String.format("Keyless encryption of [%04x] differed.", in),
+					keyless.processLong(in), spn.encryptRounds(3, 4, in, true));
+		}
+	}
+	
+	@Test
+	public void testRoundRangeCachedUntilRoundReplaced()
+	throws Exception
+	{
+		LongBlockCipher before = spn.getRoundRange(1, 3, false);
+		
+		assertTrue("Range engine was not cached.", before == spn.getRoundRange(1, 3, false));
+		
+		spn.getRounds()[2] = spn.getRounds()[2].replaceKey(new Key(new byte[]{(byte)0x12, (byte)0x34}));
+		LongBlockCipher after = spn.getRoundRange(1, 3, false);
+		
+		assertTrue("Range engine survived a replaced round.", before != after);
+		assertEquals("Range engine did not follow the replaced round.",
+				spn.getRounds()[2].processLong(spn.getRounds()[1].processLong(0xab06L)), after.encrypt(0xab06L));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testRoundRangeOutOfBoundsRejected()
+	throws Exception
+	{
+		spn.encryptRounds(2, 6, 0L);
+	}
+	
+	@Test
+	public void testLongPathDoesNotAllocate()
+	throws Exception
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		
+		com.sun.management.ThreadMXBean allocs = (com.sun.management.ThreadMXBean)threads;
+		assumeTrue(allocs.isThreadAllocatedMemorySupported() && allocs.isThreadAllocatedMemoryEnabled());
+		
+		long threadId = Thread.currentThread().getId();
+		long sink = 0;
+		
+		// Warm up so that class loading and compilation are not counted.
+		for(int i=0; i<20000; i++)
+			sink ^= spn.decrypt(spn.encrypt(i));
+		
+		long before = allocs.getThreadAllocatedBytes(threadId);
+		for(int i=0; i<100000; i++)
+			sink ^= spn.decrypt(spn.encrypt(i));
+		long after  = allocs.getThreadAllocatedBytes(threadId);
+		
+		// A single allocation per call would account for megabytes here.
+		assertTrue(String.format("Long encryption path allocated %d bytes (sink %d).", after-before, sink),
+				after-before < 1024);
+	}
+	
+	@Test
+	public void testXStreamRoundTripRebuildsDerivedState()
+	throws Exception
+	{
+		XStream xs = new XStream();
+		xs.processAnnotations(SPNetwork.class);
+		xs.processAnnotations(Round.class);
+		xs.processAnnotations(Key.class);
+		xs.registerLocalConverter(Key.class, "key", (Converter)(new HexByteConverter()));
+		xs.processAnnotations(Permutation.class);
+		xs.processAnnotations(SBox.class);
+		
+		SPNetwork loaded = (SPNetwork)xs.fromXML(xs.toXML(spn));
+		
+		for(int i=0; i<(1<<16); i+=0x111)
+		{
+			assertEquals(String.format("Reloaded network encrypted [%04x] differently.", i),
+					spn.encrypt(i), loaded.encrypt(i));
+			assertEquals(String.format("Reloaded network decrypted [%04x] differently.", i),
+					spn.decrypt(i), loaded.decrypt(i));
+		}
+	}
+	
 	public static SPNetwork sampleNetwork()
 	{
 		Permutation first3Rounds = new Permutation(0,4,8,12,1,5,9,13,2,6,10,14,3,7,11,15);
@@ -126,4 +383,42 @@ public final class SPNetworkTests
 		
 		return new SPNetwork(16, new Round[]{round1, round2, round3, round4, round5});
 	}
+	
+	public static SPNetwork randomNetwork(final Random r, final int blockSize, final int boxBits, final int numRounds)
+	{
+		Round[] rounds = new Round[numRounds];
+		
+		for(int i=0; i<numRounds; i++)
+		{
+			SBox[] boxes = new SBox[blockSize/boxBits];
+			for(int j=0; j<boxes.length; j++)
+			{
+				boxes[j] = new SBox(shuffledIdentity(r, 1<<boxBits));
+			}
+			
+			byte[] key = new byte[blockSize/Byte.SIZE];
+			r.nextBytes(key);
+			
+			rounds[i] = new Round(blockSize, new Key(key), new Permutation(shuffledIdentity(r, blockSize)), boxes);
+		}
+		
+		return new SPNetwork(blockSize, rounds);
+	}
+	
+	private static int[] shuffledIdentity(final Random r, final int length)
+	{
+		int[] map = new int[length];
+		for(int i=0; i<length; i++)
+			map[i] = i;
+		
+		for(int i=length-1; i>0; i--)
+		{
+			int j = r.nextInt(i+1);
+			int tmp = map[i];
+			map[i] = map[j];
+			map[j] = tmp;
+		}
+		
+		return map;
+	}
 }
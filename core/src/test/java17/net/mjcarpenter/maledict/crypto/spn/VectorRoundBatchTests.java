@@ -0,0 +1,143 @@
+/*
+ * Maledict - An Interactive Tool for Learning Linear and Differential Cryptanalysis of SPNs
+ * Copyright (C) 2016  Mike Carpenter
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.mjcarpenter.maledict.crypto.spn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.incubator.vector.LongVector;
+
+/**
+ * Runs against the Java 17 classes, with {@code jdk.incubator.vector} added
+ * to the runtime, so that {@link RoundBatches} hands out vector engines.
+ */
+public final class VectorRoundBatchTests
+{
+	@Before
+	public void setUp()
+	throws Exception
+	{
+		// The engine needs vectors that hold a 16-entry byte table.
+		assumeTrue("Vectors on this hardware are too narrow.", LongVector.SPECIES_PREFERRED.vectorByteSize() >= 16);
+	}
+	
+	@Test
+	public void testSupportedRoundsBatched()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		
+		for(int blockSize: new int[]{16, 24, 32, 64})
+		{
+			for(Round round: SPNetworkTests.randomNetwork(r, blockSize, 4, 4).getRounds())
+			{
+				assertNotNull(String.format("%d-bit round with 4-bit boxes had no vector engine.", blockSize),
+						RoundBatches.forRound(round));
+			}
+		}
+	}
+	
+	@Test
+	public void testUnsupportedRoundsFallBack()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		int[][] shapes = {{24, 3}, {32, 8}, {64, 8}, {32, 2}};
+		
+		for(int[] shape: shapes)
+		{
+			Round round = SPNetworkTests.randomNetwork(r, shape[0], shape[1], 1).getRounds()[0];
+			assertNull(String.format("%d-bit round with %d-bit boxes was given a vector engine.", shape[0], shape[1]),
+					RoundBatches.forRound(round));
+		}
+		
+		assertNull("Round wider than 64 bits was given a vector engine.",
+				RoundBatches.forRound(SPNetwork.noop(128, 4, 1).getRounds()[0]));
+	}
+	
+	@Test
+	public void testRoundBatchMatchesRound()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		
+		for(int blockSize: new int[]{16, 32, 64})
+		{
+			Round round = SPNetworkTests.randomNetwork(r, blockSize, 4, 1).getRounds()[0];
+			RoundBatch batch = RoundBatches.forRound(round);
+			long blockMask = (blockSize == Long.SIZE) ? -1L : (1L<<blockSize)-1;
+			
+			long[] blocks = new long[203];
+			for(int i=0; i<blocks.length; i++)
+				blocks[i] = r.nextLong()&blockMask;
+			
+			// An unaligned range exercises the scalar head and tail around the vector loop.
+			long[] processed = blocks.clone();
+			batch.process(processed, 3, 200);
+			
+			for(int i=0; i<blocks.length; i++)
+			{
+				long expected = (i < 3 || i >= 200) ? blocks[i] : round.processLong(blocks[i]);
+				assertEquals(String.format("%d-bit round processed block %d [%x] differently.", blockSize, i, blocks[i]),
+						expected, processed[i]);
+			}
+			
+			batch.invert(processed, 3, 200);
+			assertArrayEquals(String.format("%d-bit round did not invert.", blockSize), blocks, processed);
+		}
+	}
+	
+	@Test
+	public void testNetworkBatchesMatchScalar()
+	throws Exception
+	{
+		Random r = new Random(0x5eed);
+		BatchExecutor executor = new BatchExecutor(4, 50);
+		
+		for(int blockSize: new int[]{16, 32, 64})
+		{
+			SPNetwork network = SPNetworkTests.randomNetwork(r, blockSize, 4, 4);
+			long blockMask = (blockSize == Long.SIZE) ? -1L : (1L<<blockSize)-1;
+			
+			long[] plain = new long[1000];
+			for(int i=0; i<plain.length; i++)
+				plain[i] = r.nextLong()&blockMask;
+			
+			long[] cipher = new long[plain.length];
+			long[] back   = new long[plain.length];
+			network.encryptAll(plain, cipher, executor);
+			network.decryptAll(cipher, back, executor);
+			
+			for(int i=0; i<plain.length; i++)
+			{
+				assertEquals(String.format("%d-bit network encrypted [%x] differently.", blockSize, plain[i]),
+						network.encrypt(plain[i]), cipher[i]);
+			}
+			
+			assertArrayEquals(String.format("%d-bit network did not invert.", blockSize), plain, back);
+		}
+	}
+}
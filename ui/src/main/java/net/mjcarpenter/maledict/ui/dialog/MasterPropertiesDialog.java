@@ -170,15 +170,13 @@ public class MasterPropertiesDialog extends JDialog implements ActionListener
 						"ERROR",
 						JOptionPane.ERROR_MESSAGE);
 			}
-			else if(blockSize > Long.SIZE)
+			else if(blockSize > Long.SIZE && blockSize%Byte.SIZE != 0)
 			{
-				// We represent rounds using longs in some places, so the bit length
-				// of a long needs to be a hard size-limit on block size. Since this
-				// is usually 64 bits it's not a big deal, as trying to cryptanalyze
-				// a 64-bit cipher with this tool would be prohibitively cumbersome.
+				// Blocks wider than a long are held as multiple 64-bit lanes, which
+				// are converted to and from byte arrays, so they must be whole bytes.
 				
 				JOptionPane.showMessageDialog(this,
-						"Block sizes greater than " + Long.SIZE + " are not supported.",
+						"Block sizes greater than " + Long.SIZE + " must be a multiple of " + Byte.SIZE + ".",
 						"ERROR",
 						JOptionPane.ERROR_MESSAGE);
 			}
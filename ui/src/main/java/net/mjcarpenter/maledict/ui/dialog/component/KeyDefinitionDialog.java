@@ -21,6 +21,7 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.math.BigInteger;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -32,7 +33,6 @@ import javax.xml.bind.DatatypeConverter;
 
 import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.ui.message.help.HelpMessageConstants;
-import net.mjcarpenter.maledict.util.BitUtils;
 
 @SuppressWarnings("serial")
 public class KeyDefinitionDialog extends ComponentDefinitionDialog<Key> implements ActionListener
@@ -98,19 +98,34 @@ public class KeyDefinitionDialog extends ComponentDefinitionDialog<Key> implemen
 	@Override
 	public boolean validateComponent()
 	{
-		String fieldKey = jtfKey.getText().trim();
-		long keyLongVal = Integer.MAX_VALUE;
+		return parseKey(jtfKey.getText().trim()) != null;
+	}
+	
+	private byte[] parseKey(String fieldKey)
+	{
+		// Parsed as a BigInteger so that keys wider than a long can be entered.
+		BigInteger keyVal;
 		
 		try
 		{
-			keyLongVal = Long.parseLong(fieldKey, 16);
+			keyVal = new BigInteger(fieldKey, 16);
 		}
 		catch(NumberFormatException nfe)
 		{
-			return false;
+			return null;
 		}
 		
-		return keyLongVal < (1<<component.length());
+		if(keyVal.signum() < 0 || keyVal.bitLength() > component.length())
+		{
+			return null;
+		}
+		
+		byte[] raw = keyVal.toByteArray();
+		byte[] out = new byte[component.length()/Byte.SIZE];
+		int copy = Math.min(raw.length, out.length);
+		System.arraycopy(raw, raw.length-copy, out, out.length-copy, copy);
+		
+		return out;
 	}
 	
 	@Override
@@ -120,9 +135,7 @@ public class KeyDefinitionDialog extends ComponentDefinitionDialog<Key> implemen
 		{
 			if(validateComponent())
 			{
-				long keyLongVal = Long.parseLong(jtfKey.getText().trim(), 16);
-				
-				component = new Key(BitUtils.longToByte(keyLongVal, component.length()/Byte.SIZE));
+				component = new Key(parseKey(jtfKey.getText().trim()));
 				this.dispose();
 			}
 			else
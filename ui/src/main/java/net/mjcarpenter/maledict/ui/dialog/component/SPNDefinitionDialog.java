@@ -26,7 +26,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Map;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.imageio.ImageIO;
 import javax.swing.JDialog;
@@ -50,11 +51,17 @@ import net.mjcarpenter.maledict.crypto.ldc.AbstractApproximation;
 import net.mjcarpenter.maledict.crypto.ldc.AbstractKeyBiasExtractor;
 import net.mjcarpenter.maledict.crypto.ldc.DifferentialApproximation;
 import net.mjcarpenter.maledict.crypto.ldc.DifferentialKeyBiasExtractor;
+import net.mjcarpenter.maledict.crypto.ldc.KeyBiasScores;
 import net.mjcarpenter.maledict.crypto.ldc.LinearApproximation;
 import net.mjcarpenter.maledict.crypto.ldc.LinearKeyBiasExtractor;
+import net.mjcarpenter.maledict.crypto.spn.BatchExecutor;
 import net.mjcarpenter.maledict.crypto.spn.ChosenPair;
+import net.mjcarpenter.maledict.crypto.spn.ChosenPairBlock;
 import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.crypto.spn.KnownPair;
+import net.mjcarpenter.maledict.crypto.spn.KnownPairBlock;
+import net.mjcarpenter.maledict.crypto.spn.PairPipeline;
+import net.mjcarpenter.maledict.crypto.spn.PairSource;
 import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.SBox;
 import net.mjcarpenter.maledict.crypto.spn.SPNComponent;
@@ -237,7 +244,7 @@ public class SPNDefinitionDialog extends ComponentDefinitionDialog<SPNetwork> im
 		ApproximationDialog appxDlg                = null;
 		AbstractKeyBiasExtractor<?> kbe            = null;
 		KeyExtractionProgressDialog progDlg        = null;
-		SwingWorker<Map<Key, Double>, Void> worker = null;
+		SwingWorker<KeyBiasScores, Void> worker = null;
 		
 		if(LinearApproximation.class.equals(clz))
 		{
@@ -246,23 +253,38 @@ public class SPNDefinitionDialog extends ComponentDefinitionDialog<SPNetwork> im
 			{
 				appx = appxDlg.getCipherApproximation();
 				kbe  = new LinearKeyBiasExtractor(component.getRounds()[appxDlg.getLastRow()+1], (LinearApproximation)appx);
+				kbe.setKeyExecutor(new BatchExecutor(ForkJoinPool.commonPool(), 1));
 				progDlg = new KeyExtractionProgressDialog(this, kbe);
 				
 				final KeyExtractionProgressDialog finProg = progDlg;
 				final LinearKeyBiasExtractor lkbe = (LinearKeyBiasExtractor)kbe;
-				worker = new SwingWorker<Map<Key, Double>, Void>()
+				worker = new SwingWorker<KeyBiasScores, Void>()
 				{
 					@Override
-					protected Map<Key, Double> doInBackground() throws Exception
+					protected KeyBiasScores doInBackground() throws Exception
 					{
-						lkbe.generateBiases(
-								KnownPair.generatePairs(10000, component),
-								(keyProg, keyMax, pairProg, pairMax) ->
-								{
-									finProg.progress(keyProg, keyMax, pairProg, pairMax);
-								});
+						if(lkbe.supportsPairSources())
+						{
+							// Generate pairs while earlier ones are being counted.
+							lkbe.generateBiases(
+									PairSource.generateKnown(component, 10000, new SecureRandom().nextLong()),
+									PairPipeline.<KnownPairBlock>forProcessors(),
+									(keyProg, keyMax, pairProg, pairMax) ->
+									{
+										finProg.progress(keyProg, keyMax, pairProg, pairMax);
+									});
+						}
+						else
+						{
+							lkbe.generateBiases(
+									KnownPair.generatePairs(10000, component),
+									(keyProg, keyMax, pairProg, pairMax) ->
+									{
+										finProg.progress(keyProg, keyMax, pairProg, pairMax);
+									});
+						}
 						
-						return lkbe.getBiasMap();
+						return lkbe.getScores();
 					}
 				};
 			}
@@ -274,23 +296,38 @@ public class SPNDefinitionDialog extends ComponentDefinitionDialog<SPNetwork> im
 			{
 				appx = appxDlg.getCipherApproximation();
 				kbe  = new DifferentialKeyBiasExtractor(component.getRounds()[appxDlg.getLastRow()+1], (DifferentialApproximation)appx);
+				kbe.setKeyExecutor(new BatchExecutor(ForkJoinPool.commonPool(), 1));
 				progDlg = new KeyExtractionProgressDialog(this, kbe);
 				
 				final KeyExtractionProgressDialog finProg = progDlg;
 				final DifferentialApproximation dappx   = (DifferentialApproximation)appx;
 				final DifferentialKeyBiasExtractor dkbe = (DifferentialKeyBiasExtractor)kbe;
-				worker = new SwingWorker<Map<Key, Double>, Void>()
+				worker = new SwingWorker<KeyBiasScores, Void>()
 				{
 					@Override
-					protected Map<Key, Double> doInBackground() throws Exception
+					protected KeyBiasScores doInBackground() throws Exception
 					{
-						dkbe.generateBiases(ChosenPair.generatePairs(5000, dappx.getPlaintextMask(), component),
-								(keyProg, keyMax, pairProg, pairMax) ->
-								{
-									finProg.progress(keyProg, keyMax, pairProg, pairMax);
-								});
+						if(dkbe.supportsPairSources())
+						{
+							// Generate pairs while earlier ones are being counted.
+							dkbe.generateBiases(
+									PairSource.generateChosen(component, 5000, dappx.getPlaintextMask(), new SecureRandom().nextLong()),
+									PairPipeline.<ChosenPairBlock>forProcessors(),
+									(keyProg, keyMax, pairProg, pairMax) ->
+									{
+										finProg.progress(keyProg, keyMax, pairProg, pairMax);
+									});
+						}
+						else
+						{
+							dkbe.generateBiases(ChosenPair.generatePairs(5000, dappx.getPlaintextMaskBlock(), component),
+									(keyProg, keyMax, pairProg, pairMax) ->
+									{
+										finProg.progress(keyProg, keyMax, pairProg, pairMax);
+									});
+						}
 						
-						return dkbe.getBiasMap();
+						return dkbe.getScores();
 					}
 				};
 			}
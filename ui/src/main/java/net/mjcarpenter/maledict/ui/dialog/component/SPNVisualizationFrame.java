@@ -21,6 +21,7 @@ import java.awt.image.BufferedImage;
 
 import javax.swing.JFrame;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
 import net.mjcarpenter.maledict.ui.geom.SPNShape;
 
@@ -50,7 +51,7 @@ public class SPNVisualizationFrame extends JFrame
 		revalidate();
 	}
 	
-	public void colorVisualization(long[] inMask, long[] outMask)
+	public void colorVisualization(Block[] inMask, Block[] outMask)
 	{
 		shape.applyRoundMasks(inMask, outMask);
 	}
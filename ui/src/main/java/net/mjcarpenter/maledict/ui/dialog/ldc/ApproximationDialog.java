@@ -22,6 +22,7 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -34,6 +35,7 @@ import javax.swing.JPanel;
 import javax.swing.border.EmptyBorder;
 
 import net.mjcarpenter.maledict.crypto.ldc.AbstractApproximation;
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.SBox;
 import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
 import net.mjcarpenter.maledict.reports.SBoxReport;
@@ -44,8 +46,8 @@ import net.mjcarpenter.maledict.ui.util.MasterPropertiesCache;
 @SuppressWarnings("serial")
 public abstract class ApproximationDialog extends JDialog implements ActionListener
 {
-	protected long[] roundInMasks;
-	protected long[] roundOutMasks;
+	protected Block[] roundInMasks;
+	protected Block[] roundOutMasks;
 	
 	protected SPNetwork   spn;
 	protected CoordinateToggleButton[][] boxButtons;
@@ -68,8 +70,10 @@ public abstract class ApproximationDialog extends JDialog implements ActionListe
 		
 		this.msg = null;
 		this.spn = network;
-		this.roundInMasks  = new long[spn.getRounds().length];
-		this.roundOutMasks = new long[spn.getRounds().length];
+		this.roundInMasks  = new Block[spn.getRounds().length];
+		this.roundOutMasks = new Block[spn.getRounds().length];
+		Arrays.fill(roundInMasks, Block.zero(spn.getBlockSize()));
+		Arrays.fill(roundOutMasks, Block.zero(spn.getBlockSize()));
 		this.boxButtons = new CoordinateToggleButton[spn.getRounds().length][spn.getRounds()[0].getSBoxes().length];
 		this.successful = false;
 		this.reports = new HashMap<CoordinateToggleButton, SBoxReport>();
@@ -190,7 +194,7 @@ public abstract class ApproximationDialog extends JDialog implements ActionListe
 		return getCipherApproximation(roundInMasks[0], roundInMasks[lastRow+1]);
 	}
 	
-	public abstract AbstractApproximation getCipherApproximation(long plaintextMask, long lastRoundMask);
+	public abstract AbstractApproximation getCipherApproximation(Block plaintextMask, Block lastRoundMask);
 	protected abstract TableSelectionDialog createTableSelectionDialog(SBox box, long mask);
 	protected abstract void handleHelp();
 	
@@ -228,19 +232,16 @@ public abstract class ApproximationDialog extends JDialog implements ActionListe
 			SBox relevantBox = getBoxForButton(btn);
 			
 			int shift = relevantBox.bitSize()*(boxButtons[btn.row].length-(btn.col+1));
-			long boxMask = ((1<<relevantBox.bitSize())-1)<<shift;
+			int width = relevantBox.bitSize();
 						
 			if(btn.isSelected())
 			{
-				long shiftedMask = (roundInMasks[btn.row]&boxMask) >>> shift;
+				long shiftedMask = roundInMasks[btn.row].bits(shift, width);
 								
 				TableSelectionDialog ad = createTableSelectionDialog(relevantBox, shiftedMask);
 				
 				if(ad.hasSelection())
 				{
-					long inMask = ad.getSelectedIn()<<shift;
-					long outMask = ad.getSelectedOut()<<shift;
-					
 					SBoxReport relevantReport = new SBoxReport(getTableFor(relevantBox),
 							ad.getSelectedIn(), ad.getSelectedOut(), btn.row, btn.col, true);
 					
@@ -248,25 +249,27 @@ public abstract class ApproximationDialog extends JDialog implements ActionListe
 										
 					if(btn.row == 0)
 					{
-						roundInMasks[btn.row] ^= inMask;
+						roundInMasks[btn.row] = roundInMasks[btn.row].withBits(shift, width,
+								roundInMasks[btn.row].bits(shift, width)^ad.getSelectedIn());
 					}
 					
-					roundOutMasks[btn.row] ^= outMask;
+					roundOutMasks[btn.row] = roundOutMasks[btn.row].withBits(shift, width,
+							roundOutMasks[btn.row].bits(shift, width)^ad.getSelectedOut());
 				}
 				else
 				{
 					btn.setSelected(false);
 					reports.remove(btn);
-					if(btn.row == 0) roundInMasks[0] &= (~boxMask);
-					roundOutMasks[btn.row] &= (~boxMask);
+					if(btn.row == 0) roundInMasks[0] = roundInMasks[0].withBits(shift, width, 0);
+					roundOutMasks[btn.row] = roundOutMasks[btn.row].withBits(shift, width, 0);
 				}
 				
 				ad.dispose();
 			}
 			else
 			{
-				if(btn.row == 0) roundInMasks[0] &= (~boxMask);
-				roundOutMasks[btn.row] &= (~boxMask);
+				if(btn.row == 0) roundInMasks[0] = roundInMasks[0].withBits(shift, width, 0);
+				roundOutMasks[btn.row] = roundOutMasks[btn.row].withBits(shift, width, 0);
 				reports.remove(btn);
 			}
 			
@@ -279,8 +282,7 @@ public abstract class ApproximationDialog extends JDialog implements ActionListe
 			{
 				int eachBitSize = getBoxForButton(each).bitSize();
 				int eachShift = eachBitSize*(boxButtons[each.row].length-(each.col+1));
-				long mask = ((1<<eachBitSize)-1)<<eachShift;
-				each.setEnabled(each.row == 0 || (roundInMasks[each.row]&mask) != 0);
+				each.setEnabled(each.row == 0 || roundInMasks[each.row].bits(eachShift, eachBitSize) != 0);
 			}
 			
 			MasterPropertiesCache.getInstance().colorVisualization(roundInMasks, roundOutMasks);
@@ -19,6 +19,7 @@ package net.mjcarpenter.maledict.ui.dialog.ldc;
 
 import net.mjcarpenter.maledict.crypto.ldc.AbstractApproximation;
 import net.mjcarpenter.maledict.crypto.ldc.LinearApproximation;
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.SBox;
 import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
 import net.mjcarpenter.maledict.ui.message.help.HelpMessageConstants;
@@ -38,7 +39,7 @@ public final class LinearApproximationDialog extends ApproximationDialog
 	}
 	
 	@Override
-	public AbstractApproximation getCipherApproximation(long plaintextMask, long lastRoundMask)
+	public AbstractApproximation getCipherApproximation(Block plaintextMask, Block lastRoundMask)
 	{
 		return new LinearApproximation(plaintextMask, lastRoundMask);
 	}
@@ -27,12 +27,14 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.swing.JPanel;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.SPNetwork;
 
 @SuppressWarnings("serial")
@@ -46,8 +48,8 @@ public final class SPNShape extends JPanel
 	private static final float  LINE_WEIGHT_NORMAL = 2.0f;
 	private static final float  LINE_WEIGHT_HIGHLT = 3.0f;
 	
-	private long[] roundInMasks;
-	private long[] roundOutMasks;
+	private Block[] roundInMasks;
+	private Block[] roundOutMasks;
 	
 	private Map<Shape, Color> colorMap;
 	private Collection<Line2D>      lines;
@@ -60,8 +62,8 @@ public final class SPNShape extends JPanel
 	public SPNShape(SPNetwork spn)
 	{
 		this.spn = spn;
-		this.roundInMasks = new long[this.spn.getRounds().length];
-		this.roundOutMasks = new long[this.spn.getRounds().length];
+		this.roundInMasks = emptyMasks();
+		this.roundOutMasks = emptyMasks();
 		scaleTo(getSize());
 		build();
 		setVisible(true);
@@ -69,13 +71,20 @@ public final class SPNShape extends JPanel
 	
 	public void clearRoundMasks()
 	{
-		this.roundInMasks  = new long[spn.getRounds().length];
-		this.roundOutMasks = new long[spn.getRounds().length];
+		this.roundInMasks  = emptyMasks();
+		this.roundOutMasks = emptyMasks();
 		
 		build();
 	}
 	
-	public void applyRoundMasks(long[] roundInMasks, long[] roundOutMasks)
+	private Block[] emptyMasks()
+	{
+		Block[] masks = new Block[spn.getRounds().length];
+		Arrays.fill(masks, Block.zero(spn.getBlockSize()));
+		return masks;
+	}
+	
+	public void applyRoundMasks(Block[] roundInMasks, Block[] roundOutMasks)
 	{
 		this.roundInMasks  = roundInMasks;
 		this.roundOutMasks = roundOutMasks;
@@ -101,7 +110,7 @@ public final class SPNShape extends JPanel
 				{
 					double x = j*WIDTH_PER_BIT+1;
 					int maskShift = bitWidth-j-1;
-					Color bitColor = ((roundInMasks[i]>>>maskShift)&0x1) == 0 ? Color.BLACK : Color.BLUE;
+					Color bitColor = !roundInMasks[i].getBit(maskShift) ? Color.BLACK : Color.BLUE;
 					
 					Line2D lineA = new Line2D.Double(x, curHeight, x, curHeight+LENGTH_SEGMENT);
 					Line2D lineB = new Line2D.Double(x, curHeight+HEIGHT_KEY, x, curHeight+(HEIGHT_KEY-LENGTH_SEGMENT));
@@ -140,8 +149,8 @@ public final class SPNShape extends JPanel
 					{
 						int maskShift = bitWidth-(sbx + k)-1;
 						
-						boolean isInColor  = ((roundInMasks[i]>>maskShift)&0x1)  != 0;
-						boolean isOutColor = ((roundOutMasks[i]>>maskShift)&0x1) != 0;
+						boolean isInColor  = roundInMasks[i].getBit(maskShift);
+						boolean isOutColor = roundOutMasks[i].getBit(maskShift);
 						
 						Color bitInColor  = isInColor  ? Color.BLUE : Color.BLACK;
 						Color bitOutColor = isOutColor ? Color.BLUE : Color.BLACK;
@@ -173,7 +182,7 @@ public final class SPNShape extends JPanel
 				for(int j=0; j<bitWidth; j++)
 				{
 					int maskShift = bitWidth-j-1;
-					Color bitColor = ((roundOutMasks[i]>>maskShift)&0x1) == 0 ? Color.BLACK : Color.BLUE;
+					Color bitColor = !roundOutMasks[i].getBit(maskShift) ? Color.BLACK : Color.BLUE;
 					
 					double x1 = j*WIDTH_PER_BIT+1;
 					double x2 = spn.getRounds()[i].getPermutation().outPosition(j)*WIDTH_PER_BIT+1;
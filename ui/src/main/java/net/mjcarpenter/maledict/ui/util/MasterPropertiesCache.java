@@ -23,6 +23,7 @@ import java.util.Map;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.converters.Converter;
 
+import net.mjcarpenter.maledict.crypto.spn.Block;
 import net.mjcarpenter.maledict.crypto.spn.Key;
 import net.mjcarpenter.maledict.crypto.spn.Permutation;
 import net.mjcarpenter.maledict.crypto.spn.Round;
@@ -176,7 +177,7 @@ public class MasterPropertiesCache
 		return vis;
 	}
 	
-	public void colorVisualization(long[] inMask, long[] outMask)
+	public void colorVisualization(Block[] inMask, Block[] outMask)
 	{
 		vis.colorVisualization(inMask, outMask);
 	}